@@ -1,10 +1,8 @@
 package edu.uci.ics.cs.graspan.computationEL;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -31,6 +29,7 @@ import edu.uci.ics.cs.graspan.datastructures.Vertex;
 import edu.uci.ics.cs.graspan.dispatcher.GlobalParams;
 import edu.uci.ics.cs.graspan.scheduler.SchedulerInfo;
 import edu.uci.ics.cs.graspan.support.GraspanLogger;
+import edu.uci.ics.cs.graspan.support.PartitionFileReader;
 import edu.uci.ics.cs.graspan.support.Utilities;
 
 /**
@@ -573,6 +572,13 @@ public class LoaderEL {
 		 */
 		for (int i = 0; i < newParts.length; i++) {
 			if (newParts[i] != Integer.MIN_VALUE) {
+				// a CSR partition carries its degrees
+				if (PartitionFileReader.readOutDegrees(baseFilename
+						+ ".partition." + newParts[i],
+						PartitionQuerier.getFirstSrc(newParts[i]),
+						partOutDegs[i])) {
+					continue;
+				}
 				BufferedReader outDegInStrm = new BufferedReader(
 						new InputStreamReader(new FileInputStream(new File(
 								baseFilename + ".partition." + newParts[i]
@@ -754,69 +760,16 @@ public class LoaderEL {
 		for (int i = 0; i < newParts.length; i++) {
 			if (newParts[i] != Integer.MIN_VALUE) {
 
-				DataInputStream partInStrm = new DataInputStream(
-						new BufferedInputStream(new FileInputStream(
-								baseFilename + ".partition." + newParts[i])));
-
 				// stores the position of last filled edge (destV) and the edge
-				// val
-				// in partEdges and partEdgeVals for a source vertex
-				// for a partition
-				int[] lastAddedEdgePos = new int[PartitionQuerier
-						.getNumUniqueSrcs(newParts[i])];
+				// val in partEdges and partEdgeVals for a source vertex for a partition
+				int[] lastAddedEdgePos = new int[PartitionQuerier.getNumUniqueSrcs(newParts[i])];
 				for (int j = 0; j < lastAddedEdgePos.length; j++) {
 					lastAddedEdgePos[j] = -1;
 				}
 
-				while (partInStrm.available() != 0) {
-					{
-						try {
-							// get srcVId
-							int src = partInStrm.readInt();
-
-							// get corresponding arraySrcVId of srcVId
-							int arraySrcVId = src
-									- PartitionQuerier.getFirstSrc(newParts[i]);
-
-							// get count (number of destVs from srcV in the
-							// current
-							// list
-							// of the partition file)
-							int count = partInStrm.readInt();
-
-							// get dstVId & edgeVal and store them in the
-							// corresponding
-							// arrays
-							for (int j = 0; j < count; j++) {
-
-								// dstVId
-								partEdges[i][arraySrcVId][lastAddedEdgePos[arraySrcVId] + 1] = partInStrm
-										.readInt();
-
-								// test for artifical input graph
-								// if
-								// (partEdges[i][arraySrcVId][lastAddedEdgePos[arraySrcVId]
-								// + 1] > 152) {
-								// logger.info("ERROR: read vertex id > 152!");
-								// // System.exit(0);
-								// }
-
-								// edgeVal
-								partEdgeVals[i][arraySrcVId][lastAddedEdgePos[arraySrcVId] + 1] = partInStrm
-										.readByte();
-
-								// increment the last added position for this
-								// row
-								lastAddedEdgePos[arraySrcVId]++;
-							}
-
-						} catch (Exception exception) {
-							break;
-						}
-					}
-				}
-
-				partInStrm.close();
+				// get dstVId & edgeVal of each srcVId and store them in the corresponding arrays
+				PartitionFileReader.readPartition(baseFilename + ".partition." + newParts[i], PartitionQuerier.getFirstSrc(newParts[i]),
+						partEdges[i], partEdgeVals[i], lastAddedEdgePos);
 
 				logger.info("Loaded " + baseFilename + ".partition."
 						+ newParts[i]);
@@ -1,16 +1,15 @@
 package edu.uci.ics.cs.graspan.computationM;
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedWriter;
-import java.io.DataOutputStream;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 import edu.uci.ics.cs.graspan.datastructures.AllPartitions;
@@ -23,6 +22,7 @@ import edu.uci.ics.cs.graspan.datastructures.Vertex;
 import edu.uci.ics.cs.graspan.dispatcher.GlobalParams;
 import edu.uci.ics.cs.graspan.scheduler.SchedulerInfo;
 import edu.uci.ics.cs.graspan.support.GraspanLogger;
+import edu.uci.ics.cs.graspan.support.PartitionFileWriter;
 import edu.uci.ics.cs.graspan.support.Utilities;
 
 /**
@@ -43,6 +43,8 @@ public class ComputedPartProcessorM {
 //	private static final int OUTPUT_EDGE_TRACKER_INTERVAL = 1000;
 	private static final long PART_MAX_POST_NEW_EDGES = GlobalParams.getPartMaxPostNewEdges();
 
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
 	/**
 	 * Initializes the heuristic for maximum size of a partition after addition
 	 * of new edges
@@ -600,8 +602,18 @@ public class ComputedPartProcessorM {
 
 		// 3.1. save repartitioned partition and newly generated partitions
 		// iterate over saveParts and get partitionId
+		boolean writeInParallel = GlobalParams.parallelPartitionWrites() && !GlobalParams.writeBehindStorage();
+		if (writeInParallel) {
+			storePartsInParallel(vertices, intervals, partsToSaveByCPP, true);
+		}
 		for (Integer partitionId : partsToSaveByCPP)
 		{
+			if (writeInParallel)
+				break;
+			if (GlobalParams.writeBehindStorage()) {
+				storePartLater(vertices, intervals, partitionId);
+				continue;
+			}
 			long writeStart = System.currentTimeMillis();
 //			storePart(vertices, compsets, intervals, partitionId);
 			storePart(vertices, intervals, partitionId);
@@ -610,10 +622,13 @@ public class ComputedPartProcessorM {
 			logger.info("output.IO||"+"write," + (System.currentTimeMillis() - writeStart) );
 		}
 			
-		// 3.2. save degree of those partitions.
+		// 3.2. save degree of those partitions (stored along with the
+		// partitions when storing behind or in parallel).
 		// iterate over saveParts and get partitionId
 		for (Integer partitionId : partsToSaveByCPP)
 		{
+			if (GlobalParams.writeBehindStorage() || writeInParallel)
+				break;
 			long writeStart = System.currentTimeMillis();
 			storePartDegs(vertices, intervals, partitionId);
 //			EngineM.getIO_outputStrm().println("write," + Utilities.getDurationInHMS(System.currentTimeMillis() - writeStart) );
@@ -652,20 +667,27 @@ public class ComputedPartProcessorM {
 		//the whole computation will be an in-memory computation, there would be no further
 		//rounds of computation. So all loaded partitions should be saved to disk. 
 		if (GlobalParams.inMemComp()){
-			// 4.1. //saves any partition that has no new edges added
-			for (Integer partitionId : unModifiedParts)
-			{
-				long writeStart = System.currentTimeMillis();
-				storePart(vertices, intervals, partitionId);
-				logger.info("output.IO||"+"write," + (System.currentTimeMillis() - writeStart) );
-			}
-			
-			//4.2. //saves any partition that has new edges added but was not repartitioned
-			for (Integer partitionId : modifiedParts)
-			{
-				long writeStart = System.currentTimeMillis();
-				storePart(vertices, intervals, partitionId);
-				logger.info("output.IO||"+"write," + (System.currentTimeMillis() - writeStart) );
+			if (GlobalParams.parallelPartitionWrites()) {
+				// 4.1. and 4.2. together
+				List<Integer> partsToStore = new ArrayList<Integer>(unModifiedParts);
+				partsToStore.addAll(modifiedParts);
+				storePartsInParallel(vertices, intervals, partsToStore, false);
+			} else {
+				// 4.1. //saves any partition that has no new edges added
+				for (Integer partitionId : unModifiedParts)
+				{
+					long writeStart = System.currentTimeMillis();
+					storePart(vertices, intervals, partitionId);
+					logger.info("output.IO||"+"write," + (System.currentTimeMillis() - writeStart) );
+				}
+
+				//4.2. //saves any partition that has new edges added but was not repartitioned
+				for (Integer partitionId : modifiedParts)
+				{
+					long writeStart = System.currentTimeMillis();
+					storePart(vertices, intervals, partitionId);
+					logger.info("output.IO||"+"write," + (System.currentTimeMillis() - writeStart) );
+				}
 			}
 			
 			// 4.3. Remove saved partitions from LoadedVertexIntervals
@@ -704,99 +726,228 @@ public class ComputedPartProcessorM {
 		
 		// logger.info("Updating " + GlobalParams.baseFilename + ".partition."	+ partitionId);
 
-		// clear current file
-		DataOutputStream partOutStrm = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(GlobalParams.baseFilename + ".partition." + partitionId, false)));
-		partOutStrm.close();
+		if (GlobalParams.useCsrPartitionFormat()) {
+			storePartCsr(vertices, intervals, partitionId);
+			return;
+		}
 
-		partOutStrm = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(GlobalParams.baseFilename + ".partition."	+ partitionId, true)));
+		// the records are encoded into a buffer in the big-endian layout
+		// DataOutputStream used to write, and written out when it is full
+		FileOutputStream partOutStrm = new FileOutputStream(GlobalParams.baseFilename + ".partition." + partitionId, false);
+		try {
+			FileChannel channel = partOutStrm.getChannel();
+			ByteBuffer buf = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
 
-		int srcVId, destVId, count;
-		int edgeValue;
-		for (int i = 0; i < intervals.size(); i++) {
+			int srcVId, destVId, count;
+			byte edgeValue;
+			for (int i = 0; i < intervals.size(); i++) {
 
-			// locate the required interval in "vertices"
-			if (partitionId == intervals.get(i).getPartitionId()) {
+				// locate the required interval in "vertices"
+				if (partitionId == intervals.get(i).getPartitionId()) {
 
-				// scan each vertex in this interval in "vertices" datastructure
-				for (int j = intervals.get(i).getIndexStart(); j < intervals.get(i).getIndexEnd() + 1; j++) {
+					// scan each vertex in this interval in "vertices" datastructure
+					for (int j = intervals.get(i).getIndexStart(); j < intervals.get(i).getIndexEnd() + 1; j++) {
 
-					count = vertices[j].getNumOutEdges();
-					if (count == 0) {
-						continue;
-					}
-					// write the srcId
-					srcVId = vertices[j].getVertexId();
-					partOutStrm.writeInt(srcVId);
-					logger.info("srcVId: "+srcVId);//TODO :remove
-
-					// write the count
-					partOutStrm.writeInt(count);
-					logger.info("Count: "+count);//TODO :remove
-
-					// scan each edge (original edge) in list of each vertex in
-					// this interval
-					for (int k = 0; k < vertices[j].getNumOutEdges(); k++) {
-
-						// write the destId-edgeValue pair
-						if (vertices[j].getOutEdge(k) == -1)
-							break;
-						destVId = vertices[j].getOutEdge(k);
-						edgeValue = vertices[j].getOutEdgeValue(k);
-						partOutStrm.writeInt(destVId);
-						partOutStrm.writeByte(edgeValue);
-						
-						logger.info("destVId: "+destVId);//TODO :remove
-						logger.info("edgeValue: "+edgeValue);//TODO :remove
+						count = vertices[j].getNumOutEdges();
+						if (count == 0) {
+							continue;
+						}
+						// write the srcId and the count
+						srcVId = vertices[j].getVertexId();
+						if (buf.remaining() < 8)
+							drain(buf, channel);
+						buf.putInt(srcVId);
+						buf.putInt(count);
+
+						// scan each edge (original edge) in list of each vertex in
+						// this interval
+						for (int k = 0; k < count; k++) {
+
+							// write the destId-edgeValue pair
+							if (vertices[j].getOutEdge(k) == -1)
+								break;
+							destVId = vertices[j].getOutEdge(k);
+							edgeValue = vertices[j].getOutEdgeValue(k);
+							if (buf.remaining() < 5)
+								drain(buf, channel);
+							buf.putInt(destVId);
+							buf.put(edgeValue);
+						}
 
 					}
-
 				}
 			}
+			drain(buf, channel);
+		} finally {
+			partOutStrm.close();
 		}
 
-		partOutStrm.close();
+	}
 
+	/**
+	 * Queues a partition and its degrees to be stored by PartitionStoreQueue.
+	 * 
+	 * @param vertices
+	 * @param intervals
+	 * @param partitionId
+	 */
+	private static void storePartLater(Vertex[] vertices, List<LoadedVertexInterval> intervals, final Integer partitionId) {
+		final List<LoadedVertexInterval> snapIntervals = new ArrayList<LoadedVertexInterval>();
+		final Vertex[] snapVertices = PartitionStoreQueue.snapshot(vertices, intervals, partitionId, snapIntervals);
+		PartitionStoreQueue.submit(partitionId, new Callable<Void>() {
+			public Void call() throws IOException {
+				long writeStart = System.currentTimeMillis();
+				storePart(snapVertices, snapIntervals, partitionId);
+				storePartDegs(snapVertices, snapIntervals, partitionId);
+				logger.info("output.IO||" + "write," + (System.currentTimeMillis() - writeStart));
+				return null;
+			}
+		});
 	}
 
 	/**
-	 * Stores degrees of a partition.
+	 * Stores a partition to disk as a CSR partition file.
 	 * 
 	 * @param vertices
 	 * @param intervals
 	 * @param partitionId
 	 * @throws IOException
 	 */
-	public static void storePartDegs(Vertex[] vertices, List<LoadedVertexInterval> intervals, Integer partitionId) throws IOException {
+	private static void storePartCsr(Vertex[] vertices, List<LoadedVertexInterval> intervals, Integer partitionId) throws IOException {
+		int[][] edgs = new int[0][];
+		byte[][] vals = new byte[0][];
+		int firstSrc = PartitionQuerier.getFirstSrc(partitionId);
+		for (int i = 0; i < intervals.size(); i++) {
 
-		PrintWriter partDegOutStrm = new PrintWriter(new BufferedWriter(new FileWriter(GlobalParams.baseFilename + ".partition." + partitionId + ".degrees", false)));
-		partDegOutStrm.close();
+			// locate the required interval in "vertices"
+			if (partitionId == intervals.get(i).getPartitionId()) {
+				int indexStart = intervals.get(i).getIndexStart();
+				int numVertices = intervals.get(i).getIndexEnd() - indexStart + 1;
+				edgs = new int[numVertices][];
+				vals = new byte[numVertices][];
+				for (int j = 0; j < numVertices; j++) {
+					edgs[j] = vertices[indexStart + j].getOutEdges();
+					vals[j] = vertices[indexStart + j].getOutEdgeValues();
+				}
+				firstSrc = vertices[indexStart].getVertexId();
+				break;
+			}
+		}
+		PartitionFileWriter.writePartition(GlobalParams.baseFilename + ".partition." + partitionId, firstSrc, edgs, vals);
+	}
 
-		partDegOutStrm = new PrintWriter(new BufferedWriter(new FileWriter(GlobalParams.baseFilename + ".partition." + partitionId + ".degrees", true)));
+	/**
+	 * Stores degrees of a partition. Nothing is stored for CSR partitions,
+	 * which carry their degrees.
+	 * 
+	 * @param vertices
+	 * @param intervals
+	 * @param partitionId
+	 * @throws IOException
+	 */
+	public static void storePartDegs(Vertex[] vertices, List<LoadedVertexInterval> intervals, Integer partitionId) throws IOException {
 
-		int srcVId, deg;
+		if (GlobalParams.useCsrPartitionFormat())
+			return;
 
-		for (int i = 0; i < intervals.size(); i++) {
+		FileOutputStream partDegOutStrm = new FileOutputStream(GlobalParams.baseFilename + ".partition." + partitionId + ".degrees", false);
+		try {
+			FileChannel channel = partDegOutStrm.getChannel();
+			ByteBuffer buf = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
 
-			// locate the required interval in "vertices"
-			if (partitionId == intervals.get(i).getPartitionId()) {
+			int srcVId, deg;
 
-				// scan each vertex in this interval in "vertices" data structure
-				for (int j = intervals.get(i).getIndexStart(); j < intervals
-						.get(i).getIndexEnd() + 1; j++) {
+			for (int i = 0; i < intervals.size(); i++) {
 
-					// get srcId and deg
-					srcVId = vertices[j].getVertexId();
-					deg = vertices[j].getNumOutEdges();
-					if (deg == 0)
-						continue;
-					partDegOutStrm.println(srcVId + "\t" + deg);
+				// locate the required interval in "vertices"
+				if (partitionId == intervals.get(i).getPartitionId()) {
+
+					// scan each vertex in this interval in "vertices" data structure
+					for (int j = intervals.get(i).getIndexStart(); j < intervals
+							.get(i).getIndexEnd() + 1; j++) {
+
+						// get srcId and deg
+						srcVId = vertices[j].getVertexId();
+						deg = vertices[j].getNumOutEdges();
+						if (deg == 0)
+							continue;
+						// two ints of at most 11 characters, a tab and a newline
+						if (buf.remaining() < 24)
+							drain(buf, channel);
+						putDecimal(buf, srcVId);
+						buf.put((byte) '\t');
+						putDecimal(buf, deg);
+						buf.put((byte) '\n');
 
+					}
 				}
 			}
+			drain(buf, channel);
+		} finally {
+			partDegOutStrm.close();
 		}
 
-		partDegOutStrm.close();
+	}
 
+	/**
+	 * Stores partitions, and their degrees if withDegs is set, on the
+	 * PartitionWritePool, one partition per write.
+	 * 
+	 * @param vertices
+	 * @param intervals
+	 * @param partIds
+	 * @param withDegs
+	 * @throws IOException
+	 */
+	private static void storePartsInParallel(final Vertex[] vertices, final List<LoadedVertexInterval> intervals,
+			Collection<Integer> partIds, final boolean withDegs) throws IOException {
+		List<Callable<Void>> writes = new ArrayList<Callable<Void>>();
+		for (final Integer partitionId : partIds) {
+			writes.add(new Callable<Void>() {
+				public Void call() throws IOException {
+					long writeStart = System.currentTimeMillis();
+					storePart(vertices, intervals, partitionId);
+					if (withDegs)
+						storePartDegs(vertices, intervals, partitionId);
+					logger.info("output.IO||" + "write," + (System.currentTimeMillis() - writeStart));
+					return null;
+				}
+			});
+		}
+		PartitionWritePool.runAll(writes);
+	}
+
+	/**
+	 * Writes out the filled part of buf at the current position of the
+	 * channel.
+	 */
+	private static void drain(ByteBuffer buf, FileChannel channel) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining())
+			channel.write(buf);
+		buf.clear();
+	}
+
+	/**
+	 * Puts the decimal digits of n into buf as ASCII.
+	 */
+	private static void putDecimal(ByteBuffer buf, int i) {
+		long n = i;
+		if (n < 0) {
+			buf.put((byte) '-');
+			n = -n;
+		}
+		int start = buf.position();
+		do {
+			buf.put((byte) ('0' + n % 10));
+			n /= 10;
+		} while (n != 0);
+		// reverse the digits, which were put least significant first
+		for (int lo = start, hi = buf.position() - 1; lo < hi; lo++, hi--) {
+			byte b = buf.get(lo);
+			buf.put(lo, buf.get(hi));
+			buf.put(hi, b);
+		}
 	}
 	
 	private static long getRepartitionThreshold(long totalEdges) {
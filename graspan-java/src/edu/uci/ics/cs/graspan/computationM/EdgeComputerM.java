@@ -2,12 +2,13 @@ package edu.uci.ics.cs.graspan.computationM;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
 import java.util.logging.Logger;
 
 import edu.uci.ics.cs.graspan.datastructures.ComputationSet;
+import edu.uci.ics.cs.graspan.datastructures.LabelIndex;
 import edu.uci.ics.cs.graspan.datastructures.LoadedVertexInterval;
+import edu.uci.ics.cs.graspan.datastructures.PackedKeySet;
 import edu.uci.ics.cs.graspan.datastructures.Vertex;
 import edu.uci.ics.cs.graspan.dispatcher.GlobalParams;
 import edu.uci.ics.cs.graspan.support.GraspanLogger;
@@ -21,6 +22,29 @@ public class EdgeComputerM {
 
 	private static final Logger logger = GraspanLogger.getLogger("EdgeComputer");
 
+	// per-thread sets of (row index, label) pairs to merge, cleared for every vertex
+	private static final ThreadLocal<PackedKeySet> newRowIndicesSet = new ThreadLocal<PackedKeySet>() {
+		@Override
+		protected PackedKeySet initialValue() {
+			return new PackedKeySet();
+		}
+	};
+
+	private static final ThreadLocal<PackedKeySet> oldUnewRowIndicesSet = new ThreadLocal<PackedKeySet>() {
+		@Override
+		protected PackedKeySet initialValue() {
+			return new PackedKeySet();
+		}
+	};
+
+	// per-thread value rows filled with a single label, indexed by the label
+	private static final ThreadLocal<byte[][]> constValRows = new ThreadLocal<byte[][]>() {
+		@Override
+		protected byte[][] initialValue() {
+			return new byte[256][];
+		}
+	};
+
 	/**
 	 * 
 	 * @param i
@@ -61,8 +85,10 @@ public class EdgeComputerM {
 //		}
 
 		// 2. get the rows to merge
-		HashSet<IdValuePair> newRowIndicesToMerge = new HashSet<IdValuePair>();
-		HashSet<IdValuePair> oldUnewRowIndicesToMerge = new HashSet<IdValuePair>();
+		PackedKeySet newRowIndicesToMerge = newRowIndicesSet.get();
+		PackedKeySet oldUnewRowIndicesToMerge = oldUnewRowIndicesSet.get();
+		newRowIndicesToMerge.clear();
+		oldUnewRowIndicesToMerge.clear();
 
 		// 2.1. get the indices of the new_components to merge
 		getRowIndicesToMerge(compSets, intervals, oldEdgs, oldVals, oldEdgs_empty, newRowIndicesToMerge, "old");
@@ -79,7 +105,13 @@ public class EdgeComputerM {
 //			}
 //		}
 		
-		int num_of_rows_to_merge = 2 + oldUnewRowIndicesToMerge.size() + newRowIndicesToMerge.size();
+		int num_of_rows_to_merge;
+		if (GlobalParams.useLabelGroupedRows()) {
+			num_of_rows_to_merge = 2 + countLabelSlicesToMerge(compSets, newRowIndicesToMerge, "old")
+					+ countLabelSlicesToMerge(compSets, oldUnewRowIndicesToMerge, "new");
+		} else {
+			num_of_rows_to_merge = 2 + oldUnewRowIndicesToMerge.size() + newRowIndicesToMerge.size();
+		}
 		// 3. store the refs to rows in edgArrstoMerge & valArrstoMerge
 		int[][] edgArrstoMerge = new int[num_of_rows_to_merge][];
 		byte[][] valArrstoMerge = new byte[num_of_rows_to_merge][];
@@ -93,15 +125,41 @@ public class EdgeComputerM {
 		rows_to_merge_id = genEdgesToMergeForSRule(newEdgs, newVals, edgArrstoMerge, valArrstoMerge, rows_to_merge_id); //TODO: NEED TO FIX. IDENTIFIED AS GC-EXPENSIVE BY YOURKIT.
 		
 		//for length 2 rule
-		rows_to_merge_id = genEdgesToMerge(compSets, newRowIndicesToMerge, edgArrstoMerge, valArrstoMerge, rows_to_merge_id, "old");
-		rows_to_merge_id = genEdgesToMerge(compSets, oldUnewRowIndicesToMerge, edgArrstoMerge, valArrstoMerge, rows_to_merge_id, "new");
+		if (GlobalParams.useLabelGroupedRows()) {
+			rows_to_merge_id = genLabelSlicesToMerge(compSets, newRowIndicesToMerge, edgArrstoMerge, valArrstoMerge, rows_to_merge_id, "old");
+			rows_to_merge_id = genLabelSlicesToMerge(compSets, oldUnewRowIndicesToMerge, edgArrstoMerge, valArrstoMerge, rows_to_merge_id, "new");
+		} else {
+			rows_to_merge_id = genEdgesToMerge(compSets, newRowIndicesToMerge, edgArrstoMerge, valArrstoMerge, rows_to_merge_id, "old");
+			rows_to_merge_id = genEdgesToMerge(compSets, oldUnewRowIndicesToMerge, edgArrstoMerge, valArrstoMerge, rows_to_merge_id, "new");
+		}
 		
 
 		//-------------------------------------------------------------------------------
 		// 4. call the SortedArrMerger merge function
-		SortedArrMerger sortedArrMerger = new SortedArrMerger();
-		// logger.info("Vertex ID: " + this.vertex.getVertexId());
 		int srcRowId = 0;
+		if (GlobalParams.useLoserTreeMerge()) {
+			LoserTreeMerger merger;
+			if (GlobalParams.reuseMergeBuffers()) {
+				merger = LoserTreeMerger.getThreadMerger();
+			} else {
+				merger = new LoserTreeMerger();
+			}
+			merger.mergeTgtstoSrc(edgArrstoMerge, valArrstoMerge, srcRowId);
+
+			compSet.setDeltaEdges(merger.get_src_delta_edgs());
+			compSet.setDeltaVals(merger.get_src_delta_vals());
+			compSet.setOldUnewUdeltaEdgs(merger.get_src_oldUnewUdelta_edgs());
+			compSet.setOldUnewUdeltaVals(merger.get_src_oldUnewUdelta_vals());
+			return merger.get_num_new_edges();
+		}
+
+		SortedArrMerger sortedArrMerger;
+		if (GlobalParams.reuseMergeBuffers()) {
+			sortedArrMerger = SortedArrMerger.getThreadMerger();
+		} else {
+			sortedArrMerger = new SortedArrMerger();
+		}
+		// logger.info("Vertex ID: " + this.vertex.getVertexId());
 		sortedArrMerger.mergeTgtstoSrc(edgArrstoMerge, valArrstoMerge, srcRowId); //TODO: NEED TO FIX. IDENTIFIED AS GC-EXPENSIVE BY YOURKIT.
 
 		//-------------------------------------------------------------------------------
@@ -177,7 +235,7 @@ public class EdgeComputerM {
 	 * @param flag
 	 * @return
 	 */
-	private static int genEdgesToMerge(ComputationSet[] compSets, HashSet<IdValuePair> idsToMerge,
+	private static int genEdgesToMerge(ComputationSet[] compSets, PackedKeySet idsToMerge,
 			int[][] edgArrstoMerge, byte[][] valArrstoMerge, int rows_to_merge_id, String flag) {
 		
 		int index;
@@ -186,11 +244,11 @@ public class EdgeComputerM {
 		byte srcVal;
 		byte[] vals;
 		
-		for(IdValuePair pair: idsToMerge){
+		for (int k = 0; k < idsToMerge.size(); k++) {
 //			int index = pair.id;
-			index = pair.id;
+			index = PackedKeySet.rowIdx(idsToMerge.get(k));
 //			byte srcVal = pair.value;
-			srcVal = pair.value;
+			srcVal = PackedKeySet.label(idsToMerge.get(k));
 
 			//
 //			int[] edges = null;
@@ -242,6 +300,88 @@ public class EdgeComputerM {
 		return rows_to_merge_id;
 	}
 	
+	/**
+	 * Counts the label slices genLabelSlicesToMerge() will add for idsToMerge.
+	 * 
+	 * @param compSets
+	 * @param idsToMerge
+	 * @param flag
+	 * @return
+	 */
+	private static int countLabelSlicesToMerge(ComputationSet[] compSets, PackedKeySet idsToMerge, String flag) {
+		int count = 0;
+		for (int k = 0; k < idsToMerge.size(); k++) {
+			int index = PackedKeySet.rowIdx(idsToMerge.get(k));
+			byte srcVal = PackedKeySet.label(idsToMerge.get(k));
+			LabelIndex labelIndex = getLabelIndex(compSets[index], flag);
+			for (int l = 0; l < labelIndex.getNumLabels(); l++) {
+				if (GrammarChecker.canCombine(srcVal, labelIndex.getLabel(l))) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Same as genEdgesToMerge(), but instead of scanning every edge of a
+	 * target row, adds each label slice of the row that can combine with the
+	 * label of the edge to the target as a row of its own.
+	 * 
+	 * @param compSets
+	 * @param idsToMerge
+	 * @param edgArrstoMerge
+	 * @param valArrstoMerge
+	 * @param rows_to_merge_id
+	 * @param flag
+	 * @return
+	 */
+	private static int genLabelSlicesToMerge(ComputationSet[] compSets, PackedKeySet idsToMerge,
+			int[][] edgArrstoMerge, byte[][] valArrstoMerge, int rows_to_merge_id, String flag) {
+		for (int k = 0; k < idsToMerge.size(); k++) {
+			int index = PackedKeySet.rowIdx(idsToMerge.get(k));
+			byte srcVal = PackedKeySet.label(idsToMerge.get(k));
+			LabelIndex labelIndex = getLabelIndex(compSets[index], flag);
+			for (int l = 0; l < labelIndex.getNumLabels(); l++) {
+				byte dstVal = labelIndex.getLabel(l);
+				if (!GrammarChecker.canCombine(srcVal, dstVal))
+					continue;
+				int[] edges = labelIndex.getEdgs(l);
+				edgArrstoMerge[rows_to_merge_id] = edges;
+				valArrstoMerge[rows_to_merge_id] = getConstValRow(GrammarChecker.checkL2Rules(srcVal, dstVal), edges.length);
+				rows_to_merge_id++;
+			}
+		}
+		return rows_to_merge_id;
+	}
+
+	private static LabelIndex getLabelIndex(ComputationSet compSet, String flag) {
+		if (flag.equals("old")) {
+			return compSet.getNewLabelIndex();
+		}
+		return compSet.getOldUnewLabelIndex();
+	}
+
+	/**
+	 * Returns a value row of at least the given length holding only val. The
+	 * mergers read values only up to the length of the edge row, so the row
+	 * can be longer and is shared by all slices producing val.
+	 * 
+	 * @param val
+	 * @param length
+	 * @return
+	 */
+	private static byte[] getConstValRow(byte val, int length) {
+		byte[][] rows = constValRows.get();
+		byte[] row = rows[val & 0xFF];
+		if (row == null || row.length < length) {
+			row = new byte[Math.max(length, row == null ? 16 : row.length << 1)];
+			Arrays.fill(row, val);
+			rows[val & 0xFF] = row;
+		}
+		return row;
+	}
+
 //	private static byte checkGrammarAndGetNewEdgeVal(byte edgeVal1, byte edgeVal2) {
 //
 //		byte[][] grammarTab = GlobalParams.getGrammarTab();
@@ -265,7 +405,7 @@ public class EdgeComputerM {
 	 * @param newIdsToMerge
 	 * @param flag
 	 */
-	private static void getRowIndicesToMerge(ComputationSet[] compSets, List<LoadedVertexInterval> intervals, int[] edgs, byte[] vals, boolean edgs_empty, HashSet<IdValuePair> newIdsToMerge, String flag) {
+	private static void getRowIndicesToMerge(ComputationSet[] compSets, List<LoadedVertexInterval> intervals, int[] edgs, byte[] vals, boolean edgs_empty, PackedKeySet newIdsToMerge, String flag) {
 		int targetRowIndex = -1;
 		LoadedVertexInterval interval;
 		
@@ -277,6 +417,10 @@ public class EdgeComputerM {
 				newTgt = edgs[i];
 				val = vals[i];
 				
+				// no length 2 rule starts with val, so the target row would produce nothing
+				if (!GrammarChecker.hasL2Rules(val))
+					continue;
+				
 				for (int j = 0; j < intervals.size(); j++) {
 					targetRowIndex = -1;
 					interval = intervals.get(j);
@@ -291,7 +435,7 @@ public class EdgeComputerM {
 				
 				if((flag.equals("old") && compSets[targetRowIndex].getNewEdgs().length > 0) 
 						|| (flag.equals("new") && compSets[targetRowIndex].getOldUnewEdgs().length > 0)){
-					newIdsToMerge.add(new IdValuePair(targetRowIndex, val));
+					newIdsToMerge.add(targetRowIndex, val);
 				}
 //				if (edgs[i] != this.vertex.getVertexId()) {
 //				}
@@ -8,8 +8,13 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
@@ -24,6 +29,8 @@ import edu.uci.ics.cs.graspan.dispatcher.GlobalParams;
 import edu.uci.ics.cs.graspan.scheduler.Scheduler;
 import edu.uci.ics.cs.graspan.scheduler.SchedulerInfo;
 import edu.uci.ics.cs.graspan.support.GraspanLogger;
+import edu.uci.ics.cs.graspan.support.PartitionManifest;
+import edu.uci.ics.cs.graspan.support.PartitionSegments;
 import edu.uci.ics.cs.graspan.support.Utilities;
 
 /**
@@ -36,11 +43,25 @@ public class EngineM {
 
 	private ExecutorService computationExecutor;
 
+	// used instead of computationExecutor when degree-aware scheduling is on
+	private ForkJoinPool computationPool;
+
+	// a range of vertices is split further while its weight is above this
+	// fraction of the weight of the whole iteration, per thread
+	private static final int SPLITS_PER_THREAD = 8;
+
 	private long totalNewEdgs;
 	private long totalNewEdgsForIteratn;
 
-	private long newEdgesInOne;
-	private long newEdgesInTwo;
+	// new edges added in the current round, for each loaded interval
+	private long[] newEdgesInIntervals;
+
+	// bitset over loaded indices of the vertices to compute in the current
+	// iteration; null means all of them
+	private long[] activeFrontier;
+
+	private static final int[] EMPTY_EDGS = new int[0];
+	private static final byte[] EMPTY_VALS = new byte[0];
 
 	private int[] partsToLoad;
 
@@ -80,14 +101,40 @@ public class EngineM {
 			nThreads = Runtime.getRuntime().availableProcessors();
 		}
 		nThreads = GlobalParams.getNumThreads();
-		computationExecutor = Executors.newFixedThreadPool(nThreads);
+		if (GlobalParams.degreeAwareScheduling()) {
+			computationPool = new ForkJoinPool(nThreads);
+		} else {
+			computationExecutor = Executors.newFixedThreadPool(nThreads);
+		}
 
 		// -------------------------------------------------------------------------------
 		// instantiate loader
 		LoaderM loader = new LoaderM();
 
+		// continue from the last checkpoint, whose partitions and scheduling
+		// info replace those read by the loader
+		RoundCheckpoint checkpoint = null;
+		if (GlobalParams.resumeFromCheckpoint()) {
+			checkpoint = RoundCheckpoint.restore(GlobalParams.getBasefilename());
+			if (checkpoint == null) {
+				logger.info("No checkpoint to resume from, starting from round 1");
+			}
+		}
+
+		// checkpoints rely on partition files being replaced, not rewritten
+		int checkpointInterval = GlobalParams.getCheckpointInterval();
+		if (checkpointInterval > 0 && !GlobalParams.useCsrPartitionFormat()) {
+			logger.info("Checkpoints need CSR partitions, not saving any");
+			checkpointInterval = 0;
+		}
+
 		// instantiate scheduler
 		Scheduler scheduler = new Scheduler(AllPartitions.partAllocTable.length);
+		if (checkpoint != null) {
+			checkpoint.applyTo(scheduler);
+			roundNo = checkpoint.getRoundNo();
+			totalNewEdgs = checkpoint.getTotalNewEdgs();
+		}
 		Vertex[] vertices = null;
 
 		// round output info
@@ -123,6 +170,11 @@ public class EngineM {
 			List<LoadedVertexInterval> intervals = loader.getIntervals();
 			vertices = loader.getVertices();
 
+			// read the partitions of the likely next pair while this one computes
+			if (GlobalParams.prefetchPartitions()) {
+				loader.prefetchParts(scheduler.predictNextPartitionsEDC(AllPartitions.partAllocTable.length, partsToLoad));
+			}
+
 			// send interval info to scheduler
 			List<LoadedVertexInterval> intervalsForScheduler = new ArrayList<LoadedVertexInterval>(intervals);
 			scheduler.setLoadedIntervals(intervalsForScheduler);
@@ -161,7 +213,7 @@ public class EngineM {
 			// roundStartTime) + "," + (newEdgesInOne + newEdgesInTwo));
 			logger.info("output.round ||" + roundNo + ","
 					+ Utilities.getDurationInHMS(System.currentTimeMillis() - roundStartTime) + ","
-					+ (newEdgesInOne + newEdgesInTwo));
+					+ getNewEdgesInRound());
 
 			logger.info("Finish computation for one round");
 			logger.info("Computation and edge addition took: " + (System.currentTimeMillis() - roundStartTime) + " ms");
@@ -185,12 +237,40 @@ public class EngineM {
 			scheduler.setTerminationStatus();
 			scheduler.updateSchedInfoPostRepart(numPartsFinal - numPartsStart, numPartsFinal);
 
+			// save a checkpoint once the edges of the round are all on disk
+			if (checkpointInterval > 0 && roundNo % checkpointInterval == 0) {
+				long checkpointStart = System.currentTimeMillis();
+				loader.storeLoadedParts();
+				PartitionStoreQueue.awaitAll();
+				RoundCheckpoint.save(GlobalParams.getBasefilename(), roundNo, totalNewEdgs, scheduler);
+				logger.info("output.IO||" + "checkpoint," + (System.currentTimeMillis() - checkpointStart));
+			}
+
 			// //for debugging
 			// printSrcVerticesForDebugging(vertices);
 		}
 		logger.info("Total Num of New Edges: " + totalNewEdgs);
 		// printSrcVerticesForDebugging(vertices);
-		computationExecutor.shutdown();
+		if (computationPool != null) {
+			computationPool.shutdown();
+		} else {
+			computationExecutor.shutdown();
+		}
+		loader.shutdown();
+		PartitionStoreQueue.awaitAll();
+		PartitionStoreQueue.shutdown();
+		PartitionWritePool.shutdown();
+
+		// fold the remaining delta segments into their partitions, so that
+		// each partition is a single file again
+		if (GlobalParams.useDeltaSegments()) {
+			for (int i = 0; i < AllPartitions.partAllocTable.length; i++) {
+				String partFile = GlobalParams.getBasefilename() + ".partition." + AllPartitions.partAllocTable[i][0];
+				if (PartitionSegments.numSegments(partFile) > 0) {
+					PartitionSegments.compact(partFile);
+				}
+			}
+		}
 
 		// this.roundOutput.close();
 		// this.iterationOutput.close();
@@ -198,12 +278,21 @@ public class EngineM {
 
 		// save part alloc table
 		// logger.info(Arrays.deepToString(AllPartitions.partAllocTable));
-		PrintWriter partAllocTableOutStrm = new PrintWriter(GlobalParams.getBasefilename() + ".partAllocTable",
-				"UTF-8");
-		for (int i = 0; i < AllPartitions.partAllocTable.length; i++) {
-			partAllocTableOutStrm.println(AllPartitions.partAllocTable[i][0] + "\t" + AllPartitions.partAllocTable[i][1]);
+		if (PartitionManifest.exists(GlobalParams.getBasefilename())) {
+			PartitionManifest manifest = PartitionManifest.read(GlobalParams.getBasefilename());
+			manifest.setPartAllocTable(AllPartitions.partAllocTable);
+			manifest.write(GlobalParams.getBasefilename());
+		} else {
+			PrintWriter partAllocTableOutStrm = new PrintWriter(GlobalParams.getBasefilename() + ".partAllocTable",
+					"UTF-8");
+			for (int i = 0; i < AllPartitions.partAllocTable.length; i++) {
+				partAllocTableOutStrm.println(AllPartitions.partAllocTable[i][0] + "\t" + AllPartitions.partAllocTable[i][1]);
+			}
+			partAllocTableOutStrm.close();
 		}
-		partAllocTableOutStrm.close();
+
+		// the computation is complete, there is nothing left to resume
+		RoundCheckpoint.delete(GlobalParams.getBasefilename());
 	}
 
 	/**
@@ -238,8 +327,7 @@ public class EngineM {
 		if (vertices == null || vertices.length == 0)
 			return;
 
-		newEdgesInOne = 0;
-		newEdgesInTwo = 0;
+		newEdgesInIntervals = new long[intervals.size()];
 
 		scheduler.setPrematureTerminationStatus(false);
 
@@ -251,13 +339,6 @@ public class EngineM {
 		final int nWorkers = vertices.length / chunkSize + 1;
 		logger.info("nWorkers " + nWorkers);
 
-		// get index for two partitions
-		assert (intervals.size() == 2);
-		final int indexStartForOne = intervals.get(0).getIndexStart();
-		final int indexEndForOne = intervals.get(0).getIndexEnd();
-		final int indexStartForTwo = intervals.get(1).getIndexStart();
-		final int indexEndForTwo = intervals.get(1).getIndexEnd();
-
 		int iterationNo = 0;
 		do {
 			iterationNo++;
@@ -267,9 +348,20 @@ public class EngineM {
 
 			// printCompSetsInfo(vertices,compSets);
 
+			// only the vertices that can produce edges are computed after the
+			// first iteration of the round
+			activeFrontier = null;
+			if (GlobalParams.useActiveFrontier() && iterationNo > 1) {
+				activeFrontier = computeActiveFrontier(vertices, compSets, intervals);
+			}
+
 			// parallel computation for one iteration
-			parallelComputationForOneIteration(termationLock, chunkSize, nWorkers, vertices, compSets, intervals,
-					indexStartForOne, indexEndForOne, indexStartForTwo, indexEndForTwo, scheduler);
+			if (computationPool != null) {
+				forkJoinComputationForOneIteration(vertices, compSets, intervals);
+			} else {
+				parallelComputationForOneIteration(termationLock, chunkSize, nWorkers, vertices, compSets, intervals,
+						scheduler);
+			}
 
 			// for debugging: print compsets information at the end of each
 			// iteration
@@ -283,23 +375,27 @@ public class EngineM {
 			// totalDupEdges);
 
 			assert (compSets.length == vertices.length);
-			for (int i = 0; i < compSets.length; i++) {
-				// resulting edges after one iteration
-				vertices[i].setOutEdges(compSets[i].getOldUnewUdeltaEdgs());
-				vertices[i].setOutEdgeValues(compSets[i].getOldUnewUdeltaVals());
-
-				/*
-				 * Update edge-dest-count and edge-dest-count-2way
-				 */
-				updateEDCandTwoWayEDC(vertices, compSets, i);
-
-				// update compsets before next iteration
-				compSets[i].setOldEdgs(compSets[i].getOldUnewEdgs());
-				compSets[i].setOldVals(compSets[i].getOldUnewVals());
-				compSets[i].setNewEdgs(compSets[i].getDeltaEdgs());
-				compSets[i].setNewVals(compSets[i].getDeltaVals());
-				compSets[i].setOldUnewEdgs(compSets[i].getOldUnewUdeltaEdgs());
-				compSets[i].setOldUnewVals(compSets[i].getOldUnewUdeltaVals());
+			if (GlobalParams.parallelPostIteration()) {
+				parallelPostIteration(vertices, compSets);
+			} else {
+				for (int i = 0; i < compSets.length; i++) {
+					// resulting edges after one iteration
+					vertices[i].setOutEdges(compSets[i].getOldUnewUdeltaEdgs());
+					vertices[i].setOutEdgeValues(compSets[i].getOldUnewUdeltaVals());
+
+					/*
+					 * Update edge-dest-count and edge-dest-count-2way
+					 */
+					updateEDCandTwoWayEDC(vertices, compSets, i);
+
+					// update compsets before next iteration
+					compSets[i].setOldEdgs(compSets[i].getOldUnewEdgs());
+					compSets[i].setOldVals(compSets[i].getOldUnewVals());
+					compSets[i].setNewEdgs(compSets[i].getDeltaEdgs());
+					compSets[i].setNewVals(compSets[i].getDeltaVals());
+					compSets[i].setOldUnewEdgs(compSets[i].getOldUnewUdeltaEdgs());
+					compSets[i].setOldUnewVals(compSets[i].getOldUnewUdeltaVals());
+				}
 			}
 
 			// iterationOutput.println(roundNo + "," + iterationNo +","+
@@ -310,13 +406,13 @@ public class EngineM {
 					+ totalNewEdgsForIteratn);
 			logger.info("Finished iteration no. " + iterationNo + " took "
 					+ (System.currentTimeMillis() - iterationStartTime) / 1000 + " s");
-			logger.info("New edges added in this round, thus far: " + (newEdgesInOne + newEdgesInTwo));
-			if ((newEdgesInOne + newEdgesInTwo) > MaxNumNewEdgesPerRoundOfComputation) {
+			logger.info("New edges added in this round, thus far: " + getNewEdgesInRound());
+			if (getNewEdgesInRound() > MaxNumNewEdgesPerRoundOfComputation) {
 				// if ((newEdgesInOne + newEdgesInTwo) >
 				// GlobalParams.getPartMaxPostNewEdges()) {
 				scheduler.setPrematureTerminationStatus(true);
-				logger.info("Premature Terminate! " + newEdgesInOne + " (newEdgesInOne) + " + newEdgesInTwo
-						+ " (newEdgesInTwo) >" + MaxNumNewEdgesPerRoundOfComputation);
+				logger.info("Premature Terminate! " + Arrays.toString(newEdgesInIntervals) + " (newEdgesInIntervals) >"
+						+ MaxNumNewEdgesPerRoundOfComputation);
 			}
 			
 			if (totalNewEdgsForIteratn>MaxNumNewEdgesPerIteration){
@@ -327,24 +423,162 @@ public class EngineM {
 
 		} while (totalNewEdgsForIteratn > 0 & scheduler.getPrematureTerminationStatus() == false);
 
-		// set new edge added flag for scheduler
-		if (newEdgesInOne > 0)
-			intervals.get(0).setIsNewEdgeAdded(true);
-		if (newEdgesInTwo > 0)
-			intervals.get(1).setIsNewEdgeAdded(true);
+		for (int j = 0; j < intervals.size(); j++) {
+			// set new edge added flag for scheduler
+			if (newEdgesInIntervals[j] > 0)
+				intervals.get(j).setIsNewEdgeAdded(true);
 
-		// set new edge added for current round flag for scheduler
-		if (newEdgesInOne > 0) {
-			intervals.get(0).setHasNewEdgesInCurrentRound(true);
-		} else {
-			intervals.get(0).setHasNewEdgesInCurrentRound(false);
+			// set new edge added for current round flag for scheduler
+			intervals.get(j).setHasNewEdgesInCurrentRound(newEdgesInIntervals[j] > 0);
 		}
-		if (newEdgesInTwo > 0) {
-			intervals.get(1).setHasNewEdgesInCurrentRound(true);
-		} else {
-			intervals.get(1).setHasNewEdgesInCurrentRound(false);
+
+	}
+
+	private long getNewEdgesInRound() {
+		long sum = 0;
+		for (int j = 0; j < newEdgesInIntervals.length; j++) {
+			sum += newEdgesInIntervals[j];
 		}
+		return sum;
+	}
 
+	/**
+	 * Returns the position in intervals of the interval holding the vertex at
+	 * index i, or -1.
+	 * 
+	 * @param i
+	 * @param intervals
+	 * @return
+	 */
+	private static int findIntervalOfIndex(int i, List<LoadedVertexInterval> intervals) {
+		for (int j = 0; j < intervals.size(); j++) {
+			if (i >= intervals.get(j).getIndexStart() && i <= intervals.get(j).getIndexEnd())
+				return j;
+		}
+		return -1;
+	}
+
+	/**
+	 * Whether the vertex at loaded index i is to be computed in this
+	 * iteration.
+	 * 
+	 * @param i
+	 * @return
+	 */
+	private boolean isActive(int i) {
+		return activeFrontier == null || (activeFrontier[i >>> 6] & (1L << i)) != 0;
+	}
+
+	/**
+	 * Gives an inactive vertex the result computing it would have had: no
+	 * delta, and oldUnewUdelta equal to oldUnew.
+	 * 
+	 * @param compSet
+	 */
+	private static void skipInactiveVertex(ComputationSet compSet) {
+		compSet.setDeltaEdges(EMPTY_EDGS);
+		compSet.setDeltaVals(EMPTY_VALS);
+		compSet.setOldUnewUdeltaEdgs(compSet.getOldUnewEdgs());
+		compSet.setOldUnewUdeltaVals(compSet.getOldUnewVals());
+	}
+
+	/**
+	 * Builds the frontier of the next iteration from the results of the
+	 * previous one. A vertex can only get new edges if it got new edges
+	 * itself (they are joined with the targets' oldUnew edges and with the
+	 * singleton rules), or if one of its old edges, with a label that starts a
+	 * length 2 rule, points to a loaded vertex that got new edges. Every other
+	 * vertex is left out.
+	 * 
+	 * @param vertices
+	 * @param compSets
+	 * @param intervals
+	 * @return
+	 */
+	private long[] computeActiveFrontier(final Vertex[] vertices, final ComputationSet[] compSets,
+			final List<LoadedVertexInterval> intervals) {
+		final int n = compSets.length;
+
+		// vertices that got new edges
+		final long[] changed = new long[(n + 63) >>> 6];
+		for (int i = 0; i < n; i++) {
+			if (compSets[i].getNewEdgs().length > 0)
+				changed[i >>> 6] |= 1L << i;
+		}
+
+		final long[] frontier = new long[changed.length];
+		ExecutorService executor = computationPool != null ? computationPool : computationExecutor;
+
+		// chunks are whole words, so no two chunks write the same word
+		int wordsPerChunk = 1 + changed.length / (GlobalParams.getNumThreads() * 4);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int word = 0; word < changed.length; word += wordsPerChunk) {
+			final int chunkStart = word << 6;
+			final int chunkEnd = Math.min((word + wordsPerChunk) << 6, n);
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					for (int i = chunkStart; i < chunkEnd; i++) {
+						if ((changed[i >>> 6] & (1L << i)) != 0 || pointsToChanged(compSets[i], changed, intervals))
+							frontier[i >>> 6] |= 1L << i;
+					}
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Void> result : executor.invokeAll(tasks)) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while computing the active frontier", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+
+		int numActive = 0;
+		for (int w = 0; w < frontier.length; w++) {
+			numActive += Long.bitCount(frontier[w]);
+		}
+		logger.info("Active vertices in frontier: " + numActive + " of " + n);
+		return frontier;
+	}
+
+	private static boolean pointsToChanged(ComputationSet compSet, long[] changed, List<LoadedVertexInterval> intervals) {
+		int[] oldEdgs = compSet.getOldEdgs();
+		byte[] oldVals = compSet.getOldVals();
+		for (int k = 0; k < oldEdgs.length; k++) {
+			if (!GrammarChecker.hasL2Rules(oldVals[k]))
+				continue;
+			int tgt = oldEdgs[k];
+			for (int j = 0; j < intervals.size(); j++) {
+				LoadedVertexInterval interval = intervals.get(j);
+				if (tgt >= interval.getFirstVertex() && tgt <= interval.getLastVertex()) {
+					int t = tgt - interval.getFirstVertex() + interval.getIndexStart();
+					if ((changed[t >>> 6] & (1L << t)) != 0)
+						return true;
+					break;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds the counts a worker accumulated locally to the iteration totals.
+	 * Called once per worker, so the lock is not taken per vertex.
+	 * 
+	 * @param counterLock
+	 * @param workerTotal
+	 * @param workerNewEdgesInIntervals
+	 */
+	private void addWorkerCounts(Object counterLock, long workerTotal, long[] workerNewEdgesInIntervals) {
+		synchronized (counterLock) {
+			totalNewEdgsForIteratn += workerTotal;
+			for (int j = 0; j < workerNewEdgesInIntervals.length; j++) {
+				newEdgesInIntervals[j] += workerNewEdgesInIntervals[j];
+			}
+		}
 	}
 
 	private void updateEDCandTwoWayEDC(final Vertex[] vertices, final ComputationSet[] compSets, int i) {
@@ -374,6 +608,117 @@ public class EngineM {
 		}
 	}
 
+	/**
+	 * Parallel version of the loop at the end of an iteration in
+	 * computeForOneRound(): moves the results of the iteration into the
+	 * vertices and compSets, and counts the delta edges of each chunk of
+	 * vertices in an edc delta of its own. The deltas are added to the edc
+	 * once all chunks are done, and edcTwoWay is recomputed for the entries
+	 * they touched.
+	 * 
+	 * @param vertices
+	 * @param compSets
+	 */
+	private void parallelPostIteration(final Vertex[] vertices, final ComputationSet[] compSets) {
+		ExecutorService executor = computationPool != null ? computationPool : computationExecutor;
+		final int numParts = SchedulerInfo.getEdgeDestCount().length;
+		int chunkSize = 1 + vertices.length / (GlobalParams.getNumThreads() * 4);
+
+		List<Callable<long[][]>> tasks = new ArrayList<Callable<long[][]>>();
+		for (int start = 0; start < vertices.length; start += chunkSize) {
+			final int chunkStart = start;
+			final int chunkEnd = Math.min(start + chunkSize, vertices.length);
+			tasks.add(new Callable<long[][]>() {
+				public long[][] call() {
+					// rows of the edc delta, allocated for the source partitions met
+					long[][] edcDelta = new long[numParts][];
+					for (int i = chunkStart; i < chunkEnd; i++) {
+						// resulting edges after one iteration
+						vertices[i].setOutEdges(compSets[i].getOldUnewUdeltaEdgs());
+						vertices[i].setOutEdgeValues(compSets[i].getOldUnewUdeltaVals());
+
+						countDeltaEdgesInEDC(vertices, compSets, i, edcDelta);
+
+						// update compsets before next iteration
+						compSets[i].setOldEdgs(compSets[i].getOldUnewEdgs());
+						compSets[i].setOldVals(compSets[i].getOldUnewVals());
+						compSets[i].setNewEdgs(compSets[i].getDeltaEdgs());
+						compSets[i].setNewVals(compSets[i].getDeltaVals());
+						compSets[i].setOldUnewEdgs(compSets[i].getOldUnewUdeltaEdgs());
+						compSets[i].setOldUnewVals(compSets[i].getOldUnewUdeltaVals());
+					}
+					return edcDelta;
+				}
+			});
+		}
+
+		List<long[][]> edcDeltas = new ArrayList<long[][]>();
+		try {
+			for (Future<long[][]> result : executor.invokeAll(tasks)) {
+				edcDeltas.add(result.get());
+			}
+		} catch (InterruptedException e) {
+			// the vertices of some chunks may have moved on to the next
+			// iteration and others not, so the round cannot go on
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while updating the vertices after an iteration", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+
+		long[][] edc = SchedulerInfo.getEdgeDestCount();
+		long[][] edcTwoWay = SchedulerInfo.getEdcTwoWay();
+		for (long[][] edcDelta : edcDeltas) {
+			for (int partA = 0; partA < numParts; partA++) {
+				if (edcDelta[partA] == null)
+					continue;
+				for (int partB = 0; partB < numParts; partB++) {
+					edc[partA][partB] += edcDelta[partA][partB];
+				}
+			}
+		}
+		for (long[][] edcDelta : edcDeltas) {
+			for (int partA = 0; partA < numParts; partA++) {
+				if (edcDelta[partA] == null)
+					continue;
+				for (int partB = 0; partB < numParts; partB++) {
+					if (edcDelta[partA][partB] == 0)
+						continue;
+					if (partA == partB)
+						edcTwoWay[partA][partB] = edc[partA][partB];
+					else
+						edcTwoWay[partA][partB] = edc[partA][partB] + edc[partB][partA];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts the delta edges of compSets[i] by source and destination
+	 * partition into edcDelta.
+	 * 
+	 * @param vertices
+	 * @param compSets
+	 * @param i
+	 * @param edcDelta
+	 */
+	private static void countDeltaEdgesInEDC(Vertex[] vertices, ComputationSet[] compSets, int i, long[][] edcDelta) {
+		int[] deltaEdgs = compSets[i].getDeltaEdgs();
+		if (deltaEdgs.length == 0)
+			return;
+
+		int partA = PartitionQuerier.findPartition(vertices[i].getVertexId());
+		if (edcDelta[partA] == null)
+			edcDelta[partA] = new long[edcDelta.length];
+		long[] row = edcDelta[partA];
+		for (int k = 0; k < deltaEdgs.length; k++) {
+			int partB = PartitionQuerier.findPartition(deltaEdgs[k]);
+			if (partB == -1) // destination v does not lie in any partition
+				continue;
+			row[partB]++;
+		}
+	}
+
 	/**
 	 * @param termationLock
 	 * @param chunkSize
@@ -381,15 +726,10 @@ public class EngineM {
 	 * @param vertices
 	 * @param compSets
 	 * @param intervals
-	 * @param indexStartForOne
-	 * @param indexEndForOne
-	 * @param indexStartForTwo
-	 * @param indexEndForTwo
 	 */
 	private void parallelComputationForOneIteration(final Object termationLock, final int chunkSize, final int nWorkers,
 			final Vertex[] vertices, final ComputationSet[] compSets, final List<LoadedVertexInterval> intervals,
-			final int indexStartForOne, final int indexEndForOne, final int indexStartForTwo,
-			final int indexEndForTwo, final Scheduler scheduler) {
+			final Scheduler scheduler) {
 
 		final AtomicInteger countDown = new AtomicInteger(nWorkers);
 		final Object counterLock = new Object();
@@ -404,6 +744,10 @@ public class EngineM {
 				public void run() {
 					long threadUpdates = 0;
 
+					// counts of this worker, added to the totals once at the end
+					long workerTotal = 0;
+					long[] workerNewEdgesInIntervals = new long[intervals.size()];
+
 					// logger.info("in multithreaded portion - chunk start: " +
 					// chunkStart + " ThreadNo:" +
 					// Thread.currentThread().getId());
@@ -419,24 +763,24 @@ public class EngineM {
 							Vertex vertex = vertices[i];
 
 							if (vertex != null && vertex.getNumOutEdges() != 0) {
+								if (!isActive(i)) {
+									skipInactiveVertex(compSets[i]);
+									continue;
+								}
 								// update edges for one src vertex
 								threadUpdates = EdgeComputerM.execUpdate(i, compSets, intervals);
-								synchronized (counterLock) {
-									totalNewEdgsForIteratn += threadUpdates;
-									// check if there are new edges added in
-									// partition one and two
-									if (i >= indexStartForOne && i <= indexEndForOne)
-										newEdgesInOne += threadUpdates;
-									else if (i >= indexStartForTwo && i <= indexEndForTwo)
-										newEdgesInTwo += threadUpdates;
-									//TODO: TO TEST THE FOLLOWING
-//									if (totalNewEdgsForIteratn > MaxNumNewEdgesPerIteration){
-//										logger.info("Number of edges added in this iteration exceed limit!, terminating prematurely.");
-//									scheduler.setPrematureTerminationStatus(true);
-//										iterationLimitExceeded=true;
-//									break;
-//									}
-								}
+								workerTotal += threadUpdates;
+								// check which loaded partition got the new edges
+								int j = findIntervalOfIndex(i, intervals);
+								if (j != -1)
+									workerNewEdgesInIntervals[j] += threadUpdates;
+								//TODO: TO TEST THE FOLLOWING
+//								if (totalNewEdgsForIteratn > MaxNumNewEdgesPerIteration){
+//									logger.info("Number of edges added in this iteration exceed limit!, terminating prematurely.");
+//								scheduler.setPrematureTerminationStatus(true);
+//									iterationLimitExceeded=true;
+//								break;
+//								}
 								
 								
 							}
@@ -444,6 +788,7 @@ public class EngineM {
 					} catch (Exception e) {
 						e.printStackTrace();
 					} finally {
+						addWorkerCounts(counterLock, workerTotal, workerNewEdgesInIntervals);
 						int pending = countDown.decrementAndGet();
 						synchronized (termationLock) {
 							// totalNewEdgsForIteratn += threadUpdates;
@@ -468,6 +813,99 @@ public class EngineM {
 		}
 	}
 
+	/**
+	 * Same as parallelComputationForOneIteration(), but the vertices are
+	 * split into ranges of about equal cumulative degree (old + new edges of
+	 * each compSet) and run as ForkJoin tasks, so that idle threads can steal
+	 * the remaining halves of ranges holding hub vertices. Returns once every
+	 * range is done.
+	 * 
+	 * @param vertices
+	 * @param compSets
+	 * @param intervals
+	 */
+	private void forkJoinComputationForOneIteration(final Vertex[] vertices, final ComputationSet[] compSets,
+			final List<LoadedVertexInterval> intervals) {
+
+		// cumulative degree; every vertex costs at least 1
+		final long[] cumDegree = new long[vertices.length + 1];
+		for (int i = 0; i < vertices.length; i++) {
+			long degree = 1;
+			if (vertices[i] != null && vertices[i].getNumOutEdges() != 0) {
+				if (isActive(i))
+					degree += compSets[i].getOldEdgs().length + compSets[i].getNewEdgs().length;
+			}
+			cumDegree[i + 1] = cumDegree[i] + degree;
+		}
+		long splitThreshold = cumDegree[vertices.length] / ((long) computationPool.getParallelism() * SPLITS_PER_THREAD);
+		final long minRangeWeight = Math.max(1, splitThreshold);
+		final Object counterLock = new Object();
+
+		class ComputeRange extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+
+			private final int start, end;
+
+			ComputeRange(int start, int end) {
+				this.start = start;
+				this.end = end;
+			}
+
+			@Override
+			protected void compute() {
+				if (end - start > 1 && cumDegree[end] - cumDegree[start] > minRangeWeight) {
+					int mid = splitPoint(start, end);
+					invokeAll(new ComputeRange(start, mid), new ComputeRange(mid, end));
+					return;
+				}
+
+				long threadUpdates = 0;
+				long rangeTotal = 0;
+				long[] rangeNewEdgesInIntervals = new long[intervals.size()];
+				try {
+					for (int i = start; i < end; i++) {
+						Vertex vertex = vertices[i];
+
+						if (vertex != null && vertex.getNumOutEdges() != 0) {
+							if (!isActive(i)) {
+								skipInactiveVertex(compSets[i]);
+								continue;
+							}
+							threadUpdates = EdgeComputerM.execUpdate(i, compSets, intervals);
+							rangeTotal += threadUpdates;
+							int j = findIntervalOfIndex(i, intervals);
+							if (j != -1)
+								rangeNewEdgesInIntervals[j] += threadUpdates;
+						}
+					}
+				} catch (Exception e) {
+					e.printStackTrace();
+				} finally {
+					addWorkerCounts(counterLock, rangeTotal, rangeNewEdgesInIntervals);
+				}
+			}
+
+			/**
+			 * The index in (start, end) closest to half of the weight of the
+			 * range.
+			 */
+			private int splitPoint(int start, int end) {
+				long half = cumDegree[start] + (cumDegree[end] - cumDegree[start]) / 2;
+				int lo = start + 1, hi = end - 1;
+				while (lo < hi) {
+					int m = (lo + hi) >>> 1;
+					if (cumDegree[m] < half)
+						lo = m + 1;
+					else
+						hi = m;
+				}
+				return lo;
+			}
+		}
+
+		computationPool.invoke(new ComputeRange(0, vertices.length));
+	}
+
 	/**
 	 * for debugging: printing compsets at the end of each iteration
 	 * 
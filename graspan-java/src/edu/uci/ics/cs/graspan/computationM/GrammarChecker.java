@@ -8,6 +8,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -27,6 +28,24 @@ public class GrammarChecker {
 	
 	public static Set<Byte> eRules = new LinkedHashSet<Byte>();
 	
+	// rules compiled into flat tables at the end of loadGrammars(), indexed by
+	// the unsigned symbol value; -1 means no rule
+	private static int numRuleSymbols = 0;
+	
+	private static byte[] l2Table = new byte[0];
+	
+	private static byte[] l1Table = new byte[0];
+	
+	// for each left label, the set of right labels it has a rule with
+	private static int maskWords = 0;
+	
+	private static long[] l2Masks = new long[0];
+	
+	private static boolean[] hasL2Rules = new boolean[0];
+
+	// whether each symbol is taken by a rule of length 1 or 2
+	private static boolean[] inRules = new boolean[0];
+	
 	
 	public static void loadGrammars(File grammar_input) throws IOException {
 		// initialize edgeDestCount and partSizes variables
@@ -67,11 +86,54 @@ public class GrammarChecker {
 
 		inGrammarStrm.close();
 		
+		compileRules();
+		
 		writeCollection(new ArrayList<Map.Entry<String, Byte>>(map.entrySet()), new File(grammar_input.getParentFile(), "grammar"));
 		// logger.info("Loaded " + ".grammar");
 	}
 	
 	
+	/**
+	 * Compiles dRules and sRules into the lookup tables used by checkL2Rules()
+	 * and checkL1Rules().
+	 */
+	private static void compileRules() {
+		int n = map.size();
+		int words = (n + 63) >>> 6;
+		
+		byte[] l2 = new byte[n * n];
+		byte[] l1 = new byte[n];
+		long[] masks = new long[n * words];
+		boolean[] hasRules = new boolean[n];
+		boolean[] used = new boolean[n];
+		Arrays.fill(l2, (byte) -1);
+		Arrays.fill(l1, (byte) -1);
+		
+		for (Map.Entry<Byte, HashMap<Byte, Byte>> rule : dRules.entrySet()) {
+			int src = rule.getKey() & 0xFF;
+			for (Map.Entry<Byte, Byte> rhs : rule.getValue().entrySet()) {
+				int dst = rhs.getKey() & 0xFF;
+				l2[src * n + dst] = rhs.getValue();
+				masks[src * words + (dst >>> 6)] |= 1L << dst;
+				hasRules[src] = true;
+				used[src] = true;
+				used[dst] = true;
+			}
+		}
+		for (Map.Entry<Byte, Byte> rule : sRules.entrySet()) {
+			l1[rule.getKey() & 0xFF] = rule.getValue();
+			used[rule.getKey() & 0xFF] = true;
+		}
+		
+		numRuleSymbols = n;
+		maskWords = words;
+		l2Table = l2;
+		l1Table = l1;
+		l2Masks = masks;
+		hasL2Rules = hasRules;
+		inRules = used;
+	}
+	
 	public static Byte getValue(String string) {
 		string = string.trim();
 		if(map.containsKey(string)){
@@ -96,25 +158,61 @@ public class GrammarChecker {
 
 	public static byte checkL2Rules(byte srcEval, byte destEval){
 		// BC ----- > A : <B,<C,A>> : <srcEval,<destEval,OPEval>>
-		byte OPEval = -1;
-		
-		if(dRules.containsKey(srcEval)){
-			HashMap<Byte, Byte> map = dRules.get(srcEval);
-			if(map.containsKey(destEval)){
-				OPEval = map.get(destEval);
-			}
+		int src = srcEval & 0xFF, dst = destEval & 0xFF;
+		if (src >= numRuleSymbols || dst >= numRuleSymbols) {
+			return -1;
 		}
-		
-		return OPEval;
+		return l2Table[src * numRuleSymbols + dst];
 	}
 	
 
 	public static byte checkL1Rules(byte srcVal){
-		byte OPEval = -1;
-		if(GrammarChecker.sRules.containsKey(srcVal)){
-			OPEval = GrammarChecker.sRules.get(srcVal);
+		int src = srcVal & 0xFF;
+		if (src >= numRuleSymbols) {
+			return -1;
+		}
+		return l1Table[src];
+	}
+	
+	/**
+	 * Whether srcEval is the left label of any length 2 rule. If not, a row
+	 * reached through an edge with this label produces nothing and need not be
+	 * scanned.
+	 * 
+	 * @param srcEval
+	 * @return
+	 */
+	public static boolean hasL2Rules(byte srcEval) {
+		int src = srcEval & 0xFF;
+		return src < numRuleSymbols && hasL2Rules[src];
+	}
+	
+	/**
+	 * Whether eval is one of the labels a rule of length 1 or 2 takes, so
+	 * that edges with this label can produce new edges.
+	 * 
+	 * @param eval
+	 * @return
+	 */
+	public static boolean isInRules(byte eval) {
+		int e = eval & 0xFF;
+		return e < numRuleSymbols && inRules[e];
+	}
+	
+	/**
+	 * Whether the pair of labels appears in a length 2 rule, tested on the
+	 * bitmask of srcEval.
+	 * 
+	 * @param srcEval
+	 * @param destEval
+	 * @return
+	 */
+	public static boolean canCombine(byte srcEval, byte destEval) {
+		int src = srcEval & 0xFF, dst = destEval & 0xFF;
+		if (src >= numRuleSymbols || dst >= numRuleSymbols) {
+			return false;
 		}
-		return OPEval;
+		return (l2Masks[src * maskWords + (dst >>> 6)] & (1L << dst)) != 0;
 	}
 	
 	public static <T> void writeCollection(Collection<T> collection, File file){
@@ -1,10 +1,8 @@
 package edu.uci.ics.cs.graspan.computationM;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -21,6 +19,7 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 import edu.uci.ics.cs.graspan.datastructures.AllPartitions;
@@ -32,6 +31,10 @@ import edu.uci.ics.cs.graspan.datastructures.Vertex;
 import edu.uci.ics.cs.graspan.dispatcher.GlobalParams;
 import edu.uci.ics.cs.graspan.scheduler.SchedulerInfo;
 import edu.uci.ics.cs.graspan.support.GraspanLogger;
+import edu.uci.ics.cs.graspan.support.PartitionFileReader;
+import edu.uci.ics.cs.graspan.support.PartitionFileWriter;
+import edu.uci.ics.cs.graspan.support.PartitionManifest;
+import edu.uci.ics.cs.graspan.support.PartitionSegments;
 import edu.uci.ics.cs.graspan.support.Utilities;
 
 /**
@@ -59,6 +62,15 @@ public class LoaderM {
 
 	private int numParts = 0;
 
+	// the partition metadata of the graph, null if it is kept in text files
+	private PartitionManifest manifest;
+
+	// reads predicted partitions ahead of time, null if prefetching is off
+	private PartitionPrefetcher prefetcher;
+
+	// which of the new partitions were taken over from the prefetcher
+	private boolean[] prefetchedParts = new boolean[GlobalParams.getNumPartsPerComputation()];
+
 	/**
 	 * Initializes the partition loader, reads in the partition allocation
 	 * table, and reads in the edgedestcountInfo (Should be called only once.)
@@ -74,6 +86,10 @@ public class LoaderM {
 //		this.numParts = GlobalParams.getNumParts();
 		this.reloadPlan = GlobalParams.getReloadPlan();
 
+		if (PartitionManifest.exists(baseFilename)) {
+			this.manifest = PartitionManifest.read(baseFilename);
+		}
+
 		// get the partition allocation table
 		this.numParts = this.readPartAllocTable();
 
@@ -84,6 +100,10 @@ public class LoaderM {
 		// partitions to load.
 		preliminaryInit();
 
+		if (GlobalParams.prefetchPartitions()) {
+			prefetcher = new PartitionPrefetcher(baseFilename);
+		}
+
 		// scheduler info test
 		// SchedulerInfo.printData();
 	}
@@ -201,6 +221,13 @@ public class LoaderM {
 		// reset newParts
 		for (int i = 0; i < newParts.length; i++) {
 			newParts[i] = Integer.MIN_VALUE;
+			prefetchedParts[i] = false;
+		}
+
+		// a prefetched partition that was not scheduled may be rewritten
+		// before it is scheduled
+		if (prefetcher != null) {
+			prefetcher.clear();
 		}
 
 		// loaded partitions test
@@ -231,6 +258,11 @@ public class LoaderM {
 	 * @throws IOException
 	 */
 	private int readPartAllocTable() throws NumberFormatException, IOException {
+		if (manifest != null) {
+			AllPartitions.setPartAllocTab(manifest.getPartAllocTable());
+			return manifest.getPartAllocTable().length;
+		}
+
 		List<int[]> list = new ArrayList<int[]>();
 
 		/*
@@ -296,6 +328,14 @@ public class LoaderM {
 	private long[][] readEDC() throws FileNotFoundException, IOException {
 		String ln;
 		long edgeDestCount[][] = new long[EDC_SIZE][EDC_SIZE];
+		if (manifest != null) {
+			long[][] counts = manifest.getEdgeDestCount();
+			for (int partA = 0; partA < counts.length; partA++) {
+				System.arraycopy(counts[partA], 0, edgeDestCount[partA], 0, counts[partA].length);
+			}
+			SchedulerInfo.setEdgeDestCount(edgeDestCount);
+			return edgeDestCount;
+		}
 		BufferedReader inEdgeDestCountStrm = new BufferedReader(
 				new InputStreamReader(new FileInputStream(new File(baseFilename	+ ".edgeDestCounts"))));
 
@@ -322,6 +362,15 @@ public class LoaderM {
 	private void readPartSizes() throws FileNotFoundException, IOException {
 		String ln;
 		long partSizes[][] = new long[numParts][2];
+		if (manifest != null) {
+			long[] sizes = manifest.getPartSizes();
+			for (int j = 0; j < sizes.length; j++) {
+				partSizes[j][0] = j;
+				partSizes[j][1] = sizes[j];
+			}
+			SchedulerInfo.setPartSizes(partSizes);
+			return;
+		}
 		BufferedReader inPartSizesStrm = new BufferedReader(
 				new InputStreamReader(new FileInputStream(new File(baseFilename	+ ".partSizes"))));
 		int j = 0;
@@ -349,6 +398,73 @@ public class LoaderM {
 	}
 
 
+	/**
+	 * Starts reading, in the background, those of the given partitions that
+	 * are not loaded, so that the next loadParts() can take them over.
+	 * 
+	 * @param partsToPrefetch
+	 *            - may be null
+	 */
+	public void prefetchParts(int[] partsToPrefetch) {
+		if (prefetcher == null || partsToPrefetch == null)
+			return;
+		int[] loadedParts = LoadedPartitions.getLoadedParts();
+		for (int i = 0; i < partsToPrefetch.length; i++) {
+			int partId = partsToPrefetch[i];
+			boolean loaded = false;
+			for (int j = 0; j < loadedParts.length; j++) {
+				if (loadedParts[j] == partId)
+					loaded = true;
+			}
+			if (partId < 0 || loaded)
+				continue;
+			logger.info("Prefetching partition " + partId);
+			prefetcher.prefetch(partId, PartitionQuerier.getFirstSrc(partId), PartitionQuerier.getNumUniqueSrcs(partId));
+		}
+	}
+
+	public void shutdown() {
+		if (prefetcher != null) {
+			prefetcher.shutdown();
+		}
+	}
+
+	/**
+	 * Stores the loaded partitions that have new edges while keeping them
+	 * loaded, so that the partition files hold all the edges computed so far.
+	 * The stored rows then stand in for the rows the partitions were loaded
+	 * with, from which their next delta segments are taken.
+	 * 
+	 * @throws IOException
+	 */
+	public void storeLoadedParts() throws IOException {
+		for (LoadedVertexInterval interval : intervals) {
+			if (!interval.hasNewEdges())
+				continue;
+			int partitionId = interval.getPartitionId();
+			int slot = getLoadedSlot(partitionId);
+			int[][] diskEdgs = slot == -1 ? null : LoadedPartitions.getLoadedPartEdges()[slot];
+			byte[][] diskVals = slot == -1 ? null : LoadedPartitions.getLoadedPartEdgeVals()[slot];
+			PartitionStoreQueue.awaitPart(partitionId);
+			long writeStart = System.currentTimeMillis();
+			storePart(vertices, intervals, partitionId, diskEdgs, diskVals);
+			storePartDegs(vertices, intervals, partitionId);
+			logger.info("output.IO||" + "write," + (System.currentTimeMillis() - writeStart));
+			if (diskEdgs == null)
+				continue;
+
+			for (int j = 0; j < diskEdgs.length; j++) {
+				Vertex v = vertices[interval.getIndexStart() + j];
+				int len = 0;
+				while (v.getOutEdges() != null && len < v.getOutEdges().length && v.getOutEdges()[len] != -1) {
+					len++;
+				}
+				diskEdgs[j] = len == 0 ? new int[0] : Arrays.copyOf(v.getOutEdges(), len);
+				diskVals[j] = len == 0 ? new byte[0] : Arrays.copyOf(v.getOutEdgeValues(), len);
+			}
+		}
+	}
+
 	public Vertex[] getVertices() {
 		return vertices;
 	}
@@ -437,16 +553,28 @@ public class LoaderM {
 
 			// 2.1. save partitions not in the next round
 			for (Integer partitionId : partsToSaveByLoader)
-			{	long writeStart = System.currentTimeMillis();
-				storePart(getVertices(), getIntervals(), partitionId);
+			{	// the rows the partition was loaded with, from which a delta
+				// segment is taken
+				int slot = getLoadedSlot(partitionId);
+				int[][] diskEdgs = slot == -1 ? null : LoadedPartitions.getLoadedPartEdges()[slot];
+				byte[][] diskVals = slot == -1 ? null : LoadedPartitions.getLoadedPartEdgeVals()[slot];
+				if (GlobalParams.writeBehindStorage()) {
+					storePartLater(getVertices(), getIntervals(), partitionId, diskEdgs, diskVals);
+					continue;
+				}
+				long writeStart = System.currentTimeMillis();
+				storePart(getVertices(), getIntervals(), partitionId, diskEdgs, diskVals);
 //				EngineM.getIO_outputStrm().println("write," + Utilities.getDurationInHMS(System.currentTimeMillis() - writeStart) );
 //				logger.info("output.IO||"+"write," + Utilities.getDurationInHMS(System.currentTimeMillis() - writeStart) );
 				logger.info("output.IO||"+"write," + (System.currentTimeMillis() - writeStart) );
 			}
 
-			// 2.2. save degrees of partitions not in the next round
+			// 2.2. save degrees of partitions not in the next round (stored
+			// along with the partitions when storing behind)
 			for (Integer partitionId : partsToSaveByLoader)
 			{
+				if (GlobalParams.writeBehindStorage())
+					break;
 				long writeStart = System.currentTimeMillis();
 				storePartDegs(getVertices(), getIntervals(), partitionId);
 //				EngineM.getIO_outputStrm().println("write," + Utilities.getDurationInHMS(System.currentTimeMillis() - writeStart) );
@@ -551,6 +679,8 @@ public class LoaderM {
 
 		int[] newParts = LoadedPartitions.getNewParts();
 		int[][] partOutDegs = LoadedPartitions.getLoadedPartOutDegs();
+		int[][][] partEdges = LoadedPartitions.getLoadedPartEdges();
+		byte[][][] partEdgeVals = LoadedPartitions.getLoadedPartEdgeVals();
 
 		/*
 		 * Initialize the degrees array for each new partition to load. We shall
@@ -572,25 +702,21 @@ public class LoaderM {
 		 */
 		for (int i = 0; i < newParts.length; i++) {
 			if (newParts[i] != Integer.MIN_VALUE) {
-				BufferedReader outDegInStrm = new BufferedReader(new InputStreamReader(new FileInputStream(new File(baseFilename + ".partition." + newParts[i]+ ".degrees"))));
-				String ln;
-				while ((ln = outDegInStrm.readLine()) != null) {
-
-					String[] tok = ln.split("\t");
-
-					// get the srcVId and degree
-					int srcVId = Integer.parseInt(tok[0]);
-					int deg = Integer.parseInt(tok[1]);
-					try {
-						partOutDegs[i][srcVId- PartitionQuerier.getFirstSrc(newParts[i])] = deg;
-					} catch (Exception e) {
-						logger.info("ERROR!: " + srcVId + " "+ PartitionQuerier.getFirstSrc(newParts[i]));
+				// take over the partition if it was read ahead
+				if (prefetcher != null) {
+					PartitionPrefetcher.StagedPartition staged = prefetcher.take(newParts[i],
+							PartitionQuerier.getFirstSrc(newParts[i]), PartitionQuerier.getNumUniqueSrcs(newParts[i]));
+					if (staged != null) {
+						logger.info("Using prefetched partition " + newParts[i]);
+						partOutDegs[i] = staged.outDegs;
+						partEdges[i] = staged.edgs;
+						partEdgeVals[i] = staged.vals;
+						prefetchedParts[i] = true;
+						continue;
 					}
-					// this will be later updated in processParts() of
-					// ComputedPartProcessor if new edges are added for this
-					// source vertex during computation.
 				}
-				outDegInStrm.close();
+				PartitionStoreQueue.awaitPart(newParts[i]);
+				readPartDegs(baseFilename, newParts[i], PartitionQuerier.getFirstSrc(newParts[i]), partOutDegs[i]);
 
 //				logger.info("Loaded " + baseFilename + ".partition."
 //						+ newParts[i] + ".degrees");
@@ -601,6 +727,43 @@ public class LoaderM {
 		logger.info("output.IO||"+"read," + (System.currentTimeMillis() - readStart) );
 	}
 
+	/**
+	 * Reads the degrees of the source vertices of a partition, from the
+	 * partition itself if it is a CSR partition, or else from its degrees
+	 * file.
+	 * 
+	 * @param baseFilename
+	 * @param partId
+	 * @param firstSrc
+	 * @param partOutDegs
+	 * @throws IOException
+	 */
+	static void readPartDegs(String baseFilename, int partId, int firstSrc, int[] partOutDegs) throws IOException {
+		// a CSR partition carries its degrees
+		if (PartitionSegments.readOutDegrees(baseFilename + ".partition." + partId, firstSrc, partOutDegs)) {
+			return;
+		}
+		BufferedReader outDegInStrm = new BufferedReader(new InputStreamReader(new FileInputStream(new File(baseFilename + ".partition." + partId + ".degrees"))));
+		String ln;
+		while ((ln = outDegInStrm.readLine()) != null) {
+
+			String[] tok = ln.split("\t");
+
+			// get the srcVId and degree
+			int srcVId = Integer.parseInt(tok[0]);
+			int deg = Integer.parseInt(tok[1]);
+			try {
+				partOutDegs[srcVId - firstSrc] = deg;
+			} catch (Exception e) {
+				logger.info("ERROR!: " + srcVId + " " + firstSrc);
+			}
+			// this will be later updated in processParts() of
+			// ComputedPartProcessor if new edges are added for this
+			// source vertex during computation.
+		}
+		outDegInStrm.close();
+	}
+
 	/**
 	 * Gets the degrees of the source vertices of the partitions that are to be
 	 * loaded. (Deprecated- this method reads the degrees file of the entire
@@ -691,7 +854,7 @@ public class LoaderM {
 		// reassigning the partEdges and partEdgeVAls only for the newly loaded
 		// partitions in this round
 		for (int i = 0; i < newParts.length; i++) {
-			if (newParts[i] != Integer.MIN_VALUE) {
+			if (newParts[i] != Integer.MIN_VALUE && !prefetchedParts[i]) {
 
 				// initialize Dimension 2 (Total no. of Unique SrcVs for a
 				// Partition)
@@ -736,9 +899,7 @@ public class LoaderM {
 
 		long readStart = System.currentTimeMillis();
 		for (int i = 0; i < newParts.length; i++) {
-			if (newParts[i] != Integer.MIN_VALUE) {
-
-				DataInputStream partInStrm = new DataInputStream(new BufferedInputStream(new FileInputStream(baseFilename + ".partition." + newParts[i])));
+			if (newParts[i] != Integer.MIN_VALUE && !prefetchedParts[i]) {
 
 				// stores the position of last filled edge (destV) and the edge
 				// val in partEdges and partEdgeVals for a source vertex for a partition
@@ -747,38 +908,9 @@ public class LoaderM {
 					lastAddedEdgePos[j] = -1;
 				}
 
-				while (partInStrm.available() != 0) {
-					{
-						try {
-							// get srcVId
-							int src = partInStrm.readInt();
-
-							// get corresponding arraySrcVId of srcVId
-							int arraySrcVId = src - PartitionQuerier.getFirstSrc(newParts[i]);
-
-							// get count (number of destVs from srcV in the current list of the partition file)
-							int count = partInStrm.readInt();
-
-							// get dstVId & edgeVal and store them in the corresponding arrays
-							for (int j = 0; j < count; j++) {
-
-								// dstVId
-								partEdges[i][arraySrcVId][lastAddedEdgePos[arraySrcVId] + 1] = partInStrm.readInt();
-
-//								// edgeVal
-								partEdgeVals[i][arraySrcVId][lastAddedEdgePos[arraySrcVId] + 1] = partInStrm.readByte();
-
-								// increment the last added position for this row
-								lastAddedEdgePos[arraySrcVId]++;
-							}
-
-						} catch (Exception exception) {
-							break;
-						}
-					}
-				}
-
-				partInStrm.close();
+				// get dstVId & edgeVal of each srcVId and store them in the corresponding arrays
+				PartitionSegments.readPartition(baseFilename + ".partition." + newParts[i], PartitionQuerier.getFirstSrc(newParts[i]),
+						partEdges[i], partEdgeVals[i], lastAddedEdgePos);
 
 //				logger.info("Loaded " + baseFilename + ".partition." + newParts[i]);
 			}
@@ -923,6 +1055,15 @@ public class LoaderM {
 		// }
 	}
 
+	private static int getLoadedSlot(int partitionId) {
+		int[] loadedParts = LoadedPartitions.getLoadedParts();
+		for (int j = 0; j < loadedParts.length; j++) {
+			if (loadedParts[j] == partitionId)
+				return j;
+		}
+		return -1;
+	}
+
 	/**
 	 * Stores a partition to disk.
 	 * 
@@ -930,10 +1071,14 @@ public class LoaderM {
 	 * @param newEdgesLL
 	 * @param intervals
 	 * @param partitionId
+	 * @param diskEdgs
+	 *            - the rows of the partition as they are on disk, or null
+	 * @param diskVals
 	 * @throws IOException
 	 */
 	private static void storePart(Vertex[] vertices,
-			List<LoadedVertexInterval> intervals, Integer partitionId)
+			List<LoadedVertexInterval> intervals, Integer partitionId,
+			int[][] diskEdgs, byte[][] diskVals)
 			throws IOException {
 
 //		logger.info("Updating " + GlobalParams.baseFilename + ".partition." + partitionId);
@@ -949,6 +1094,15 @@ public class LoaderM {
 			// locate the required interval in "vertices", and if it has new  edges added
 			if (partitionId == intervals.get(i).getPartitionId() && intervals.get(i).hasNewEdges()) {
 
+				if (GlobalParams.useCsrPartitionFormat() && GlobalParams.useDeltaSegments() && diskEdgs != null) {
+					storePartDelta(vertices, intervals.get(i), partitionId, diskEdgs, diskVals);
+					continue;
+				}
+				if (GlobalParams.useCsrPartitionFormat()) {
+					storePartCsr(vertices, intervals.get(i), partitionId);
+					continue;
+				}
+
 //				logger.info("partition ID : " + partitionId);
 				// clear current file
 				DataOutputStream partOutStrm = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(GlobalParams.baseFilename + ".partition." + partitionId, false)));
@@ -1001,7 +1155,139 @@ public class LoaderM {
 	}
 
 	/**
-	 * Stores degrees of a partition.
+	 * Queues a partition and its degrees to be stored by PartitionStoreQueue.
+	 * 
+	 * @param vertices
+	 * @param intervals
+	 * @param partitionId
+	 * @param diskEdgs
+	 * @param diskVals
+	 */
+	private static void storePartLater(Vertex[] vertices, List<LoadedVertexInterval> intervals,
+			final Integer partitionId, final int[][] diskEdgs, final byte[][] diskVals) {
+		final List<LoadedVertexInterval> snapIntervals = new ArrayList<LoadedVertexInterval>();
+		final Vertex[] snapVertices = PartitionStoreQueue.snapshot(vertices, intervals, partitionId, snapIntervals);
+		PartitionStoreQueue.submit(partitionId, new Callable<Void>() {
+			public Void call() throws IOException {
+				long writeStart = System.currentTimeMillis();
+				storePart(snapVertices, snapIntervals, partitionId, diskEdgs, diskVals);
+				storePartDegs(snapVertices, snapIntervals, partitionId);
+				logger.info("output.IO||" + "write," + (System.currentTimeMillis() - writeStart));
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Stores the vertices of an interval as a CSR partition file.
+	 * 
+	 * @param vertices
+	 * @param interval
+	 * @param partitionId
+	 * @throws IOException
+	 */
+	private static void storePartCsr(Vertex[] vertices, LoadedVertexInterval interval, Integer partitionId)
+			throws IOException {
+		int numVertices = interval.getIndexEnd() - interval.getIndexStart() + 1;
+		int[][] edgs = new int[numVertices][];
+		byte[][] vals = new byte[numVertices][];
+		for (int j = 0; j < numVertices; j++) {
+			edgs[j] = vertices[interval.getIndexStart() + j].getOutEdges();
+			vals[j] = vertices[interval.getIndexStart() + j].getOutEdgeValues();
+		}
+		PartitionFileWriter.writePartition(GlobalParams.baseFilename + ".partition." + partitionId,
+				vertices[interval.getIndexStart()].getVertexId(), edgs, vals);
+	}
+
+	/**
+	 * Stores the edges of an interval that are not in the rows it was loaded
+	 * with as a delta segment of its partition, and queues a compaction of the
+	 * partition once its segments have grown large enough.
+	 * 
+	 * @param vertices
+	 * @param interval
+	 * @param partitionId
+	 * @param diskEdgs
+	 * @param diskVals
+	 * @throws IOException
+	 */
+	private static void storePartDelta(Vertex[] vertices, LoadedVertexInterval interval, Integer partitionId,
+			int[][] diskEdgs, byte[][] diskVals) throws IOException {
+		final String partFile = GlobalParams.baseFilename + ".partition." + partitionId;
+
+		// a version 1 partition is rewritten as a CSR partition first
+		if (PartitionFileReader.readCsrRange(partFile) == null) {
+			storePartCsr(vertices, interval, partitionId);
+			return;
+		}
+
+		int numVertices = interval.getIndexEnd() - interval.getIndexStart() + 1;
+		int[][] edgs = new int[numVertices][];
+		byte[][] vals = new byte[numVertices][];
+		long numDeltaEdgs = 0;
+		for (int j = 0; j < numVertices; j++) {
+			Vertex v = vertices[interval.getIndexStart() + j];
+			int len = 0;
+			while (v.getOutEdges() != null && len < v.getOutEdges().length && v.getOutEdges()[len] != -1) {
+				len++;
+			}
+			edgs[j] = new int[len - diskEdgs[j].length];
+			vals[j] = new byte[edgs[j].length];
+			deltaRow(v.getOutEdges(), v.getOutEdgeValues(), len, diskEdgs[j], diskVals[j], edgs[j], vals[j]);
+			numDeltaEdgs += edgs[j].length;
+		}
+		if (numDeltaEdgs == 0)
+			return;
+
+		if (PartitionSegments.appendSegment(partFile, vertices[interval.getIndexStart()].getVertexId(), edgs, vals)) {
+			PartitionStoreQueue.submit(partitionId, new Callable<Void>() {
+				public Void call() throws IOException {
+					long writeStart = System.currentTimeMillis();
+					PartitionSegments.compact(partFile);
+					logger.info("output.IO||" + "compact," + (System.currentTimeMillis() - writeStart));
+					return null;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Fills delta and deltaVals with the edges among the first len of a row
+	 * that are not in the row it was loaded with. Both rows are sorted by
+	 * destination, and the loaded one is contained in the other, so there
+	 * are exactly len - diskEdgs.length of them.
+	 */
+	private static void deltaRow(int[] edgs, byte[] vals, int len, int[] diskEdgs, byte[] diskVals, int[] delta,
+			byte[] deltaVals) {
+		int n = 0;
+		for (int i = 0, k = 0; i < len;) {
+			int dst = edgs[i];
+			while (k < diskEdgs.length && diskEdgs[k] < dst) {
+				k++;
+			}
+			int kEnd = k;
+			while (kEnd < diskEdgs.length && diskEdgs[kEnd] == dst) {
+				kEnd++;
+			}
+			for (; i < len && edgs[i] == dst; i++) {
+				boolean onDisk = false;
+				for (int l = k; l < kEnd && !onDisk; l++) {
+					onDisk = diskVals[l] == vals[i];
+				}
+				if (!onDisk) {
+					delta[n] = dst;
+					deltaVals[n++] = vals[i];
+				}
+			}
+			k = kEnd;
+		}
+		if (n != delta.length)
+			throw new IllegalStateException("Loaded edges missing from a row");
+	}
+
+	/**
+	 * Stores degrees of a partition. Nothing is stored for CSR partitions,
+	 * which carry their degrees.
 	 * 
 	 * @param vertices
 	 * @param intervals
@@ -1012,6 +1298,9 @@ public class LoaderM {
 			List<LoadedVertexInterval> intervals, Integer partitionId)
 			throws IOException {
 
+		if (GlobalParams.useCsrPartitionFormat())
+			return;
+
 //		logger.info("Updating " + GlobalParams.baseFilename + ".partition." + partitionId + ".degrees");
 
 		for (int i = 0; i < intervals.size(); i++) {
@@ -0,0 +1,304 @@
+package edu.uci.ics.cs.graspan.computationM;
+
+import java.util.Arrays;
+
+/**
+ * Merges the target rows into the source row like SortedArrMerger, but picks
+ * the next target row from a loser tree over primitive cursors instead of a
+ * PriorityQueue of MinSets.
+ *
+ * Rows are sorted by destination vertex while the labels of one destination
+ * come in no particular order, so the tree is keyed on the vertex id and a
+ * row is replayed only after its whole run of labels for that vertex has been
+ * consumed. The labels already emitted for the current vertex are tracked in a
+ * stamped table indexed by label, which gives the same set semantics as the
+ * evals arrays of SortedArrMerger.
+ */
+public class LoserTreeMerger {
+
+	private static final int NO_MORE_EDGES = Integer.MAX_VALUE;
+
+	private int delta_ptr = -1;
+
+	private int oldUnewUdelta_ptr = -1;
+
+	// scratch buffers, grown on demand and kept between calls
+	private int[] src_delta_edgs = EMPTY_EDGS;
+	private byte[] src_delta_vals = EMPTY_VALS;
+
+	private int[] src_oldUnewUdelta_edgs = EMPTY_EDGS;
+	private byte[] src_oldUnewUdelta_vals = EMPTY_VALS;
+
+	// right-sized outputs of the last merge
+	private int[] delta_edgs_out;
+	private byte[] delta_vals_out;
+
+	private int[] oldUnewUdelta_edgs_out;
+	private byte[] oldUnewUdelta_vals_out;
+
+	// cursor of target row t (row t+1 of the rows to merge): position of its
+	// next edge and the vertex id at that position
+	private int[] rowPtr = EMPTY_EDGS;
+	private int[] rowVId = EMPTY_EDGS;
+
+	// loser tree over the target rows; node 0 holds the winner, nodes
+	// 1..k-1 the losers and the leaves are the implicit nodes k..2k-1
+	private int[] loserTree = new int[1];
+	private int[] winnerTmp = EMPTY_EDGS;
+	private int numTgtRows;
+
+	// a label has been emitted for the current vertex iff its stamp is current
+	private final int[] labelStamps = new int[256];
+	private int currentStamp;
+
+	private static final int MAX_RETAINED_SCRATCH_SIZE = 1 << 22;
+
+	private static final int[] EMPTY_EDGS = new int[0];
+	private static final byte[] EMPTY_VALS = new byte[0];
+
+	private static final ThreadLocal<LoserTreeMerger> threadMerger = new ThreadLocal<LoserTreeMerger>() {
+		@Override
+		protected LoserTreeMerger initialValue() {
+			return new LoserTreeMerger();
+		}
+	};
+
+	/**
+	 * Returns the merger owned by the calling thread. The outputs of a merge
+	 * must be collected before the thread merges the next vertex.
+	 *
+	 * @return
+	 */
+	public static LoserTreeMerger getThreadMerger() {
+		return threadMerger.get();
+	}
+
+	/**
+	 *
+	 * @param edgArrstoMerge
+	 * @param valArrstoMerge
+	 * @param srcRowId
+	 */
+	public void mergeTgtstoSrc(int[][] edgArrstoMerge, byte[][] valArrstoMerge, int srcRowId) {
+		assert (srcRowId == 0);
+		delta_ptr = -1;
+		oldUnewUdelta_ptr = -1;
+
+		int[] srcEdgRow = edgArrstoMerge[srcRowId];
+		byte[] srcValRow = valArrstoMerge[srcRowId];
+
+		int cumTgtRowsSize = 0;
+		for (int i = 1; i < edgArrstoMerge.length; i++) {
+			cumTgtRowsSize += edgArrstoMerge[i].length;
+		}
+		ensureScratchCapacity(cumTgtRowsSize, srcEdgRow.length + cumTgtRowsSize);
+
+		initCursors(edgArrstoMerge);
+
+		int srcPtr = 0;
+		int srcVId = vIdAt(srcEdgRow, 0);
+		while (true) {
+			int winner = numTgtRows > 0 ? loserTree[0] : -1;
+			int tgtVId = winner != -1 ? rowVId[winner] : NO_MORE_EDGES;
+			int vId = Math.min(srcVId, tgtVId);
+			if (vId == NO_MORE_EDGES) {
+				break;
+			}
+			nextStamp();
+
+			// edges of the source row go to oldUnewUdelta only
+			while (srcVId == vId) {
+				byte val = srcValRow[srcPtr];
+				if (markLabel(val)) {
+					addToOldUnewUdelta(vId, val);
+				}
+				srcPtr++;
+				srcVId = vIdAt(srcEdgRow, srcPtr);
+			}
+
+			// edges of the target rows not in the source row are new
+			while (tgtVId == vId) {
+				int[] tgtEdgRow = edgArrstoMerge[winner + 1];
+				byte[] tgtValRow = valArrstoMerge[winner + 1];
+				int ptr = rowPtr[winner];
+				do {
+					byte val = tgtValRow[ptr];
+					if (markLabel(val)) {
+						addToOldUnewUdelta(vId, val);
+						addToDelta(vId, val);
+					}
+					ptr++;
+				} while (ptr < tgtEdgRow.length && tgtEdgRow[ptr] == vId);
+				rowPtr[winner] = ptr;
+				rowVId[winner] = vIdAt(tgtEdgRow, ptr);
+
+				replay(winner);
+				winner = loserTree[0];
+				tgtVId = rowVId[winner];
+			}
+		}
+
+		removeRedundantArraySpace();
+	}
+
+	/**
+	 * Positions a cursor at the start of every target row and builds the tree.
+	 *
+	 * @param edgArrstoMerge
+	 */
+	private void initCursors(int[][] edgArrstoMerge) {
+		int k = edgArrstoMerge.length - 1;
+		numTgtRows = k;
+		if (rowPtr.length < k) {
+			rowPtr = new int[k];
+			rowVId = new int[k];
+			winnerTmp = new int[k];
+			loserTree = new int[k];
+		}
+		for (int t = 0; t < k; t++) {
+			rowPtr[t] = 0;
+			rowVId[t] = vIdAt(edgArrstoMerge[t + 1], 0);
+		}
+		if (k <= 1) {
+			loserTree[0] = 0;
+			return;
+		}
+		for (int node = k - 1; node >= 1; node--) {
+			int left = node << 1, right = left + 1;
+			int wl = left >= k ? left - k : winnerTmp[left];
+			int wr = right >= k ? right - k : winnerTmp[right];
+			if (rowVId[wr] < rowVId[wl]) {
+				winnerTmp[node] = wr;
+				loserTree[node] = wl;
+			} else {
+				winnerTmp[node] = wl;
+				loserTree[node] = wr;
+			}
+		}
+		loserTree[0] = winnerTmp[1];
+	}
+
+	/**
+	 * Replays the matches on the path from the leaf of target row t, after
+	 * its cursor has moved.
+	 *
+	 * @param t
+	 */
+	private void replay(int t) {
+		int winner = t;
+		for (int node = (t + numTgtRows) >> 1; node >= 1; node >>= 1) {
+			int loser = loserTree[node];
+			if (rowVId[loser] < rowVId[winner]) {
+				loserTree[node] = winner;
+				winner = loser;
+			}
+		}
+		loserTree[0] = winner;
+	}
+
+	private static int vIdAt(int[] edgRow, int ptr) {
+		if (ptr < edgRow.length && edgRow[ptr] != -1) {
+			return edgRow[ptr];
+		}
+		return NO_MORE_EDGES;
+	}
+
+	private void nextStamp() {
+		if (++currentStamp == Integer.MAX_VALUE) {
+			Arrays.fill(labelStamps, 0);
+			currentStamp = 1;
+		}
+	}
+
+	/**
+	 * Marks the label as seen for the current vertex.
+	 *
+	 * @param val
+	 * @return false if it had already been seen
+	 */
+	private boolean markLabel(byte val) {
+		int i = val & 0xFF;
+		if (labelStamps[i] == currentStamp) {
+			return false;
+		}
+		labelStamps[i] = currentStamp;
+		return true;
+	}
+
+	private void addToOldUnewUdelta(int vId, byte val) {
+		oldUnewUdelta_ptr++;
+		src_oldUnewUdelta_edgs[oldUnewUdelta_ptr] = vId;
+		src_oldUnewUdelta_vals[oldUnewUdelta_ptr] = val;
+	}
+
+	private void addToDelta(int vId, byte val) {
+		delta_ptr++;
+		src_delta_edgs[delta_ptr] = vId;
+		src_delta_vals[delta_ptr] = val;
+	}
+
+	/**
+	 * Makes sure the scratch buffers can hold the given number of edges.
+	 *
+	 * @param deltaSize
+	 * @param oldUnewUdeltaSize
+	 */
+	private void ensureScratchCapacity(int deltaSize, int oldUnewUdeltaSize) {
+		if (src_delta_edgs.length < deltaSize) {
+			int capacity = Math.max(deltaSize, src_delta_edgs.length + (src_delta_edgs.length >> 1));
+			src_delta_edgs = new int[capacity];
+			src_delta_vals = new byte[capacity];
+		}
+		if (src_oldUnewUdelta_edgs.length < oldUnewUdeltaSize) {
+			int capacity = Math.max(oldUnewUdeltaSize, src_oldUnewUdelta_edgs.length + (src_oldUnewUdelta_edgs.length >> 1));
+			src_oldUnewUdelta_edgs = new int[capacity];
+			src_oldUnewUdelta_vals = new byte[capacity];
+		}
+	}
+
+	/**
+	 * Copies the filled part of the scratch buffers into right-sized output
+	 * arrays
+	 */
+	private void removeRedundantArraySpace() {
+		oldUnewUdelta_edgs_out = Arrays.copyOf(src_oldUnewUdelta_edgs, oldUnewUdelta_ptr + 1);
+		oldUnewUdelta_vals_out = Arrays.copyOf(src_oldUnewUdelta_vals, oldUnewUdelta_ptr + 1);
+
+		if (delta_ptr == -1) {
+			delta_edgs_out = EMPTY_EDGS;
+			delta_vals_out = EMPTY_VALS;
+		} else {
+			delta_edgs_out = Arrays.copyOf(src_delta_edgs, delta_ptr + 1);
+			delta_vals_out = Arrays.copyOf(src_delta_vals, delta_ptr + 1);
+		}
+
+		// drop oversized scratch buffers
+		if (src_oldUnewUdelta_edgs.length > MAX_RETAINED_SCRATCH_SIZE) {
+			src_delta_edgs = EMPTY_EDGS;
+			src_delta_vals = EMPTY_VALS;
+			src_oldUnewUdelta_edgs = EMPTY_EDGS;
+			src_oldUnewUdelta_vals = EMPTY_VALS;
+		}
+	}
+
+	public int get_num_new_edges() {
+		return delta_ptr + 1;
+	}
+
+	public int[] get_src_delta_edgs() {
+		return delta_edgs_out;
+	}
+
+	public byte[] get_src_delta_vals() {
+		return delta_vals_out;
+	}
+
+	public int[] get_src_oldUnewUdelta_edgs() {
+		return oldUnewUdelta_edgs_out;
+	}
+
+	public byte[] get_src_oldUnewUdelta_vals() {
+		return oldUnewUdelta_vals_out;
+	}
+
+}
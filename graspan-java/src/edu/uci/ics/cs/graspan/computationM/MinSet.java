@@ -7,7 +7,7 @@ public class MinSet {
 	// always points to the minimum element
 	private int ptr;
 
-	private final int minSetId;
+	private int minSetId;
 	
 	private int currentVId;
 	
@@ -33,6 +33,17 @@ public class MinSet {
 		}
 	}
 
+	/**
+	 * Prepares a pooled MinSet for reuse on another row.
+	 * 
+	 * @param minSetId
+	 */
+	public void reset(int minSetId) {
+		ptr = 0;
+		this.minSetId = minSetId;
+		clearEvalArr();
+	}
+
 	public int getCurrentVId() { 
 		return currentVId;
 	}
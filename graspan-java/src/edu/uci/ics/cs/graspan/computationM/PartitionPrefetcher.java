@@ -0,0 +1,126 @@
+package edu.uci.ics.cs.graspan.computationM;
+
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import edu.uci.ics.cs.graspan.support.GraspanLogger;
+import edu.uci.ics.cs.graspan.support.PartitionSegments;
+
+/**
+ * Reads partitions on a background thread into staging arrays, which LoaderM
+ * takes over instead of reading the files again. Only partitions that are not
+ * loaded should be prefetched: no other partition file is rewritten during a
+ * round, while a loaded one may be stored or repartitioned at its end.
+ */
+public class PartitionPrefetcher {
+	private static final Logger logger = GraspanLogger.getLogger("PartitionPrefetcher");
+
+	/**
+	 * The degrees and rows of a partition, laid out as LoaderM loads them.
+	 */
+	static class StagedPartition {
+		final int firstSrc;
+		final int[] outDegs;
+		final int[][] edgs;
+		final byte[][] vals;
+
+		StagedPartition(int firstSrc, int[] outDegs, int[][] edgs, byte[][] vals) {
+			this.firstSrc = firstSrc;
+			this.outDegs = outDegs;
+			this.edgs = edgs;
+			this.vals = vals;
+		}
+	}
+
+	private final String baseFilename;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private final HashMap<Integer, Future<StagedPartition>> pending = new HashMap<Integer, Future<StagedPartition>>();
+
+	public PartitionPrefetcher(String baseFilename) {
+		this.baseFilename = baseFilename;
+	}
+
+	/**
+	 * Starts reading a partition, unless it is already being read.
+	 *
+	 * @param partId
+	 * @param firstSrc
+	 * @param numSrcs
+	 *            - number of source vertices of the partition
+	 */
+	public void prefetch(final int partId, final int firstSrc, final int numSrcs) {
+		if (pending.containsKey(partId))
+			return;
+		pending.put(partId, executor.submit(new Callable<StagedPartition>() {
+			public StagedPartition call() throws Exception {
+				PartitionStoreQueue.awaitPart(partId);
+				long readStart = System.currentTimeMillis();
+				int[] outDegs = new int[numSrcs];
+				LoaderM.readPartDegs(baseFilename, partId, firstSrc, outDegs);
+
+				int[][] edgs = new int[numSrcs][];
+				byte[][] vals = new byte[numSrcs][];
+				int[] lastAddedEdgePos = new int[numSrcs];
+				for (int j = 0; j < numSrcs; j++) {
+					edgs[j] = new int[outDegs[j]];
+					vals[j] = new byte[outDegs[j]];
+					lastAddedEdgePos[j] = -1;
+				}
+				PartitionSegments.readPartition(baseFilename + ".partition." + partId, firstSrc, edgs, vals,
+						lastAddedEdgePos);
+				logger.info("output.IO||" + "prefetch," + (System.currentTimeMillis() - readStart));
+				return new StagedPartition(firstSrc, outDegs, edgs, vals);
+			}
+		}));
+	}
+
+	/**
+	 * Returns the staged partition, waiting for its read to finish.
+	 *
+	 * @param partId
+	 * @param firstSrc
+	 * @param numSrcs
+	 * @return null if the partition was not prefetched, its read failed, or
+	 *         its vertex range has changed since
+	 */
+	public StagedPartition take(int partId, int firstSrc, int numSrcs) {
+		Future<StagedPartition> future = pending.remove(partId);
+		if (future == null)
+			return null;
+		StagedPartition staged;
+		try {
+			staged = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			logger.info("Prefetch of partition " + partId + " failed, reading it again: " + e.getCause());
+			return null;
+		}
+		if (staged.firstSrc != firstSrc || staged.outDegs.length != numSrcs)
+			return null;
+		return staged;
+	}
+
+	/**
+	 * Drops the partitions that were not taken. Reads still running finish
+	 * in the background and their results are discarded.
+	 */
+	public void clear() {
+		for (Future<StagedPartition> future : pending.values()) {
+			future.cancel(false);
+		}
+		pending.clear();
+	}
+
+	public void shutdown() {
+		clear();
+		executor.shutdown();
+	}
+
+}
@@ -0,0 +1,138 @@
+package edu.uci.ics.cs.graspan.computationM;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.uci.ics.cs.graspan.datastructures.LoadedVertexInterval;
+import edu.uci.ics.cs.graspan.datastructures.Vertex;
+
+/**
+ * Stores partitions leaving memory, and compacts their delta segments, on a
+ * writer thread, so that the next round does not wait for them. Before a
+ * partition file is read again, awaitPart() must be called for it; the stores
+ * are run in the order they were queued.
+ *
+ * The rows of a stored partition are not copied. They are not changed until
+ * the partition is loaded again, which reads its file and so waits for the
+ * store to complete.
+ */
+public class PartitionStoreQueue {
+
+	private static ExecutorService writer;
+
+	// the last store queued for each partition
+	private static final HashMap<Integer, Future<Void>> pending = new HashMap<Integer, Future<Void>>();
+
+	/**
+	 * Copies the vertices of the intervals of partitionId, and those
+	 * intervals with their indexes shifted to match, so that they can be
+	 * stored after the loaded intervals have changed.
+	 *
+	 * @param vertices
+	 * @param intervals
+	 * @param partitionId
+	 * @param snapIntervals
+	 *            - receives the copied intervals
+	 * @return the copied vertices
+	 */
+	public static Vertex[] snapshot(Vertex[] vertices, List<LoadedVertexInterval> intervals, int partitionId,
+			List<LoadedVertexInterval> snapIntervals) {
+		List<Vertex> snapVertices = new ArrayList<Vertex>();
+		for (LoadedVertexInterval interval : intervals) {
+			if (interval.getPartitionId() != partitionId)
+				continue;
+			LoadedVertexInterval copy = new LoadedVertexInterval(interval.getFirstVertex(), interval.getLastVertex(),
+					partitionId);
+			copy.setIndexStart(snapVertices.size());
+			for (int j = interval.getIndexStart(); j <= interval.getIndexEnd(); j++) {
+				Vertex v = vertices[j];
+				snapVertices.add(new Vertex(snapVertices.size(), v.getVertexId(), v.getOutEdges(), v.getOutEdgeValues()));
+			}
+			copy.setIndexEnd(snapVertices.size() - 1);
+			copy.setIsNewEdgeAdded(interval.hasNewEdges());
+			snapIntervals.add(copy);
+		}
+		return snapVertices.toArray(new Vertex[snapVertices.size()]);
+	}
+
+	/**
+	 * Queues a store of partitionId.
+	 *
+	 * @param partitionId
+	 * @param store
+	 */
+	public static synchronized void submit(int partitionId, Callable<Void> store) {
+		if (writer == null) {
+			writer = Executors.newSingleThreadExecutor();
+		}
+		pending.put(partitionId, writer.submit(store));
+	}
+
+	/**
+	 * Waits until the stores queued for partitionId have completed, including
+	 * those queued by the stores themselves.
+	 *
+	 * @param partitionId
+	 * @throws IOException
+	 *             if a store failed
+	 */
+	public static void awaitPart(int partitionId) throws IOException {
+		while (true) {
+			Future<Void> future;
+			synchronized (PartitionStoreQueue.class) {
+				future = pending.get(partitionId);
+			}
+			if (future == null)
+				return;
+			await(partitionId, future);
+			synchronized (PartitionStoreQueue.class) {
+				if (pending.get(partitionId) == future) {
+					pending.remove(partitionId);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits until all queued stores have completed.
+	 *
+	 * @throws IOException
+	 *             if a store failed
+	 */
+	public static void awaitAll() throws IOException {
+		List<Integer> partIds;
+		synchronized (PartitionStoreQueue.class) {
+			partIds = new ArrayList<Integer>(pending.keySet());
+		}
+		for (Integer partitionId : partIds) {
+			awaitPart(partitionId);
+		}
+	}
+
+	public static synchronized void shutdown() {
+		if (writer != null) {
+			writer.shutdown();
+			writer = null;
+		}
+	}
+
+	private static void await(int partitionId, Future<Void> future) throws IOException {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while storing partition " + partitionId, e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to store partition " + partitionId, e.getCause());
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+package edu.uci.ics.cs.graspan.computationM;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A small pool of I/O threads that writes several partition files at the same
+ * time. Each write must go to files of its own; the callers wait for all the
+ * writes they hand over, so the rows being written do not change meanwhile.
+ */
+public class PartitionWritePool {
+
+	// number of partition files written at the same time
+	private static final int NUM_WRITERS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+	private static ExecutorService writers;
+
+	/**
+	 * Runs the writes on the pool and waits for all of them, including the
+	 * remaining ones when one fails.
+	 *
+	 * @param writes
+	 * @throws IOException
+	 *             the failure of the first write that failed
+	 */
+	public static void runAll(List<Callable<Void>> writes) throws IOException {
+		if (writes.size() == 1) {
+			call(writes.get(0));
+			return;
+		}
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(writes.size());
+		synchronized (PartitionWritePool.class) {
+			if (writers == null) {
+				writers = Executors.newFixedThreadPool(NUM_WRITERS);
+			}
+			for (Callable<Void> write : writes) {
+				futures.add(writers.submit(write));
+			}
+		}
+
+		IOException failure = null;
+		boolean interrupted = false;
+		for (Future<Void> future : futures) {
+			while (true) {
+				try {
+					future.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+					continue;
+				} catch (ExecutionException e) {
+					if (failure == null)
+						failure = new IOException("Failed to write a partition", e.getCause());
+				}
+				break;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		if (failure != null)
+			throw failure;
+	}
+
+	public static synchronized void shutdown() {
+		if (writers != null) {
+			writers.shutdown();
+			writers = null;
+		}
+	}
+
+	private static void call(Callable<Void> write) throws IOException {
+		try {
+			write.call();
+		} catch (IOException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Failed to write a partition", e);
+		}
+	}
+
+}
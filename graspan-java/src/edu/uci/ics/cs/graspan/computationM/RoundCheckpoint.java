@@ -0,0 +1,362 @@
+package edu.uci.ics.cs.graspan.computationM;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import edu.uci.ics.cs.graspan.datastructures.AllPartitions;
+import edu.uci.ics.cs.graspan.dispatcher.GlobalParams;
+import edu.uci.ics.cs.graspan.scheduler.Scheduler;
+import edu.uci.ics.cs.graspan.scheduler.SchedulerInfo;
+import edu.uci.ics.cs.graspan.support.GraspanLogger;
+
+/**
+ * The state of a computation at the end of a round, from which EngineM can
+ * resume after the run dies. A checkpoint is the directory
+ * baseFilename.checkpoint, holding hard links to the partition files as they
+ * were at the end of the round, and a state file with the round number, the
+ * partition allocation table, the scheduling info and the termination map.
+ * All fields of the state file are little-endian:
+ *
+ * <pre>
+ * header       magic (int), version (int), roundNo (int), totalNewEdgs (long)
+ * table        numParts (int), numParts times partId (int), lastVId (int)
+ * sizes        numSizes (int), numSizes times partId (long), partSize (long)
+ * edc          dimension (int), numEntries (int), numEntries times
+ *              partA (int), partB (int), count (long), for non-zero counts
+ * edcTwoWay    as edc
+ * termination  numParts (int), numParts * numParts bytes, 1 if the pair is done
+ * checksum     CRC32 of all preceding bytes (int)
+ * </pre>
+ *
+ * The links stay valid because partition files are only ever replaced by
+ * renaming, never rewritten in place, which holds for CSR partitions only. A
+ * new checkpoint is built next to the last one and renamed over it.
+ */
+public class RoundCheckpoint {
+	private static final Logger logger = GraspanLogger.getLogger("RoundCheckpoint");
+
+	// "GSPK" when the first four bytes are read in order
+	private static final int MAGIC = 0x4b505347;
+	private static final int VERSION = 1;
+
+	private static final String STATE_FILE = "state";
+
+	private int roundNo;
+	private long totalNewEdgs;
+	private int[][] partAllocTable;
+	private long[][] partSizes;
+	private long[][] edgeDestCount;
+	private long[][] edcTwoWay;
+	private boolean[][] terminationMap;
+
+	public static String dirName(String baseFilename) {
+		return baseFilename + ".checkpoint";
+	}
+
+	public int getRoundNo() {
+		return roundNo;
+	}
+
+	public long getTotalNewEdgs() {
+		return totalNewEdgs;
+	}
+
+	/**
+	 * Saves a checkpoint of the current round, replacing the last one. All
+	 * the edges computed so far must be in the partition files, and no store
+	 * may be pending.
+	 *
+	 * @param baseFilename
+	 * @param roundNo
+	 * @param totalNewEdgs
+	 * @param scheduler
+	 * @throws IOException
+	 */
+	public static void save(String baseFilename, int roundNo, long totalNewEdgs, Scheduler scheduler)
+			throws IOException {
+		File dir = new File(dirName(baseFilename));
+		File tmp = new File(dir.getPath() + ".tmp");
+		File old = new File(dir.getPath() + ".old");
+		deleteDir(tmp);
+		if (!tmp.mkdirs())
+			throw new IOException("Could not create " + tmp);
+
+		// link the partition files of the round
+		File graphDir = new File(baseFilename).getAbsoluteFile().getParentFile();
+		String prefix = new File(baseFilename).getName() + ".partition.";
+		for (File file : graphDir.listFiles()) {
+			if (file.getName().startsWith(prefix) && file.isFile()) {
+				link(file, new File(tmp, file.getName()));
+			}
+		}
+
+		RoundCheckpoint checkpoint = new RoundCheckpoint();
+		checkpoint.roundNo = roundNo;
+		checkpoint.totalNewEdgs = totalNewEdgs;
+		checkpoint.partAllocTable = AllPartitions.getPartAllocTab();
+		checkpoint.partSizes = SchedulerInfo.getPartSizes();
+		checkpoint.edgeDestCount = SchedulerInfo.getEdgeDestCount();
+		checkpoint.edcTwoWay = SchedulerInfo.getEdcTwoWay();
+		checkpoint.terminationMap = scheduler.getTerminationMap();
+		checkpoint.writeState(new File(tmp, STATE_FILE));
+
+		// the last checkpoint is kept as .old until the new one is in place
+		deleteDir(old);
+		if (dir.exists() && !dir.renameTo(old))
+			throw new IOException("Could not move " + dir);
+		if (!tmp.renameTo(dir))
+			throw new IOException("Could not move " + tmp);
+		deleteDir(old);
+		logger.info("Saved checkpoint of round " + roundNo);
+	}
+
+	/**
+	 * Puts the partition files of the last checkpoint back in place of the
+	 * current ones, and returns the checkpoint to restore the rest of the
+	 * state from.
+	 *
+	 * @param baseFilename
+	 * @return null if there is no checkpoint
+	 * @throws IOException
+	 */
+	public static RoundCheckpoint restore(String baseFilename) throws IOException {
+		File dir = new File(dirName(baseFilename));
+		RoundCheckpoint checkpoint = readIfComplete(dir);
+		if (checkpoint == null) {
+			// a crash between moving the last checkpoint aside and moving
+			// the new one in place
+			dir = new File(dir.getPath() + ".old");
+			checkpoint = readIfComplete(dir);
+		}
+		if (checkpoint == null)
+			return null;
+
+		File graphDir = new File(baseFilename).getAbsoluteFile().getParentFile();
+		String prefix = new File(baseFilename).getName() + ".partition.";
+		for (File file : graphDir.listFiles()) {
+			if (file.getName().startsWith(prefix) && file.isFile() && !file.delete())
+				throw new IOException("Could not delete " + file);
+		}
+		for (File file : dir.listFiles()) {
+			if (!file.getName().equals(STATE_FILE)) {
+				link(file, new File(graphDir, file.getName()));
+			}
+		}
+		logger.info("Restored checkpoint of round " + checkpoint.roundNo + " from " + dir);
+		return checkpoint;
+	}
+
+	/**
+	 * Sets the partition allocation table, the scheduling info and the
+	 * termination map of the checkpoint.
+	 *
+	 * @param scheduler
+	 *            - a scheduler for the partitions of the checkpoint
+	 */
+	public void applyTo(Scheduler scheduler) {
+		AllPartitions.setPartAllocTab(partAllocTable);
+		SchedulerInfo.setPartSizes(partSizes);
+		SchedulerInfo.setEdgeDestCount(edgeDestCount);
+		SchedulerInfo.setEdcTwoWay(edcTwoWay);
+		scheduler.setTerminationMap(terminationMap);
+	}
+
+	/**
+	 * Deletes the checkpoints of a graph, once its computation is complete.
+	 *
+	 * @param baseFilename
+	 * @throws IOException
+	 */
+	public static void delete(String baseFilename) throws IOException {
+		deleteDir(new File(dirName(baseFilename) + ".tmp"));
+		deleteDir(new File(dirName(baseFilename)));
+		deleteDir(new File(dirName(baseFilename) + ".old"));
+	}
+
+	private static RoundCheckpoint readIfComplete(File dir) throws IOException {
+		File state = new File(dir, STATE_FILE);
+		if (!state.exists())
+			return null;
+		return readState(state);
+	}
+
+	private void writeState(File state) throws IOException {
+		int numParts = terminationMap.length;
+		long size = 20 + 4 + 8L * partAllocTable.length + 4 + 16L * partSizes.length + edcSize(edgeDestCount)
+				+ edcSize(edcTwoWay) + 4 + (long) numParts * numParts + 4;
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("Checkpoint state too large");
+
+		ByteBuffer buf = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(MAGIC);
+		buf.putInt(VERSION);
+		buf.putInt(roundNo);
+		buf.putLong(totalNewEdgs);
+		buf.putInt(partAllocTable.length);
+		for (int i = 0; i < partAllocTable.length; i++) {
+			buf.putInt(partAllocTable[i][0]);
+			buf.putInt(partAllocTable[i][1]);
+		}
+		buf.putInt(partSizes.length);
+		for (int i = 0; i < partSizes.length; i++) {
+			buf.putLong(partSizes[i][0]);
+			buf.putLong(partSizes[i][1]);
+		}
+		putEdc(buf, edgeDestCount);
+		putEdc(buf, edcTwoWay);
+		buf.putInt(numParts);
+		for (int i = 0; i < numParts; i++) {
+			for (int j = 0; j < numParts; j++) {
+				buf.put((byte) (terminationMap[i][j] ? 1 : 0));
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), 0, buf.position());
+		buf.putInt((int) crc.getValue());
+		buf.flip();
+
+		FileOutputStream out = new FileOutputStream(state);
+		try {
+			FileChannel channel = out.getChannel();
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			channel.force(true);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static RoundCheckpoint readState(File state) throws IOException {
+		byte[] bytes;
+		FileInputStream in = new FileInputStream(state);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size < 24 || size > Integer.MAX_VALUE)
+				throw new IOException("Bad size of " + state);
+			bytes = new byte[(int) size];
+			ByteBuffer buf = ByteBuffer.wrap(bytes);
+			while (buf.hasRemaining() && channel.read(buf) != -1) {
+			}
+			if (buf.hasRemaining())
+				throw new IOException("Unexpected end of " + state);
+		} finally {
+			in.close();
+		}
+
+		ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 4);
+		if (buf.getInt(bytes.length - 4) != (int) crc.getValue())
+			throw new IOException("Checksum mismatch in " + state);
+		if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+			throw new IOException(state + " is not a checkpoint state");
+
+		RoundCheckpoint checkpoint = new RoundCheckpoint();
+		try {
+			checkpoint.roundNo = buf.getInt();
+			checkpoint.totalNewEdgs = buf.getLong();
+			int[][] partAllocTable = new int[buf.getInt()][2];
+			for (int i = 0; i < partAllocTable.length; i++) {
+				partAllocTable[i][0] = buf.getInt();
+				partAllocTable[i][1] = buf.getInt();
+			}
+			checkpoint.partAllocTable = partAllocTable;
+			long[][] partSizes = new long[buf.getInt()][2];
+			for (int i = 0; i < partSizes.length; i++) {
+				partSizes[i][0] = buf.getLong();
+				partSizes[i][1] = buf.getLong();
+			}
+			checkpoint.partSizes = partSizes;
+			checkpoint.edgeDestCount = getEdc(buf);
+			checkpoint.edcTwoWay = getEdc(buf);
+			int numParts = buf.getInt();
+			boolean[][] terminationMap = new boolean[numParts][numParts];
+			for (int i = 0; i < numParts; i++) {
+				for (int j = 0; j < numParts; j++) {
+					terminationMap[i][j] = buf.get() != 0;
+				}
+			}
+			checkpoint.terminationMap = terminationMap;
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupt " + state, e);
+		}
+		return checkpoint;
+	}
+
+	private static long edcSize(long[][] edc) {
+		return 8 + 16L * numEntries(edc);
+	}
+
+	private static int numEntries(long[][] edc) {
+		int numEntries = 0;
+		for (int i = 0; i < edc.length; i++) {
+			for (int j = 0; j < edc[i].length; j++) {
+				if (edc[i][j] != 0)
+					numEntries++;
+			}
+		}
+		return numEntries;
+	}
+
+	private static void putEdc(ByteBuffer buf, long[][] edc) {
+		buf.putInt(edc.length);
+		buf.putInt(numEntries(edc));
+		for (int i = 0; i < edc.length; i++) {
+			for (int j = 0; j < edc[i].length; j++) {
+				if (edc[i][j] != 0) {
+					buf.putInt(i);
+					buf.putInt(j);
+					buf.putLong(edc[i][j]);
+				}
+			}
+		}
+	}
+
+	private static long[][] getEdc(ByteBuffer buf) {
+		int dim = Math.max(buf.getInt(), GlobalParams.getEdcSize());
+		int numEntries = buf.getInt();
+		long[][] edc = new long[dim][dim];
+		for (int i = 0; i < numEntries; i++) {
+			int partA = buf.getInt();
+			int partB = buf.getInt();
+			edc[partA][partB] = buf.getLong();
+		}
+		return edc;
+	}
+
+	/**
+	 * Makes link a hard link to file, or a copy of it where hard links are
+	 * not supported.
+	 */
+	private static void link(File file, File link) throws IOException {
+		try {
+			Files.createLink(link.toPath(), file.toPath());
+		} catch (UnsupportedOperationException e) {
+			Files.copy(file.toPath(), link.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static void deleteDir(File dir) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		for (File file : files) {
+			if (!file.delete())
+				throw new IOException("Could not delete " + file);
+		}
+		if (!dir.delete())
+			throw new IOException("Could not delete " + dir);
+	}
+
+}
@@ -1,5 +1,6 @@
 package edu.uci.ics.cs.graspan.computationM;
 
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.PriorityQueue;
@@ -19,18 +20,117 @@ public class SortedArrMerger {
 //	private HashSet<Byte> currentEvals = new HashSet<Byte>();// TODO: Need to change this to byte array to cut GC :DONE
 	private byte[] currentEvals_arr;
 
+	// scratch buffers the merge writes into; they are grown on demand and kept
+	// between calls, only the final outputs below are allocated per merge
 	private int[] src_delta_edgs;
 	private byte[] src_delta_vals;
 
 	private int[] src_oldUnewUdelta_edgs;
 	private byte[] src_oldUnewUdelta_vals;
+
+	// right-sized outputs of the last merge
+	private int[] delta_edgs_out;
+	private byte[] delta_vals_out;
+
+	private int[] oldUnewUdelta_edgs_out;
+	private byte[] oldUnewUdelta_vals_out;
+
 	private PriorityQueue<MinSet> targetRowsMinHeap;
 
+	// pooled cursors, one per row to merge
+	private MinSet[] minSetPool = new MinSet[0];
+
+	// scratch buffers larger than this (in edges) are released after a merge so
+	// that a single hub vertex does not pin memory in every worker thread
+	private static final int MAX_RETAINED_SCRATCH_SIZE = 1 << 22;
+
+	private static final int[] EMPTY_EDGS = new int[0];
+	private static final byte[] EMPTY_VALS = new byte[0];
+
+	private static final Comparator<MinSet> MIN_SET_COMPARATOR = new Comparator<MinSet>() {
+		@Override
+		public int compare(MinSet o1, MinSet o2) {
+			return (o1.getCurrentVId() - o2.getCurrentVId());
+		}
+	};
+
+	// one merger per computation thread, reused across calls of execUpdate
+	private static final ThreadLocal<SortedArrMerger> threadMerger = new ThreadLocal<SortedArrMerger>() {
+		@Override
+		protected SortedArrMerger initialValue() {
+			return new SortedArrMerger();
+		}
+	};
+
 	public SortedArrMerger() {
 		currentEvals_arr = new byte[GrammarChecker.getNumOfGrammarSymbols()];
 		clearEvalsArr(currentEvals_arr);
+		targetRowsMinHeap = new PriorityQueue<MinSet>(11, MIN_SET_COMPARATOR);
+		src_delta_edgs = EMPTY_EDGS;
+		src_delta_vals = EMPTY_VALS;
+		src_oldUnewUdelta_edgs = EMPTY_EDGS;
+		src_oldUnewUdelta_vals = EMPTY_VALS;
 //		logger.info("currentEvals_arr"+currentEvals_arr.length);
 	}
+
+	/**
+	 * Returns the merger owned by the calling thread. The merger is reset at
+	 * the start of every mergeTgtstoSrc() call, so the outputs of a merge must
+	 * be collected before the thread merges the next vertex.
+	 * 
+	 * @return
+	 */
+	public static SortedArrMerger getThreadMerger() {
+		return threadMerger.get();
+	}
+
+	/**
+	 * Resets the pointers and the heap so that the merger can be reused.
+	 */
+	private void reset() {
+		delta_ptr = -1;
+		oldUnewUdelta_ptr = -1;
+		currentId = 0;
+		clearEvalsArr(currentEvals_arr);
+		targetRowsMinHeap.clear();
+	}
+
+	/**
+	 * Makes sure the scratch buffers can hold the given number of edges.
+	 * 
+	 * @param deltaSize
+	 * @param oldUnewUdeltaSize
+	 */
+	private void ensureScratchCapacity(int deltaSize, int oldUnewUdeltaSize) {
+		if (src_delta_edgs.length < deltaSize) {
+			int capacity = Math.max(deltaSize, src_delta_edgs.length + (src_delta_edgs.length >> 1));
+			src_delta_edgs = new int[capacity];
+			src_delta_vals = new byte[capacity];
+		}
+		if (src_oldUnewUdelta_edgs.length < oldUnewUdeltaSize) {
+			int capacity = Math.max(oldUnewUdeltaSize, src_oldUnewUdelta_edgs.length + (src_oldUnewUdelta_edgs.length >> 1));
+			src_oldUnewUdelta_edgs = new int[capacity];
+			src_oldUnewUdelta_vals = new byte[capacity];
+		}
+	}
+
+	/**
+	 * Returns a pooled cursor for row i, growing the pool if required.
+	 * 
+	 * @param i
+	 * @return
+	 */
+	private MinSet getPooledMinSet(int i) {
+		if (i >= minSetPool.length) {
+			minSetPool = Arrays.copyOf(minSetPool, Math.max(i + 1, minSetPool.length * 2));
+		}
+		if (minSetPool[i] == null) {
+			minSetPool[i] = new MinSet(i);
+		} else {
+			minSetPool[i].reset(i);
+		}
+		return minSetPool[i];
+	}
 	
 	//*** new ds implementation methods ***
 	public void clearEvalsArr(byte arr[]){
@@ -83,27 +183,15 @@ public class SortedArrMerger {
 	 */
 	public void mergeTgtstoSrc(int[][] edgArrstoMerge, byte[][] valArrstoMerge, int srcRowId) {
 //	public void mergeTgtstoSrc(int[][] edgArrstoMerge, byte[][] valArrstoMerge, int srcRowId, int[]edgArrsSizes) {	
-		assert (delta_ptr == -1);
 		assert (srcRowId == 0);
-		
-
-		// MIN_SETS ARRAY
-		MinSet[] minSets = new MinSet[edgArrstoMerge.length];
-
-		targetRowsMinHeap = new PriorityQueue<MinSet>(edgArrstoMerge.length, new Comparator<MinSet>() {
-			@Override
-			public int compare(MinSet o1, MinSet o2) {
-				return (o1.getCurrentVId() - o2.getCurrentVId());
-			}
-		});
+		reset();
 
 		// INITIALIZE MIN SET FOR ROW i & track sizes to declare src_delta and
 		// src_oldUnewUdelta
 		int cumTgtRowsSize = 0;
 		for (int i = 0; i < edgArrstoMerge.length; i++) {
-			MinSet minSet = new MinSet(i);// TODO: NEED TO FIX. IDENTIFIED AS GC-EXPENSIVE BY YOURKIT. :DONE
+			MinSet minSet = getPooledMinSet(i);
 			createNextMinSet(minSet, edgArrstoMerge[i], valArrstoMerge[i]);
-			minSets[i] = minSet;
 
 			// add each target row minSet to minHeap
 			if (i != srcRowId)
@@ -113,17 +201,14 @@ public class SortedArrMerger {
 				cumTgtRowsSize += edgArrstoMerge[i].length;//TODO: to avoid array resize approach // USE ACTUAL LENGTH INSTEAD OF CAPACITY
 		}
 
-		// declare & initialize src_delta and src_oldUnewUdelta
-		src_delta_edgs = new int[cumTgtRowsSize];
-		src_delta_vals = new byte[cumTgtRowsSize];
+		// make sure src_delta and src_oldUnewUdelta can hold every target edge
+		ensureScratchCapacity(cumTgtRowsSize, edgArrstoMerge[srcRowId].length + cumTgtRowsSize);
 //		 for (int i = 0; i < src_delta_edgs.length; i++) {//TODO: to avoid array resize approach//TO TEST
 //		 src_delta_edgs[i] = -1;
 //		 src_delta_edgs[i] = Integer.MAX_VALUE;
 //		 src_delta_vals[i] = -1;
 //		 }
 
-		src_oldUnewUdelta_edgs = new int[edgArrstoMerge[srcRowId].length + cumTgtRowsSize];//TODO: to avoid array resize approach // USE ACTUAL LENGTH INSTEAD OF CAPACITY
-		src_oldUnewUdelta_vals = new byte[edgArrstoMerge[srcRowId].length + cumTgtRowsSize];//TODO: to avoid array resize approach // USE ACTUAL LENGTH INSTEAD OF CAPACITY
 //		 for (int i = 0; i < src_oldUnewUdelta_edgs.length;i++) {//TODO: to avoid array resize approach//TO TEST
 //		 src_oldUnewUdelta_edgs[i] = -1;
 //		 src_oldUnewUdelta_edgs[i] = Integer.MAX_VALUE;
@@ -138,7 +223,7 @@ public class SortedArrMerger {
 		} else {
 			while (true) {
 				// pick the min set from source row and min set from target rows
-				MinSet minSetFromSrcRow = minSets[srcRowId];
+				MinSet minSetFromSrcRow = minSetPool[srcRowId];
 				// MinSet minSetFrmTgtRows = getNextMinSetFrmTgtRows(minSets, srcRowId);
 				MinSet minSetFrmTgtRows = targetRowsMinHeap.peek();
 				if (minSetFromSrcRow.getCurrentVId() == Integer.MAX_VALUE && minSetFrmTgtRows.getCurrentVId() == Integer.MAX_VALUE) {
@@ -154,41 +239,33 @@ public class SortedArrMerger {
 		}
 
 		// removing the empty values in output components: delta and oldUnewUdelta
-		removeRedundantArraySpace(); // TODO: NEED TO FIX. IDENTIFIED AS GC-EXPENSIVE BY YOURKIT.
+		removeRedundantArraySpace(); // TODO: NEED TO FIX. IDENTIFIED AS GC-EXPENSIVE BY YOURKIT. :DONE
 
 	}
 
 	/**
-	 * Removes empty slots the arrays
+	 * Copies the filled part of the scratch buffers into right-sized output
+	 * arrays
 	 */
-	private void removeRedundantArraySpace() { // TODO: NEED TO FIX. IDENTIFIED AS GC-EXPENSIVE BY YOURKIT.
-		// removing empty values from src_oldUnewUdelta_edgs
-		int[] tempEdgs = new int[oldUnewUdelta_ptr + 1];
-		byte[] tempVals = new byte[oldUnewUdelta_ptr + 1];
-
-		// for (int j = 0; j < oldUnewUdelta_ptr + 1; j++) {
-		// tempEdgs[j] = src_oldUnewUdelta_edgs[j];
-		// tempVals[j] = src_oldUnewUdelta_vals[j];
-		// }
-		System.arraycopy(src_oldUnewUdelta_edgs, 0, tempEdgs, 0, oldUnewUdelta_ptr + 1);
-		System.arraycopy(src_oldUnewUdelta_vals, 0, tempVals, 0, oldUnewUdelta_ptr + 1);
-
-		src_oldUnewUdelta_edgs = tempEdgs;
-		src_oldUnewUdelta_vals = tempVals;
-
-		// removing empty values from src_delta_edgs
-		tempEdgs = new int[delta_ptr + 1];
-		tempVals = new byte[delta_ptr + 1];
-
-		// for (int j = 0; j < delta_ptr + 1; j++) {
-		// tempEdgs[j] = src_delta_edgs[j];
-		// tempVals[j] = src_delta_vals[j];
-		// }
-		System.arraycopy(src_delta_edgs, 0, tempEdgs, 0, delta_ptr + 1);
-		System.arraycopy(src_delta_vals, 0, tempVals, 0, delta_ptr + 1);
-
-		src_delta_edgs = tempEdgs;
-		src_delta_vals = tempVals;
+	private void removeRedundantArraySpace() {
+		oldUnewUdelta_edgs_out = Arrays.copyOf(src_oldUnewUdelta_edgs, oldUnewUdelta_ptr + 1);
+		oldUnewUdelta_vals_out = Arrays.copyOf(src_oldUnewUdelta_vals, oldUnewUdelta_ptr + 1);
+
+		if (delta_ptr == -1) {
+			delta_edgs_out = EMPTY_EDGS;
+			delta_vals_out = EMPTY_VALS;
+		} else {
+			delta_edgs_out = Arrays.copyOf(src_delta_edgs, delta_ptr + 1);
+			delta_vals_out = Arrays.copyOf(src_delta_vals, delta_ptr + 1);
+		}
+
+		// drop oversized scratch buffers
+		if (src_oldUnewUdelta_edgs.length > MAX_RETAINED_SCRATCH_SIZE) {
+			src_delta_edgs = EMPTY_EDGS;
+			src_delta_vals = EMPTY_VALS;
+			src_oldUnewUdelta_edgs = EMPTY_EDGS;
+			src_oldUnewUdelta_vals = EMPTY_VALS;
+		}
 	}
 
 	private void processMinSetsForNull(int[] srcEdgRow, byte[] srcValRow) { 
@@ -426,19 +503,19 @@ public class SortedArrMerger {
 	}
 
 	public int[] get_src_delta_edgs() {
-		return src_delta_edgs;
+		return delta_edgs_out;
 	}
 
 	public byte[] get_src_delta_vals() {
-		return src_delta_vals;
+		return delta_vals_out;
 	}
 
 	public int[] get_src_oldUnewUdelta_edgs() {
-		return src_oldUnewUdelta_edgs;
+		return oldUnewUdelta_edgs_out;
 	}
 
 	public byte[] get_src_oldUnewUdelta_vals() {
-		return src_oldUnewUdelta_vals;
+		return oldUnewUdelta_vals_out;
 	}
 
 	public static void main(String args[]) {
@@ -77,6 +77,31 @@ public class ComputationSet {
 		this.oldUnewVals = oldUnewVals;
 	}
 
+	// label-grouped views of new and oldUnew, rebuilt when the arrays change.
+	// Several threads may build the same view concurrently, which is harmless
+	// as the views are immutable
+
+	private volatile LabelIndex newLabelIndex;
+	private volatile LabelIndex oldUnewLabelIndex;
+
+	public LabelIndex getNewLabelIndex() {
+		LabelIndex index = newLabelIndex;
+		if (index == null || !index.isFor(newEdgs)) {
+			index = LabelIndex.build(newEdgs, newVals);
+			newLabelIndex = index;
+		}
+		return index;
+	}
+
+	public LabelIndex getOldUnewLabelIndex() {
+		LabelIndex index = oldUnewLabelIndex;
+		if (index == null || !index.isFor(oldUnewEdgs)) {
+			index = LabelIndex.build(oldUnewEdgs, oldUnewVals);
+			oldUnewLabelIndex = index;
+		}
+		return index;
+	}
+
 	// OUPUT FOR EACH ITERATION
 
 	// delta
@@ -0,0 +1,76 @@
+package edu.uci.ics.cs.graspan.datastructures;
+
+/**
+ * The edges of one row split by label. Each slice keeps the destination order
+ * of the row, so it can be merged as a row of its own. An index is immutable
+ * and remembers the edge array it was built from.
+ */
+public class LabelIndex {
+
+	private final int[] edgs;
+
+	// distinct labels of the row in ascending unsigned order
+	private final byte[] labels;
+
+	// destinations of each label, parallel to labels
+	private final int[][] edgsOfLabel;
+
+	private LabelIndex(int[] edgs, byte[] labels, int[][] edgsOfLabel) {
+		this.edgs = edgs;
+		this.labels = labels;
+		this.edgsOfLabel = edgsOfLabel;
+	}
+
+	/**
+	 *
+	 * @param edgs
+	 *            - destinations, sorted, possibly padded with -1
+	 * @param vals
+	 *            - labels of the edges
+	 * @return
+	 */
+	public static LabelIndex build(int[] edgs, byte[] vals) {
+		int[] counts = new int[256];
+		int numLabels = 0;
+		for (int i = 0; i < edgs.length && edgs[i] != -1; i++) {
+			if (counts[vals[i] & 0xFF]++ == 0) {
+				numLabels++;
+			}
+		}
+
+		byte[] labels = new byte[numLabels];
+		int[][] edgsOfLabel = new int[numLabels][];
+		int[] slot = new int[256];
+		for (int l = 0, j = 0; l < 256; l++) {
+			if (counts[l] != 0) {
+				labels[j] = (byte) l;
+				edgsOfLabel[j] = new int[counts[l]];
+				slot[l] = j++;
+			}
+		}
+
+		int[] fill = new int[numLabels];
+		for (int i = 0; i < edgs.length && edgs[i] != -1; i++) {
+			int j = slot[vals[i] & 0xFF];
+			edgsOfLabel[j][fill[j]++] = edgs[i];
+		}
+		return new LabelIndex(edgs, labels, edgsOfLabel);
+	}
+
+	public boolean isFor(int[] edgs) {
+		return this.edgs == edgs;
+	}
+
+	public int getNumLabels() {
+		return labels.length;
+	}
+
+	public byte getLabel(int i) {
+		return labels[i];
+	}
+
+	public int[] getEdgs(int i) {
+		return edgsOfLabel[i];
+	}
+
+}
@@ -0,0 +1,114 @@
+package edu.uci.ics.cs.graspan.datastructures;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing set of (row index, label) pairs packed into a long as
+ * (rowIdx << 8) | label. Slots are tagged with an epoch so clear() is O(1),
+ * and the keys are also kept in insertion order so they can be iterated
+ * without scanning the table. Meant to be reused by one thread.
+ */
+public class PackedKeySet {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private long[] slotKeys;
+	private int[] slotEpochs;
+	private int mask;
+
+	private int epoch = 1;
+
+	// keys of the current epoch in insertion order
+	private long[] keys;
+	private int size;
+
+	public PackedKeySet() {
+		slotKeys = new long[INITIAL_CAPACITY];
+		slotEpochs = new int[INITIAL_CAPACITY];
+		mask = INITIAL_CAPACITY - 1;
+		keys = new long[INITIAL_CAPACITY >> 1];
+	}
+
+	public static long pack(int rowIdx, byte label) {
+		return ((long) rowIdx << 8) | (label & 0xFF);
+	}
+
+	public static int rowIdx(long key) {
+		return (int) (key >>> 8);
+	}
+
+	public static byte label(long key) {
+		return (byte) key;
+	}
+
+	/**
+	 *
+	 * @param rowIdx
+	 * @param label
+	 * @return true if the pair was not in the set
+	 */
+	public boolean add(int rowIdx, byte label) {
+		long key = pack(rowIdx, label);
+		int slot = hash(key) & mask;
+		while (slotEpochs[slot] == epoch) {
+			if (slotKeys[slot] == key) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		slotKeys[slot] = key;
+		slotEpochs[slot] = epoch;
+		keys[size++] = key;
+
+		// keep the load factor at most 1/2
+		if (size == keys.length) {
+			grow();
+		}
+		return true;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the i-th key added since the last clear().
+	 *
+	 * @param i
+	 * @return
+	 */
+	public long get(int i) {
+		return keys[i];
+	}
+
+	public void clear() {
+		size = 0;
+		if (++epoch == Integer.MAX_VALUE) {
+			Arrays.fill(slotEpochs, 0);
+			epoch = 1;
+		}
+	}
+
+	private void grow() {
+		int capacity = slotKeys.length << 1;
+		slotKeys = new long[capacity];
+		slotEpochs = new int[capacity];
+		mask = capacity - 1;
+		keys = Arrays.copyOf(keys, capacity >> 1);
+		epoch = 1;
+		for (int i = 0; i < size; i++) {
+			int slot = hash(keys[i]) & mask;
+			while (slotEpochs[slot] == epoch) {
+				slot = (slot + 1) & mask;
+			}
+			slotKeys[slot] = keys[i];
+			slotEpochs[slot] = epoch;
+		}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
@@ -0,0 +1,119 @@
+package edu.uci.ics.cs.graspan.datastructures;
+
+import java.util.Arrays;
+
+/**
+ * Immutable lookup structure over a partition allocation table, built by
+ * PartitionQuerier whenever the table in AllPartitions is replaced.
+ *
+ * Vertex to partition lookups binary search the upper bounds of the table,
+ * or read a dense vertex to partition array when the vertex range is small.
+ * Partition id to slot lookups read a direct map.
+ */
+public class PartitionIndex {
+
+	// the dense array is built only up to this many vertices
+	private static final int DENSE_LOOKUP_MAX_VERTICES = 1 << 20;
+
+	private final int[][] partAllocTable;
+
+	// copies of the two columns of the table
+	private final int[] partIds;
+	private final int[] upperBounds;
+
+	// slot of each partition id in the table, -1 if absent
+	private final int[] slotOfPart;
+
+	// partition id of each vertex id up to the last upper bound, or null
+	private final int[] partOfVertex;
+
+	// false if the upper bounds are not ascending, in which case lookups fall
+	// back to a scan to keep the semantics of the table
+	private final boolean sorted;
+
+	public PartitionIndex(int[][] partAllocTable) {
+		this.partAllocTable = partAllocTable;
+		int n = partAllocTable.length;
+
+		partIds = new int[n];
+		upperBounds = new int[n];
+		int maxPartId = -1;
+		boolean ascending = true;
+		for (int i = 0; i < n; i++) {
+			partIds[i] = partAllocTable[i][0];
+			upperBounds[i] = partAllocTable[i][1];
+			maxPartId = Math.max(maxPartId, partIds[i]);
+			if (i > 0 && upperBounds[i] < upperBounds[i - 1])
+				ascending = false;
+		}
+		sorted = ascending;
+
+		slotOfPart = new int[maxPartId + 1];
+		Arrays.fill(slotOfPart, -1);
+		for (int i = n - 1; i >= 0; i--) {
+			if (partIds[i] >= 0)
+				slotOfPart[partIds[i]] = i;
+		}
+
+		if (sorted && n > 0 && upperBounds[n - 1] >= 0 && upperBounds[n - 1] < DENSE_LOOKUP_MAX_VERTICES) {
+			partOfVertex = new int[upperBounds[n - 1] + 1];
+			for (int i = 0, v = 0; i < n; i++) {
+				for (; v <= upperBounds[i]; v++) {
+					partOfVertex[v] = partIds[i];
+				}
+			}
+		} else {
+			partOfVertex = null;
+		}
+	}
+
+	public boolean isFor(int[][] partAllocTable) {
+		return this.partAllocTable == partAllocTable;
+	}
+
+	/**
+	 * Returns the slot of partId in the table, -1 if absent.
+	 *
+	 * @param partId
+	 * @return
+	 */
+	public int getSlot(int partId) {
+		if (partId < 0 || partId >= slotOfPart.length)
+			return -1;
+		return slotOfPart[partId];
+	}
+
+	public int getUpperBound(int slot) {
+		return upperBounds[slot];
+	}
+
+	/**
+	 * Returns the id of the first partition whose upper bound is at least
+	 * src, -1 if there is none.
+	 *
+	 * @param src
+	 * @return
+	 */
+	public int findPartition(int src) {
+		if (partOfVertex != null && src >= 0) {
+			return src < partOfVertex.length ? partOfVertex[src] : -1;
+		}
+		if (!sorted) {
+			for (int i = 0; i < upperBounds.length; i++) {
+				if (src <= upperBounds[i])
+					return partIds[i];
+			}
+			return -1;
+		}
+		int lo = 0, hi = upperBounds.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (upperBounds[mid] < src)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo < upperBounds.length ? partIds[lo] : -1;
+	}
+
+}
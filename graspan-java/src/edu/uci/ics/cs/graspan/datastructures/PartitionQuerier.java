@@ -18,6 +18,25 @@ public class PartitionQuerier {
 
 	private static final Logger logger = GraspanLogger.getLogger("PartitionQuerier");
 
+	// index over the current partAllocTable, rebuilt when the table is replaced
+	private static volatile PartitionIndex partIndex;
+
+	/**
+	 * Returns the index of the current partition allocation table, building
+	 * it first if the table has been replaced since the last call.
+	 * 
+	 * @return
+	 */
+	public static PartitionIndex getPartIndex() {
+		int[][] partAllocTable = AllPartitions.getPartAllocTab();
+		PartitionIndex index = partIndex;
+		if (index == null || !index.isFor(partAllocTable)) {
+			index = new PartitionIndex(partAllocTable);
+			partIndex = index;
+		}
+		return index;
+	}
+
 	/**
 	 * Returns the number of unique sources of in partition partId. IMP: we
 	 * consider the vertex numbering of the input graph to start from 1 NOT 0.
@@ -25,17 +44,15 @@ public class PartitionQuerier {
 	 * @param partId
 	 */
 	public static int getNumUniqueSrcs(int partId) {
-		int[][] partAllocTable = AllPartitions.getPartAllocTab();
-		for (int i = 0; i < AllPartitions.getPartAllocTab().length; i++) {
-			if (partId == partAllocTable[i][0]) {
-				if (i == 0) {
-					return partAllocTable[i][1];
-				} else {
-					return partAllocTable[i][1] - partAllocTable[i - 1][1];
-				}
-			}
+		PartitionIndex index = getPartIndex();
+		int i = index.getSlot(partId);
+		if (i == -1)
+			return -1;
+		if (i == 0) {
+			return index.getUpperBound(i);
+		} else {
+			return index.getUpperBound(i) - index.getUpperBound(i - 1);
 		}
-		return -1;
 	}
 
 	/**
@@ -45,17 +62,15 @@ public class PartitionQuerier {
 	 * @return
 	 */
 	public static int getFirstSrc(int partId) {
-		int[][] partAllocTable = AllPartitions.getPartAllocTab();
-		for (int i = 0; i < partAllocTable.length; i++) {
-			if (partId == partAllocTable[i][0]) {
-				if (i == 0) {
-					return 1;
-				} else {
-					return partAllocTable[i - 1][1] + 1;
-				}
-			}
+		PartitionIndex index = getPartIndex();
+		int i = index.getSlot(partId);
+		if (i == -1)
+			return -1;
+		if (i == 0) {
+			return 1;
+		} else {
+			return index.getUpperBound(i - 1) + 1;
 		}
-		return -1;
 	}
 
 	/**
@@ -65,11 +80,10 @@ public class PartitionQuerier {
 	 * @return
 	 */
 	public static int getLastSrc(int partId) {
-		int[][] partAllocTable = AllPartitions.getPartAllocTab();
-		for (int i = 0; i < partAllocTable.length; i++) {
-			if (partId == partAllocTable[i][0]) {
-				return partAllocTable[i][1];
-			}
+		PartitionIndex index = getPartIndex();
+		int i = index.getSlot(partId);
+		if (i != -1) {
+			return index.getUpperBound(i);
 		}
 		logger.info("ERROR: Last source is -1 for partition " + partId);
 		return -1;
@@ -132,13 +146,8 @@ public class PartitionQuerier {
 	 *            - the actual Id of the source vertex.
 	 */
 	public static int findPartition(int src) {
-		int[][] partAllocTable = AllPartitions.getPartAllocTab();
-		for (int i = 0; i < partAllocTable.length; i++) {
-			if (src <= partAllocTable[i][1]) {//this is because pat is is sorted in asc. order by vertex id, not part id
-				return partAllocTable[i][0];
-			}
-		}
-		return -1;
+		//this works because pat is is sorted in asc. order by vertex id, not part id
+		return getPartIndex().findPartition(src);
 	}
 
 }
\ No newline at end of file
@@ -27,6 +27,25 @@ public class ComputationClient {
 		GlobalParams.setReloadPlan("RELOAD_PLAN_2");
 		GlobalParams.setEdcSize(1000);
 		GlobalParams.setComputationLogic("SMART_MERGE");
+		GlobalParams.setReuseMergeBuffers(true);
+		GlobalParams.setUseLoserTreeMerge(true);
+		GlobalParams.setUseLabelGroupedRows(true);
+		GlobalParams.setDegreeAwareScheduling(true);
+		GlobalParams.setParallelPostIteration(true);
+		GlobalParams.setUseActiveFrontier(true);
+		GlobalParams.setUseCsrPartitionFormat(true);
+		GlobalParams.setCompressPartitions(true);
+		GlobalParams.setPrefetchPartitions(true);
+		GlobalParams.setWriteBehindStorage(true);
+		GlobalParams.setUseDeltaSegments(true);
+		GlobalParams.setParallelPartitionWrites(true);
+		GlobalParams.setCheckpointInterval(10);
+
+		// an optional fifth argument "resume" continues the computation from
+		// its last checkpoint
+		if (args.length > 4 && args[4].equals("resume")) {
+			GlobalParams.setResumeFromCheckpoint(true);
+		}
 		
 		if (GlobalParams.getNumParts()==2){
 			GlobalParams.setInMemComp(true);
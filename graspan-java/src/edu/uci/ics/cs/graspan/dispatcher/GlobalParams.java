@@ -65,6 +65,73 @@ public class GlobalParams {
 	// DATAFLOW or POINTSTO: if dataflow, then erules adding process is skipped
 	private static String analysisType;
 
+	// reuse per-thread scratch buffers and cursors in SortedArrMerger instead
+	// of allocating them for every vertex
+	private static boolean reuseMergeBuffers;
+
+	// merge the rows of a vertex with LoserTreeMerger instead of SortedArrMerger
+	private static boolean useLoserTreeMerge;
+
+	// build target rows from label-grouped views of the loaded rows, so that
+	// only the labels that can combine are scanned
+	private static boolean useLabelGroupedRows;
+
+	// split iterations into ranges of equal degree and run them on a ForkJoinPool
+	private static boolean degreeAwareScheduling;
+
+	// move the results of an iteration into the vertices and update the edc in parallel
+	private static boolean parallelPostIteration;
+
+	// after the first iteration of a round, compute only the vertices that can get new edges
+	private static boolean useActiveFrontier;
+
+	// write partitions in the CSR format of PartitionFileWriter instead of the
+	// record stream plus degrees file
+	private static boolean useCsrPartitionFormat;
+
+	// encode the destination and label columns of the CSR partitions written
+	// from memory (delta varints and label runs)
+	private static boolean compressPartitions;
+
+	// read the partitions the scheduler is expected to pick next on a
+	// background thread while the current round computes
+	private static boolean prefetchPartitions;
+
+	// store the partitions leaving memory on a writer thread, and wait for
+	// them only when they are loaded again
+	private static boolean writeBehindStorage;
+
+	// store a CSR partition that gained edges as a delta segment instead of
+	// rewriting it, see PartitionSegments
+	private static boolean useDeltaSegments;
+
+	// save the partition allocation table, edc and partition sizes of a
+	// preprocessed graph in a PartitionManifest instead of text files
+	private static boolean useBinaryManifest;
+
+	// write the partitions saved at the end of a round on a pool of I/O
+	// threads, see PartitionWritePool
+	private static boolean parallelPartitionWrites;
+
+	// parse the input edge list of the preprocessor on several threads, see
+	// EdgeListParser
+	private static boolean parallelEdgeListParsing;
+
+	// generate CSR partitions by merging sorted runs written to disk, so that
+	// no partition needs to fit in memory, see PartitionRuns
+	private static boolean externalPartitionSort;
+
+	// cut the partitions by the labels of their edges rather than by their
+	// number, see LabelAwarePartitioner
+	private static boolean labelAwarePartitioning;
+
+	// number of rounds between checkpoints of a computation, 0 for none, see
+	// RoundCheckpoint
+	private static int checkpointInterval;
+
+	// continue a computation from its last checkpoint
+	private static boolean resumeFromCheckpoint;
+
 	private static int heapSize;
 	
 	private static double pSizeConst, repartConst;
@@ -224,6 +291,150 @@ public class GlobalParams {
 		return ppOperation;
 	}
 
+	public static void setReuseMergeBuffers(boolean val) {
+		reuseMergeBuffers = val;
+	}
+
+	public static boolean reuseMergeBuffers() {
+		return reuseMergeBuffers;
+	}
+
+	public static void setUseLoserTreeMerge(boolean val) {
+		useLoserTreeMerge = val;
+	}
+
+	public static boolean useLoserTreeMerge() {
+		return useLoserTreeMerge;
+	}
+
+	public static void setUseLabelGroupedRows(boolean val) {
+		useLabelGroupedRows = val;
+	}
+
+	public static boolean useLabelGroupedRows() {
+		return useLabelGroupedRows;
+	}
+
+	public static void setDegreeAwareScheduling(boolean val) {
+		degreeAwareScheduling = val;
+	}
+
+	public static boolean degreeAwareScheduling() {
+		return degreeAwareScheduling;
+	}
+
+	public static void setParallelPostIteration(boolean val) {
+		parallelPostIteration = val;
+	}
+
+	public static boolean parallelPostIteration() {
+		return parallelPostIteration;
+	}
+
+	public static void setUseActiveFrontier(boolean val) {
+		useActiveFrontier = val;
+	}
+
+	public static boolean useActiveFrontier() {
+		return useActiveFrontier;
+	}
+
+	public static void setUseCsrPartitionFormat(boolean val) {
+		useCsrPartitionFormat = val;
+	}
+
+	public static boolean useCsrPartitionFormat() {
+		return useCsrPartitionFormat;
+	}
+
+	public static void setCompressPartitions(boolean val) {
+		compressPartitions = val;
+	}
+
+	public static boolean compressPartitions() {
+		return compressPartitions;
+	}
+
+	public static void setPrefetchPartitions(boolean val) {
+		prefetchPartitions = val;
+	}
+
+	public static boolean prefetchPartitions() {
+		return prefetchPartitions;
+	}
+
+	public static void setWriteBehindStorage(boolean val) {
+		writeBehindStorage = val;
+	}
+
+	public static boolean writeBehindStorage() {
+		return writeBehindStorage;
+	}
+
+	public static void setUseDeltaSegments(boolean val) {
+		useDeltaSegments = val;
+	}
+
+	public static boolean useDeltaSegments() {
+		return useDeltaSegments;
+	}
+
+	public static void setUseBinaryManifest(boolean val) {
+		useBinaryManifest = val;
+	}
+
+	public static boolean useBinaryManifest() {
+		return useBinaryManifest;
+	}
+
+	public static void setParallelPartitionWrites(boolean val) {
+		parallelPartitionWrites = val;
+	}
+
+	public static boolean parallelPartitionWrites() {
+		return parallelPartitionWrites;
+	}
+
+	public static void setParallelEdgeListParsing(boolean val) {
+		parallelEdgeListParsing = val;
+	}
+
+	public static boolean parallelEdgeListParsing() {
+		return parallelEdgeListParsing;
+	}
+
+	public static void setExternalPartitionSort(boolean val) {
+		externalPartitionSort = val;
+	}
+
+	public static boolean externalPartitionSort() {
+		return externalPartitionSort;
+	}
+
+	public static void setLabelAwarePartitioning(boolean val) {
+		labelAwarePartitioning = val;
+	}
+
+	public static boolean labelAwarePartitioning() {
+		return labelAwarePartitioning;
+	}
+
+	public static void setCheckpointInterval(int rounds) {
+		checkpointInterval = rounds;
+	}
+
+	public static int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	public static void setResumeFromCheckpoint(boolean val) {
+		resumeFromCheckpoint = val;
+	}
+
+	public static boolean resumeFromCheckpoint() {
+		return resumeFromCheckpoint;
+	}
+
 	public static void setHeapSize(int hs) {
 		heapSize=hs;
 	}
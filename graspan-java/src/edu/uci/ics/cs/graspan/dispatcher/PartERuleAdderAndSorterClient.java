@@ -20,6 +20,8 @@ public class PartERuleAdderAndSorterClient {
 		GlobalParams.setNumParts(Integer.parseInt(args[1]));
 		GlobalParams.setHasEdgeVals(args[2].trim());
 		GlobalParams.setFirstVertexID(Integer.parseInt(args[3]));
+		GlobalParams.setUseCsrPartitionFormat(true);
+		GlobalParams.setCompressPartitions(true);
 
 		GrammarChecker.loadGrammars(new File(GlobalParams.getBasefilename() + ".grammar"));
 
@@ -29,6 +29,16 @@ public class PartGenClient {
 		GlobalParams.setNumParts(Integer.parseInt(args[1]));
 		GlobalParams.setHasEdgeVals(args[2].trim());
 		GlobalParams.setFirstVertexID(Integer.parseInt(args[3]));
+		GlobalParams.setUseCsrPartitionFormat(true);
+		GlobalParams.setUseBinaryManifest(true);
+		GlobalParams.setParallelEdgeListParsing(true);
+		GlobalParams.setExternalPartitionSort(true);
+
+		// an optional fifth argument "labelaware" cuts the partitions by the
+		// labels of their edges, see LabelAwarePartitioner
+		if (args.length > 4 && args[4].equals("labelaware")) {
+			GlobalParams.setLabelAwarePartitioning(true);
+		}
 
 		logger.info("Input graph: " + GlobalParams.getBasefilename());
 		logger.info("Requested # partitions to generate: " + GlobalParams.getNumParts());
@@ -0,0 +1,54 @@
+package edu.uci.ics.cs.graspan.dispatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import edu.uci.ics.cs.graspan.computationM.GrammarChecker;
+import edu.uci.ics.cs.graspan.preproc.PreprocessingPipeline;
+import edu.uci.ics.cs.graspan.support.GraspanLogger;
+import edu.uci.ics.cs.graspan.support.Utilities;
+
+/**
+ * This program preprocesses the input graph into the partitions of the
+ * eRulesAdded graph in a single run, taking the arguments of PartGenClient
+ */
+public class PreprocessingPipelineClient {
+
+	private static final Logger logger = GraspanLogger.getLogger("PreprocessingPipelineClient");
+
+	public static void main(String[] args) throws IOException {
+
+		GlobalParams.setBasefilename(args[0]);
+		GlobalParams.setNumParts(Integer.parseInt(args[1]));
+		GlobalParams.setHasEdgeVals(args[2].trim());
+		GlobalParams.setFirstVertexID(Integer.parseInt(args[3]));
+		GlobalParams.setUseCsrPartitionFormat(true);
+		GlobalParams.setUseBinaryManifest(true);
+		GlobalParams.setParallelEdgeListParsing(true);
+		GlobalParams.setExternalPartitionSort(true);
+
+		// an optional fifth argument "labelaware" cuts the partitions by the
+		// labels of their edges, see LabelAwarePartitioner
+		if (args.length > 4 && args[4].equals("labelaware")) {
+			GlobalParams.setLabelAwarePartitioning(true);
+		}
+
+		logger.info("Input graph: " + GlobalParams.getBasefilename());
+		logger.info("Requested # partitions to generate: " + GlobalParams.getNumParts());
+
+		GrammarChecker.loadGrammars(new File(GlobalParams.getBasefilename() + ".grammar"));
+
+		logger.info("PREPROCESSING: Start generating partitions with eRule edges...");
+		long pp_start = System.currentTimeMillis();
+
+		PreprocessingPipeline pipeline = new PreprocessingPipeline(GlobalParams.getBasefilename());
+		pipeline.run();
+
+		logger.info("PREPROCESSING: Finished generating partitions.");
+
+		logger.info("Preprocessing took: " + Utilities.getDurationInHMS(System.currentTimeMillis() - pp_start));
+
+	}
+
+}
@@ -42,6 +42,10 @@ public class PreprocessorClient {
 		GlobalParams.setComputationLogic("SMART_MERGE");
 		GlobalParams.setEdcSize(1000);
 		GlobalParams.setBasefilename(args[1]);
+		GlobalParams.setUseCsrPartitionFormat(true);
+		GlobalParams.setUseBinaryManifest(true);
+		GlobalParams.setParallelEdgeListParsing(true);
+		GlobalParams.setExternalPartitionSort(true);
 
 		String[] tok;
 		while ((ln = preprocessorConfigStream.readLine()) != null) {
@@ -68,6 +72,10 @@ public class PreprocessorClient {
 			if (tok[0].compareTo("PREPROCESSING_OPERATION")==0){
 				GlobalParams.setPPOperation(tok[2].trim());
 			}
+			// cut the partitions by the labels of their edges, see LabelAwarePartitioner
+			if (tok[0].compareTo("LABEL_AWARE_PARTITIONING") == 0) {
+				GlobalParams.setLabelAwarePartitioning(tok[2].trim().equals("yes"));
+			}
 			
 			// THE FOLLOWING ARE NOT USED FOR PREPROCESSING, BUT USED TO GENERATE THE CONFIG FILE 
 			// FOR THE COMPUTATION
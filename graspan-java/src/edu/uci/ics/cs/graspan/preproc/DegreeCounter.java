@@ -0,0 +1,311 @@
+package edu.uci.ics.cs.graspan.preproc;
+
+import java.util.Arrays;
+
+/**
+ * Counts the out-degrees of the vertices of a graph. The counts are kept in
+ * chunks of an int array indexed by vertex id, allocated as vertices of their
+ * ranges are seen. When the ids are spread so thinly that the chunks take
+ * more than their limit while most of their slots are unused, or an id is
+ * negative, the counts move to a hash table of vertex ids instead.
+ *
+ * A counter is not thread-safe.
+ */
+public class DegreeCounter {
+
+	private static final int CHUNK_BITS = 16;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	// the chunks move to the hash table when less than one in SPARSE_RATIO of
+	// their slots is used
+	private static final int SPARSE_RATIO = 8;
+
+	// the number of slots the chunks can take before they may move to the
+	// hash table
+	private final long maxDenseSlots;
+
+	// the dense counts, chunks[id >>> CHUNK_BITS][id & (CHUNK_SIZE - 1)]
+	private int[][] chunks = new int[0][];
+	private int numChunks;
+
+	// the sparse counts, an open addressing hash table where a count of 0
+	// marks a free slot
+	private boolean sparse;
+	private int[] keys;
+	private int[] counts;
+
+	private int numVertices;
+	private long numEdges;
+
+	// the sparse counts in the order of their vertices, (vertex, degree)
+	// packed in each entry so that the entries sort like the vertices as
+	// signed ints, built when first iterated
+	private long[] sortedEntries;
+
+	/**
+	 * @param maxDenseMemory
+	 *            - the memory, in bytes, the dense counts can take before
+	 *            they may move to a hash table
+	 */
+	public DegreeCounter(long maxDenseMemory) {
+		this.maxDenseSlots = Math.max(CHUNK_SIZE, maxDenseMemory / 4);
+	}
+
+	public void increment(int vertexId) {
+		add(vertexId, 1);
+	}
+
+	/**
+	 * Counts the first n vertices of ids once each.
+	 *
+	 * @param ids
+	 * @param n
+	 */
+	public void incrementAll(int[] ids, int n) {
+		for (int i = 0; i < n; i++) {
+			add(ids[i], 1);
+		}
+	}
+
+	/**
+	 * Adds count to the degree of a vertex.
+	 *
+	 * @param vertexId
+	 * @param count
+	 *            - a positive count
+	 */
+	public void add(int vertexId, int count) {
+		numEdges += count;
+		sortedEntries = null;
+		if (!sparse) {
+			int chunk = vertexId >>> CHUNK_BITS;
+			if (vertexId >= 0 && chunk < chunks.length && chunks[chunk] != null) {
+				addDense(chunks[chunk], vertexId, count);
+				return;
+			}
+			if (vertexId >= 0 && !isTooSparse()) {
+				if (chunk >= chunks.length) {
+					chunks = Arrays.copyOf(chunks, Math.max(chunk + 1, 2 * chunks.length));
+				}
+				chunks[chunk] = new int[CHUNK_SIZE];
+				numChunks++;
+				addDense(chunks[chunk], vertexId, count);
+				return;
+			}
+			toSparse();
+		}
+		addSparse(vertexId, count);
+	}
+
+	/**
+	 * Returns the degree of a vertex, 0 if it has not been counted.
+	 *
+	 * @param vertexId
+	 * @return
+	 */
+	public int get(int vertexId) {
+		if (sparse) {
+			int mask = keys.length - 1;
+			int hash = vertexId * 0x9e3779b9;
+			for (int slot = (hash ^ hash >>> 16) & mask; counts[slot] != 0; slot = (slot + 1) & mask) {
+				if (keys[slot] == vertexId)
+					return counts[slot];
+			}
+			return 0;
+		}
+		int chunk = vertexId >>> CHUNK_BITS;
+		if (vertexId < 0 || chunk >= chunks.length || chunks[chunk] == null)
+			return 0;
+		return chunks[chunk][vertexId & (CHUNK_SIZE - 1)];
+	}
+
+	public int getNumVertices() {
+		return numVertices;
+	}
+
+	public long getNumEdges() {
+		return numEdges;
+	}
+
+	/**
+	 * Returns the largest vertex id with a non-zero degree.
+	 *
+	 * @return
+	 * @throws IllegalStateException
+	 *             if no vertex has been counted
+	 */
+	public int getLastVertex() {
+		if (numVertices == 0)
+			throw new IllegalStateException("No vertices counted");
+		if (sparse) {
+			long[] entries = sortedEntries();
+			return entryVertex(entries[entries.length - 1]);
+		}
+		for (int chunk = chunks.length - 1;; chunk--) {
+			if (chunks[chunk] == null)
+				continue;
+			for (int i = CHUNK_SIZE - 1; i >= 0; i--) {
+				if (chunks[chunk][i] != 0)
+					return (chunk << CHUNK_BITS) | i;
+			}
+		}
+	}
+
+	/**
+	 * Returns a cursor over the vertices with a non-zero degree, in the order
+	 * of their ids.
+	 *
+	 * @return
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Iterates over the counted vertices and their degrees:
+	 *
+	 * <pre>
+	 * Cursor c = counter.cursor();
+	 * while (c.next()) {
+	 * 	... c.vertex() ... c.degree() ...
+	 * }
+	 * </pre>
+	 */
+	public class Cursor {
+		private final long[] entries = sparse ? sortedEntries() : null;
+
+		// the position of the current vertex, a slot of the chunks or an
+		// index of entries
+		private long pos = -1;
+		private int vertex, degree;
+
+		/**
+		 * Moves to the next vertex.
+		 *
+		 * @return false if there are no more vertices
+		 */
+		public boolean next() {
+			if (entries != null) {
+				if (++pos >= entries.length)
+					return false;
+				vertex = entryVertex(entries[(int) pos]);
+				degree = (int) entries[(int) pos];
+				return true;
+			}
+			for (pos++; pos < (long) chunks.length << CHUNK_BITS; pos++) {
+				int[] chunk = chunks[(int) (pos >>> CHUNK_BITS)];
+				if (chunk == null) {
+					pos |= CHUNK_SIZE - 1;
+					continue;
+				}
+				int count = chunk[(int) (pos & (CHUNK_SIZE - 1))];
+				if (count != 0) {
+					vertex = (int) pos;
+					degree = count;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public int vertex() {
+			return vertex;
+		}
+
+		public int degree() {
+			return degree;
+		}
+	}
+
+	private void addDense(int[] chunk, int vertexId, int count) {
+		int i = vertexId & (CHUNK_SIZE - 1);
+		if (chunk[i] == 0)
+			numVertices++;
+		chunk[i] += count;
+	}
+
+	/**
+	 * Checks whether the chunks have grown past their limit while most of
+	 * their slots are unused.
+	 */
+	private boolean isTooSparse() {
+		long slots = (long) numChunks * CHUNK_SIZE;
+		return slots >= maxDenseSlots && slots > (long) SPARSE_RATIO * numVertices;
+	}
+
+	/**
+	 * Moves the dense counts to the hash table.
+	 */
+	private void toSparse() {
+		int[][] denseChunks = chunks;
+		int capacity = 16;
+		while (capacity < 2L * numVertices + 2) {
+			capacity <<= 1;
+		}
+		keys = new int[capacity];
+		counts = new int[capacity];
+		sparse = true;
+		chunks = new int[0][];
+		numChunks = 0;
+
+		int vertices = numVertices;
+		numVertices = 0;
+		for (int chunk = 0; chunk < denseChunks.length; chunk++) {
+			if (denseChunks[chunk] == null)
+				continue;
+			for (int i = 0; i < CHUNK_SIZE; i++) {
+				if (denseChunks[chunk][i] != 0)
+					addSparse((chunk << CHUNK_BITS) | i, denseChunks[chunk][i]);
+			}
+			denseChunks[chunk] = null;
+		}
+		assert numVertices == vertices;
+	}
+
+	private void addSparse(int vertexId, int count) {
+		int mask = keys.length - 1;
+		int hash = vertexId * 0x9e3779b9;
+		int slot = (hash ^ hash >>> 16) & mask;
+		while (counts[slot] != 0 && keys[slot] != vertexId) {
+			slot = (slot + 1) & mask;
+		}
+		if (counts[slot] == 0) {
+			keys[slot] = vertexId;
+			numVertices++;
+		}
+		counts[slot] += count;
+		if (numVertices * 2L > keys.length)
+			rehash();
+	}
+
+	private void rehash() {
+		int[] oldKeys = keys;
+		int[] oldCounts = counts;
+		keys = new int[oldKeys.length * 2];
+		counts = new int[oldKeys.length * 2];
+		numVertices = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldCounts[i] != 0)
+				addSparse(oldKeys[i], oldCounts[i]);
+		}
+	}
+
+	private long[] sortedEntries() {
+		if (sortedEntries == null) {
+			long[] entries = new long[numVertices];
+			int n = 0;
+			for (int i = 0; i < keys.length; i++) {
+				if (counts[i] != 0)
+					entries[n++] = ((long) keys[i] << 32) | (counts[i] & 0xffffffffL);
+			}
+			Arrays.sort(entries);
+			sortedEntries = entries;
+		}
+		return sortedEntries;
+	}
+
+	private static int entryVertex(long entry) {
+		return (int) (entry >>> 32);
+	}
+
+}
@@ -0,0 +1,431 @@
+package edu.uci.ics.cs.graspan.preproc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import edu.uci.ics.cs.graspan.computationM.GrammarChecker;
+import edu.uci.ics.cs.graspan.support.GraspanLogger;
+
+/**
+ * Parses a text edge list, with one "src TAB dst [TAB label]" edge per line,
+ * on several threads. The file is cut into blocks that end at newlines; each
+ * block is mapped and its digits are parsed straight from the mapped bytes by
+ * a thread of its own. The parsed blocks are handed to a Handler on the
+ * calling thread in file order, so edges are seen in the order of the file,
+ * and labels are turned into grammar symbols in that order too, as
+ * GrammarChecker numbers new labels as they are first seen.
+ *
+ * A line that is not two integers and, if labels are parsed, a label is
+ * skipped and reported; blank lines are skipped.
+ *
+ * The columns of a block grow as its edges are parsed. Blocks are made small
+ * enough, and few enough are parsed ahead of the handler, that the blocks in
+ * flight fit in PARSE_HEAP_FRACTION of the heap even if every line is as
+ * short as a line can be.
+ */
+public class EdgeListParser {
+	private static final Logger logger = GraspanLogger.getLogger("EdgeListParser");
+
+	// the largest and the smallest size of a block, in bytes
+	private static final int BLOCK_SIZE = 1 << 26;
+	private static final int MIN_BLOCK_SIZE = 1 << 20;
+
+	// the share of the heap that can be taken by the columns of the blocks
+	// parsed ahead of the handler
+	private static final double PARSE_HEAP_FRACTION = 0.125;
+
+	// the number of edges the columns of a block start with
+	private static final int INITIAL_BLOCK_CAPACITY = 1 << 12;
+
+	// how far past a block boundary to look for the end of a line at a time
+	private static final int SCAN_SIZE = 1 << 12;
+
+	// malformed lines reported in full, per block
+	private static final int MAX_REPORTED_LINES = 10;
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	/**
+	 * Receives the edges of the file one block at a time.
+	 */
+	public interface Handler {
+		void handle(Block block) throws IOException;
+	}
+
+	/**
+	 * The edges of one block of the file. The first numEdges entries of srcs,
+	 * dsts and vals are valid.
+	 */
+	public static class Block {
+		public int[] srcs;
+		public int[] dsts;
+		public byte[] vals;
+		public int numEdges;
+
+		// the most edges the block can have
+		final int maxEdges;
+
+		// number of lines of the block, and the block-local numbers and the
+		// text of the first malformed ones
+		int numLines;
+		int numMalformed;
+		final List<Integer> malformedLines = new ArrayList<Integer>();
+		final List<String> malformedText = new ArrayList<String>();
+
+		// the labels of the block in the order they were first seen; vals
+		// holds indexes into this list until the block is handed over
+		final List<byte[]> labels = new ArrayList<byte[]>();
+
+		Block(int maxEdges) {
+			this.maxEdges = maxEdges;
+			int capacity = Math.min(INITIAL_BLOCK_CAPACITY, maxEdges);
+			srcs = new int[capacity];
+			dsts = new int[capacity];
+			vals = new byte[capacity];
+		}
+	}
+
+	private final File file;
+	private final int numThreads;
+	private final int idOffset;
+	private final boolean hasEdgeVals;
+
+	// the size of the blocks, and the number of blocks parsed ahead of the
+	// handler
+	private final int blockSize;
+	private final int maxPending;
+
+	private long numMalformed;
+
+	/**
+	 * @param file
+	 * @param numThreads
+	 * @param idOffset
+	 *            - added to every vertex id
+	 * @param hasEdgeVals
+	 *            - whether lines have labels; edges get label 0 otherwise
+	 */
+	public EdgeListParser(File file, int numThreads, int idOffset, boolean hasEdgeVals) {
+		this.file = file;
+		this.numThreads = Math.max(1, numThreads);
+		this.idOffset = idOffset;
+		this.hasEdgeVals = hasEdgeVals;
+
+		long parseMemory = (long) (Runtime.getRuntime().maxMemory() * PARSE_HEAP_FRACTION);
+		long size = BLOCK_SIZE;
+		while (size > MIN_BLOCK_SIZE && 2 * this.numThreads * maxBlockMemory(size) > parseMemory) {
+			size /= 2;
+		}
+		this.blockSize = (int) size;
+		this.maxPending = (int) Math.max(1, Math.min(2 * this.numThreads, parseMemory / maxBlockMemory(size)));
+	}
+
+	/**
+	 * Returns the most memory the columns of a block of size bytes can take,
+	 * with edges of 4 bytes: two digits, a tab and a newline.
+	 */
+	private static long maxBlockMemory(long size) {
+		return (size / 4 + 1) * (4 + 4 + 1);
+	}
+
+	/**
+	 * Returns the number of lines skipped as malformed by the last parse().
+	 */
+	public long getNumMalformed() {
+		return numMalformed;
+	}
+
+	/**
+	 * Parses the file, handing its blocks to handler in file order.
+	 *
+	 * @param handler
+	 * @throws IOException
+	 */
+	public void parse(Handler handler) throws IOException {
+		numMalformed = 0;
+		FileInputStream in = new FileInputStream(file);
+		ExecutorService parsers = Executors.newFixedThreadPool(numThreads);
+		try {
+			final FileChannel channel = in.getChannel();
+			long[] bounds = blockBounds(channel, blockSize);
+
+			// keep up to two blocks per thread parsed ahead of the handler,
+			// as many as fit in the memory for them
+			ArrayDeque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+			int next = 0;
+			long lineNo = 0;
+			while (next < bounds.length - 1 || !pending.isEmpty()) {
+				while (next < bounds.length - 1 && pending.size() < maxPending) {
+					final long start = bounds[next];
+					final long end = bounds[next + 1];
+					pending.add(parsers.submit(new Callable<Block>() {
+						public Block call() throws IOException {
+							return parseBlock(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+						}
+					}));
+					next++;
+				}
+				Block block = await(pending.poll());
+				for (int i = 0; i < block.malformedLines.size(); i++) {
+					logger.info("ERROR: malformed edge at line # " + (lineNo + block.malformedLines.get(i)) + " : "
+							+ block.malformedText.get(i));
+				}
+				numMalformed += block.numMalformed;
+				lineNo += block.numLines;
+				resolveLabels(block);
+				handler.handle(block);
+			}
+		} finally {
+			parsers.shutdownNow();
+			in.close();
+		}
+		if (numMalformed > 0) {
+			logger.info("Skipped " + numMalformed + " malformed lines of " + file);
+		}
+	}
+
+	/**
+	 * Cuts the file into blocks of about blockSize bytes, each ending just
+	 * after a newline or at the end of the file.
+	 */
+	private static long[] blockBounds(FileChannel channel, int blockSize) throws IOException {
+		long size = channel.size();
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		ByteBuffer scan = ByteBuffer.allocate(SCAN_SIZE);
+		long pos = blockSize;
+		while (pos < size) {
+			// move pos just past the next newline
+			long lineEnd = -1;
+			long scanPos = pos;
+			while (lineEnd == -1 && scanPos < size) {
+				scan.clear();
+				int n = channel.read(scan, scanPos);
+				if (n <= 0)
+					break;
+				for (int i = 0; i < n; i++) {
+					if (scan.get(i) == '\n') {
+						lineEnd = scanPos + i + 1;
+						break;
+					}
+				}
+				scanPos += n;
+			}
+			if (lineEnd == -1 || lineEnd >= size)
+				break;
+			bounds.add(lineEnd);
+			pos = lineEnd + blockSize;
+		}
+		bounds.add(size);
+		long[] arr = new long[bounds.size()];
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = bounds.get(i);
+		}
+		return arr;
+	}
+
+	private Block parseBlock(MappedByteBuffer buf) throws IOException {
+		int limit = buf.limit();
+
+		// an edge takes at least 4 bytes: two digits, a tab and a newline
+		Block block = new Block(limit / 4 + 1);
+		long[] value = new long[1];
+		int lineStart = 0;
+		while (lineStart < limit) {
+			int lineEnd = lineStart;
+			while (lineEnd < limit && buf.get(lineEnd) != '\n') {
+				lineEnd++;
+			}
+			block.numLines++;
+			parseLine(buf, lineStart, lineEnd, block, value);
+			lineStart = lineEnd + 1;
+		}
+		return block;
+	}
+
+	/**
+	 * Parses the line [start, end) into the next edge of the block.
+	 */
+	private void parseLine(ByteBuffer buf, int start, int end, Block block, long[] value) throws IOException {
+		// drop a carriage return and find out if the line is blank
+		int trimmedEnd = end;
+		while (trimmedEnd > start && buf.get(trimmedEnd - 1) <= ' ') {
+			trimmedEnd--;
+		}
+		if (trimmedEnd == start)
+			return;
+
+		long src = 0, dst = 0;
+		int pos = start;
+		int srcEnd = parseInt(buf, pos, end, value);
+		if (srcEnd != -1 && srcEnd < end && buf.get(srcEnd) == '\t') {
+			src = value[0];
+			pos = srcEnd + 1;
+			int dstEnd = parseInt(buf, pos, end, value);
+			if (dstEnd != -1) {
+				dst = value[0];
+				if (!hasEdgeVals && (dstEnd == trimmedEnd || dstEnd < end && buf.get(dstEnd) == '\t')) {
+					addEdge(block, src, dst, 0);
+					return;
+				}
+				if (hasEdgeVals && dstEnd < end && buf.get(dstEnd) == '\t') {
+					int label = labelIndex(buf, dstEnd + 1, end, block);
+					if (label != -1) {
+						addEdge(block, src, dst, label);
+						return;
+					}
+				}
+			}
+		}
+
+		block.numMalformed++;
+		if (block.malformedLines.size() < MAX_REPORTED_LINES) {
+			byte[] text = new byte[trimmedEnd - start];
+			for (int i = 0; i < text.length; i++) {
+				text[i] = buf.get(start + i);
+			}
+			block.malformedLines.add(block.numLines);
+			block.malformedText.add(new String(text, ASCII));
+		}
+	}
+
+	private static void addEdge(Block block, long src, long dst, int label) throws IOException {
+		if (block.numEdges == block.srcs.length) {
+			if (block.numEdges == block.maxEdges)
+				throw new IOException("Block overflow");
+			int newLength = (int) Math.min(2L * block.srcs.length, block.maxEdges);
+			block.srcs = Arrays.copyOf(block.srcs, newLength);
+			block.dsts = Arrays.copyOf(block.dsts, newLength);
+			block.vals = Arrays.copyOf(block.vals, newLength);
+		}
+		block.srcs[block.numEdges] = (int) src;
+		block.dsts[block.numEdges] = (int) dst;
+		block.vals[block.numEdges] = (byte) label;
+		block.numEdges++;
+	}
+
+	/**
+	 * Parses an optionally signed decimal integer starting at pos into
+	 * value[0], adding the id offset.
+	 *
+	 * @return the position after the integer, or -1 if there is none or it
+	 *         does not fit an int
+	 */
+	private int parseInt(ByteBuffer buf, int pos, int end, long[] value) {
+		boolean negative = false;
+		if (pos < end && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+			negative = buf.get(pos) == '-';
+			pos++;
+		}
+		int digitsStart = pos;
+		long v = 0;
+		while (pos < end) {
+			int d = buf.get(pos) - '0';
+			if (d < 0 || d > 9)
+				break;
+			v = v * 10 + d;
+			if (v > (long) Integer.MAX_VALUE + 1)
+				return -1;
+			pos++;
+		}
+		if (pos == digitsStart)
+			return -1;
+		if (negative)
+			v = -v;
+		if (v > Integer.MAX_VALUE || v < Integer.MIN_VALUE)
+			return -1;
+		v += idOffset;
+		if (v > Integer.MAX_VALUE)
+			return -1;
+		value[0] = v;
+		return pos;
+	}
+
+	/**
+	 * Returns the index of the label in the field starting at pos among the
+	 * labels of the block, adding it if it is new. The field ends at the next
+	 * tab or at end, and is trimmed.
+	 *
+	 * @return -1 if the field is blank
+	 */
+	private static int labelIndex(ByteBuffer buf, int pos, int end, Block block) throws IOException {
+		int fieldEnd = pos;
+		while (fieldEnd < end && buf.get(fieldEnd) != '\t') {
+			fieldEnd++;
+		}
+		while (pos < fieldEnd && buf.get(pos) <= ' ') {
+			pos++;
+		}
+		while (fieldEnd > pos && buf.get(fieldEnd - 1) <= ' ') {
+			fieldEnd--;
+		}
+		int len = fieldEnd - pos;
+		if (len == 0)
+			return -1;
+
+		List<byte[]> labels = block.labels;
+		for (int i = labels.size() - 1; i >= 0; i--) {
+			byte[] label = labels.get(i);
+			if (label.length != len)
+				continue;
+			int k = 0;
+			while (k < len && label[k] == buf.get(pos + k)) {
+				k++;
+			}
+			if (k == len)
+				return i;
+		}
+		if (labels.size() == 256)
+			throw new IOException("More than 256 edge labels in a block");
+		byte[] label = new byte[len];
+		for (int k = 0; k < len; k++) {
+			label[k] = buf.get(pos + k);
+		}
+		labels.add(label);
+		return labels.size() - 1;
+	}
+
+	/**
+	 * Replaces the label indexes of a block with grammar symbols.
+	 */
+	private void resolveLabels(Block block) {
+		if (!hasEdgeVals)
+			return;
+		byte[] symbols = new byte[block.labels.size()];
+		for (int i = 0; i < symbols.length; i++) {
+			symbols[i] = GrammarChecker.getValue(new String(block.labels.get(i), ASCII));
+		}
+		for (int i = 0; i < block.numEdges; i++) {
+			block.vals[i] = symbols[block.vals[i] & 0xFF];
+		}
+	}
+
+	private static Block await(Future<Block> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while parsing", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Failed to parse", e.getCause());
+		}
+	}
+
+}
@@ -0,0 +1,174 @@
+package edu.uci.ics.cs.graspan.preproc;
+
+import java.util.List;
+
+import edu.uci.ics.cs.graspan.computationM.GrammarChecker;
+
+/**
+ * Cuts the vertices of a graph into intervals by an estimate of the work of
+ * their edges rather than by their number. An edge whose label is taken by a
+ * rule of the grammar costs PRODUCTIVE_EDGE_WEIGHT edges, as the new edges of
+ * the closure come from such edges; any other edge costs one.
+ *
+ * Each cut is placed within CUT_SLACK of the average partition cost from the
+ * cost it would be balanced at, where the fewest edges with a label starting
+ * a rule of length 2 cross it. Those are the edges the computation follows to
+ * the rows of their destinations, so the fewer of them cross the intervals,
+ * the fewer pairs of partitions have to be loaded together.
+ *
+ * The edges are counted during the first scan of the graph, with their labels
+ * as grammar symbols, in addition to the degrees of the vertices.
+ */
+public class LabelAwarePartitioner {
+
+	// the cost of an edge with a label of the rules, in edges
+	static final int PRODUCTIVE_EDGE_WEIGHT = 4;
+
+	// how far a cut may be moved from its balanced cost, as a share of the
+	// average partition cost
+	static final double CUT_SLACK = 0.1;
+
+	// the out-degrees of the vertices counting only edges with a label of
+	// the rules
+	private final DegreeCounter productiveDegs;
+
+	// the edges with a label that starts a rule of length 2, counted at the
+	// smaller and at the larger of their source and destination; the edges
+	// crossing a cut after vertex v are those counted at a start up to v and
+	// not at an end up to v
+	private final DegreeCounter spanStarts;
+	private final DegreeCounter spanEnds;
+
+	/**
+	 * @param maxDenseMemory
+	 *            - the memory, in bytes, each of the three counters of the
+	 *            partitioner can take for dense counts
+	 */
+	public LabelAwarePartitioner(long maxDenseMemory) {
+		this.productiveDegs = new DegreeCounter(maxDenseMemory);
+		this.spanStarts = new DegreeCounter(maxDenseMemory);
+		this.spanEnds = new DegreeCounter(maxDenseMemory);
+	}
+
+	public void addEdge(int src, int dst, byte val) {
+		if (!GrammarChecker.isInRules(val))
+			return;
+		productiveDegs.increment(src);
+		if (src != dst && GrammarChecker.hasL2Rules(val)) {
+			spanStarts.increment(Math.min(src, dst));
+			spanEnds.increment(Math.max(src, dst));
+		}
+	}
+
+	/**
+	 * Counts the first n edges of the columns.
+	 *
+	 * @param srcs
+	 * @param dsts
+	 * @param vals
+	 * @param n
+	 */
+	public void addEdges(int[] srcs, int[] dsts, byte[] vals, int n) {
+		for (int i = 0; i < n; i++) {
+			addEdge(srcs[i], dsts[i], vals[i]);
+		}
+	}
+
+	/**
+	 * Cuts the vertices of outDegs into up to numParts intervals, fewer only
+	 * when there are fewer vertices.
+	 *
+	 * @param outDegs
+	 * @param numParts
+	 * @param intervalIDs
+	 *            - receives the last vertex of each interval
+	 * @param intervalECounts
+	 *            - receives the number of edges of each interval
+	 */
+	public void cut(DegreeCounter outDegs, int numParts, List<Integer> intervalIDs, List<Long> intervalECounts) {
+		int numVertices = outDegs.getNumVertices();
+		long totalCost = outDegs.getNumEdges() + (PRODUCTIVE_EDGE_WEIGHT - 1) * productiveDegs.getNumEdges();
+		double avgCost = (double) totalCost / numParts;
+		double slack = avgCost * CUT_SLACK;
+
+		RunningSum productive = new RunningSum(productiveDegs);
+		RunningSum starts = new RunningSum(spanStarts);
+		RunningSum ends = new RunningSum(spanEnds);
+
+		// the boundary being placed, k of numParts - 1, and the best cut found
+		// for it so far
+		int k = 1;
+		double target = avgCost;
+		int best = -1;
+		long bestCrossing = 0, bestEdges = 0;
+		double bestDist = 0;
+
+		long edges = 0, cutEdges = 0;
+		int idx = 0;
+		DegreeCounter.Cursor it = outDegs.cursor();
+		while (it.next()) {
+			int v = it.vertex();
+			edges += it.degree();
+			long cost = edges + (PRODUCTIVE_EDGE_WEIGHT - 1) * productive.upTo(v);
+			long crossing = starts.upTo(v) - ends.upTo(v);
+
+			// a cut must leave a vertex for each interval after it
+			while (k < numParts && numVertices - 1 - idx >= numParts - k) {
+				boolean lastChance = numVertices - 1 - idx == numParts - k;
+				if (cost < target - slack && !lastChance)
+					break;
+				if (best == -1 || cost <= target + slack) {
+					double dist = Math.abs(cost - target);
+					if (best == -1 || crossing < bestCrossing || (crossing == bestCrossing && dist < bestDist)) {
+						best = v;
+						bestCrossing = crossing;
+						bestEdges = edges;
+						bestDist = dist;
+					}
+				}
+				if (cost < target + slack && !lastChance)
+					break;
+
+				intervalIDs.add(best);
+				intervalECounts.add(bestEdges - cutEdges);
+				cutEdges = bestEdges;
+				k++;
+				target = k * avgCost;
+				boolean cutHere = best == v;
+				best = -1;
+				// unless the cut is at v, the next one may be placed at v
+				if (cutHere)
+					break;
+			}
+			idx++;
+		}
+		if (numVertices > 0) {
+			intervalIDs.add(outDegs.getLastVertex());
+			intervalECounts.add(edges - cutEdges);
+		}
+	}
+
+	/**
+	 * The sum of the counts of a counter up to a vertex, for increasing
+	 * vertices.
+	 */
+	private static class RunningSum {
+		private final DegreeCounter.Cursor cursor;
+		private boolean pending;
+		private long sum;
+
+		RunningSum(DegreeCounter counter) {
+			this.cursor = counter.cursor();
+			this.pending = cursor.next();
+		}
+
+		long upTo(int vertexId) {
+			while (pending && cursor.vertex() <= vertexId) {
+				sum += cursor.degree();
+				pending = cursor.next();
+			}
+			return sum;
+		}
+	}
+
+}
@@ -1,10 +1,8 @@
 package edu.uci.ics.cs.graspan.preproc;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -13,6 +11,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -25,6 +24,9 @@ import edu.uci.ics.cs.graspan.datastructures.Vertex;
 import edu.uci.ics.cs.graspan.dispatcher.GlobalParams;
 import edu.uci.ics.cs.graspan.scheduler.SchedulerInfo;
 import edu.uci.ics.cs.graspan.support.GraspanLogger;
+import edu.uci.ics.cs.graspan.support.PartitionFileReader;
+import edu.uci.ics.cs.graspan.support.PartitionFileWriter;
+import edu.uci.ics.cs.graspan.support.PartitionManifest;
 import edu.uci.ics.cs.graspan.support.Utilities;
 
 /**
@@ -99,11 +101,11 @@ public class PartERuleAdderAndSorter {
 		logger.info("Loaded " + baseFilename + ".partition." + partId);
 		
 		
-		addEdgesforERules();
+		addEdgesforERules(vertices);
 		logger.info("Added new edges for ERules for " + baseFilename + ".partition." + partId);
 		
 //		sortPart(partId, loadedPartOutDegs, partEdges, partEdgeVals);
-		sort();
+		sort(vertices);
 		logger.info("Sorted " + baseFilename + ".partition." + partId);
 
 		storePart_ActualEdges();
@@ -118,9 +120,16 @@ public class PartERuleAdderAndSorter {
 		
 	}
 
-	private void addEdgesforERules() {
+	/**
+	 * Adds the edges for the eRules to the rows of vertices.
+	 * 
+	 * @param vertices
+	 * @return the number of edges added
+	 */
+	private static long addEdgesforERules(Vertex[] vertices) {
 		// add edges corresponding to epsilon rules.
 		Set<Byte> eRules = GrammarChecker.eRules;
+		long numAdded = 0;
 		
 		if (eRules.size() != 0) {// If no eRules exist in grammar skip this
 			int srcId = 0;
@@ -135,14 +144,16 @@ public class PartERuleAdderAndSorter {
 
 				// find values already existing for this source row, and remove
 				// those values from newValsforSrc
-				removeExistingERuleVals(srcId, i, newValsforSrc);
+				removeExistingERuleVals(vertices, srcId, i, newValsforSrc);
 
-				addNewEdges(srcId, i, newValsforSrc);
+				addNewEdges(vertices, srcId, i, newValsforSrc);
+				numAdded += newValsforSrc.size();
 			}
 		}
+		return numAdded;
 	}
 
-	private void addNewEdges(int srcId, int i, HashSet<Byte> newValsforSrc) {
+	private static void addNewEdges(Vertex[] vertices, int srcId, int i, HashSet<Byte> newValsforSrc) {
 		int[] tempEdgs;
 		byte[] tempVals;
 		//add the new edges to tempEdgs 
@@ -168,7 +179,7 @@ public class PartERuleAdderAndSorter {
 		vertices[i].setOutEdgeValues(tempVals);
 	}
 
-	private void removeExistingERuleVals(int srcId, int i, HashSet<Byte> newValsforSrc) {
+	private static void removeExistingERuleVals(Vertex[] vertices, int srcId, int i, HashSet<Byte> newValsforSrc) {
 		int destId;
 //		for (int j = 0; j < vertices[i].getOutEdges().length; j++) {
 		for (int j = 0; j < vertices[i].getNumOutEdges(); j++) {
@@ -179,7 +190,7 @@ public class PartERuleAdderAndSorter {
 		}
 	}
 
-	private void sort(){
+	private static void sort(Vertex[] vertices){
 //	private void sortPart(int partId, int[][] loadedPartOutDegs, int[][][] partEdges, byte[][][] partEdgeVals) {
 //		for (int j = 0; j < PartitionQuerier.getNumUniqueSrcs(partId); j++) {
 //			int low = 0;
@@ -187,6 +198,11 @@ public class PartERuleAdderAndSorter {
 //			Utilities.quickSort(partEdges[0][j], partEdgeVals[0][j], low, high);
 //		}
 		
+		sortRows(vertices);
+		logger.info("Sorted loaded partition.");
+	}
+
+	private static void sortRows(Vertex[] vertices) {
 		for (int j = 0 ; j < vertices.length ; j++) {
 			int low = 0;
 //			int high = partOutDegs[0][j] - 1;
@@ -194,7 +210,144 @@ public class PartERuleAdderAndSorter {
 			int high = vertices[j].getNumOutEdges()-1;
 			Utilities.quickSort(vertices[j].getOutEdges(), vertices[j].getOutEdgeValues(), low, high);
 		}
-		logger.info("Sorted loaded partition.");
+	}
+
+	/**
+	 * Adds the edges for the eRules to a CSR partition and sorts it, then
+	 * writes it back over its file. Unlike loadAndProcessParts(), this only
+	 * touches the given partition, so several partitions can be processed at
+	 * the same time.
+	 * 
+	 * @param baseFilename
+	 * @param partId
+	 * @param outDegs
+	 *            - receives the degrees of the processed partition
+	 * @return the number of edges added
+	 * @throws IOException
+	 */
+	public static long addERulesAndSortInPlace(String baseFilename, int partId, int[] outDegs) throws IOException {
+		String fileName = baseFilename + ".partition." + partId;
+		int firstSrc = PartitionQuerier.getFirstSrc(partId);
+		int numSrcs = PartitionQuerier.getNumUniqueSrcs(partId);
+
+		int[] partOutDegs = new int[numSrcs];
+		if (!PartitionFileReader.readOutDegrees(fileName, firstSrc, partOutDegs))
+			throw new IOException(fileName + " is not a CSR partition");
+
+		int[][] partEdges = new int[numSrcs][];
+		byte[][] partEdgeVals = new byte[numSrcs][];
+		int[] lastAddedEdgePos = new int[numSrcs];
+		Vertex[] partVertices = new Vertex[numSrcs];
+		for (int j = 0; j < numSrcs; j++) {
+			partEdges[j] = new int[partOutDegs[j]];
+			partEdgeVals[j] = new byte[partOutDegs[j]];
+			lastAddedEdgePos[j] = -1;
+			partVertices[j] = new Vertex(j, firstSrc + j, partEdges[j], partEdgeVals[j]);
+		}
+		PartitionFileReader.readPartition(fileName, firstSrc, partEdges, partEdgeVals, lastAddedEdgePos);
+
+		long numAdded = addEdgesforERules(partVertices);
+		sort(partVertices);
+
+		for (int j = 0; j < numSrcs; j++) {
+			partEdges[j] = partVertices[j].getOutEdges();
+			partEdgeVals[j] = partVertices[j].getOutEdgeValues();
+			outDegs[j] = partEdges[j].length;
+		}
+		PartitionFileWriter.writePartition(fileName, firstSrc, partEdges, partEdgeVals);
+		return numAdded;
+	}
+
+	/**
+	 * Writes a CSR partition from its runs with the edges for the eRules
+	 * added and its rows sorted, like addERulesAndSortInPlace(), holding one
+	 * row in memory at a time. The runs are merged twice: first for the
+	 * degrees of the processed rows, which lay out the partition file, then
+	 * for the rows themselves. The runs are deleted afterwards.
+	 * 
+	 * @param runs
+	 * @param baseFilename
+	 * @param partId
+	 * @param outDegs
+	 *            - receives the degrees of the processed partition
+	 * @return the number of edges added
+	 * @throws IOException
+	 */
+	public static long addERulesAndSortFromRuns(PartitionRuns runs, String baseFilename, int partId,
+			final int[] outDegs) throws IOException {
+		final int firstSrc = PartitionQuerier.getFirstSrc(partId);
+		int numSrcs = PartitionQuerier.getNumUniqueSrcs(partId);
+
+		ERuleRowHandler degrees = new ERuleRowHandler(firstSrc, numSrcs, false) {
+			void handleProcessedRow(int src, int[] dsts, byte[] vals) {
+				outDegs[src - firstSrc] = dsts.length;
+			}
+		};
+		runs.merge(partId, degrees);
+		degrees.finish();
+
+		final PartitionFileWriter partWriter = new PartitionFileWriter(baseFilename + ".partition." + partId, firstSrc,
+				outDegs);
+		try {
+			ERuleRowHandler rows = new ERuleRowHandler(firstSrc, numSrcs, true) {
+				void handleProcessedRow(int src, int[] dsts, byte[] vals) throws IOException {
+					partWriter.writeEdges(src, dsts, vals, dsts.length);
+				}
+			};
+			runs.merge(partId, rows);
+			rows.finish();
+		} finally {
+			partWriter.close();
+		}
+		runs.delete(partId);
+		return degrees.numAdded;
+	}
+
+	/**
+	 * Adds the edges for the eRules to the rows of a partition merged from its
+	 * runs, including the rows of the vertices without edges, which the runs
+	 * skip, and hands them over in the order of their sources.
+	 */
+	private static abstract class ERuleRowHandler implements PartitionRuns.RowHandler {
+		private final int lastSrc;
+		private final boolean sortsRows;
+		private int nextSrc;
+		long numAdded;
+
+		ERuleRowHandler(int firstSrc, int numSrcs, boolean sortsRows) {
+			this.nextSrc = firstSrc;
+			this.lastSrc = firstSrc + numSrcs - 1;
+			this.sortsRows = sortsRows;
+		}
+
+		public void handleRow(int src, int[] dsts, byte[] vals, int n) throws IOException {
+			while (nextSrc < src) {
+				processRow(nextSrc++, new int[0], new byte[0]);
+			}
+			processRow(src, Arrays.copyOf(dsts, n), Arrays.copyOf(vals, n));
+			nextSrc = src + 1;
+		}
+
+		/**
+		 * Handles the rows after the last source of the runs.
+		 * 
+		 * @throws IOException
+		 */
+		void finish() throws IOException {
+			while (nextSrc <= lastSrc) {
+				processRow(nextSrc++, new int[0], new byte[0]);
+			}
+		}
+
+		private void processRow(int src, int[] dsts, byte[] vals) throws IOException {
+			Vertex[] row = { new Vertex(0, src, dsts, vals) };
+			numAdded += addEdgesforERules(row);
+			if (sortsRows)
+				sortRows(row);
+			handleProcessedRow(src, row[0].getOutEdges(), row[0].getOutEdgeValues());
+		}
+
+		abstract void handleProcessedRow(int src, int[] dsts, byte[] vals) throws IOException;
 	}
 
 	/**
@@ -205,6 +358,11 @@ public class PartERuleAdderAndSorter {
 	 */
 	private void readPartAllocTable() throws NumberFormatException, IOException {
 
+		if (PartitionManifest.exists(baseFilename)) {
+			AllPartitions.setPartAllocTab(PartitionManifest.read(baseFilename).getPartAllocTable());
+			return;
+		}
+
 		// initialize partAllocTable variable
 		int partAllocTable[][] = new int[numParts][2];
 
@@ -273,6 +431,12 @@ public class PartERuleAdderAndSorter {
 
 		partOutDegs[0] = new int[PartitionQuerier.getNumUniqueSrcs(partId)];
 
+		// a CSR partition carries its degrees
+		if (PartitionFileReader.readOutDegrees(baseFilename + ".partition." + partId,
+				PartitionQuerier.getFirstSrc(partId), partOutDegs[0])) {
+			return;
+		}
+
 		/*
 		 * Scan degrees file of partition
 		 */
@@ -338,9 +502,6 @@ public class PartERuleAdderAndSorter {
 		int[][][] partEdges = LoadedPartitions.getLoadedPartEdges();
 		byte[][][] partEdgeVals = LoadedPartitions.getLoadedPartEdgeVals();
 
-		DataInputStream partInStrm = new DataInputStream(
-				new BufferedInputStream(new FileInputStream(baseFilename + ".partition." + partId)));
-
 		// stores the position of last filled edge (destV) and the edge
 		// val in partEdges and partEdgeVals for a source vertex for a partition
 		int[] lastAddedEdgePos = new int[PartitionQuerier.getNumUniqueSrcs(partId)];
@@ -348,40 +509,9 @@ public class PartERuleAdderAndSorter {
 			lastAddedEdgePos[j] = -1;
 		}
 
-		while (partInStrm.available() != 0) {
-			{
-				try {
-					// get srcVId
-					int src = partInStrm.readInt();
-
-					// get corresponding arraySrcVId of srcVId
-					int arraySrcVId = src - PartitionQuerier.getFirstSrc(partId);
-
-					// get count (number of destVs from srcV in the
-					// current list of the partition file)
-					int count = partInStrm.readInt();
-
-					// get dstVId & edgeVal and store them in the corresponding
-					// arrays
-					for (int j = 0; j < count; j++) {
-
-						// dstVId
-						partEdges[0][arraySrcVId][lastAddedEdgePos[arraySrcVId] + 1] = partInStrm.readInt();
-
-						// edgeVal
-						partEdgeVals[0][arraySrcVId][lastAddedEdgePos[arraySrcVId] + 1] = partInStrm.readByte();
-
-						// increment the last added position for this row
-						lastAddedEdgePos[arraySrcVId]++;
-					}
-
-				} catch (Exception exception) {
-					break;
-				}
-			}
-		}
-
-		partInStrm.close();
+		// get dstVId & edgeVal of each srcVId and store them in the corresponding arrays
+		PartitionFileReader.readPartition(baseFilename + ".partition." + partId, PartitionQuerier.getFirstSrc(partId),
+				partEdges[0], partEdgeVals[0], lastAddedEdgePos);
 
 	}
 
@@ -449,6 +579,18 @@ private void storePart_ActualEdges() throws IOException {
 
 		logger.info("Updating " + GlobalParams.baseFilename + ".partition." + partitionId);
 
+		if (GlobalParams.useCsrPartitionFormat()) {
+			int[][] edgs = new int[vertices.length][];
+			byte[][] vals = new byte[vertices.length][];
+			for (int j = 0; j < vertices.length; j++) {
+				edgs[j] = vertices[j].getOutEdges();
+				vals[j] = vertices[j].getOutEdgeValues();
+			}
+			PartitionFileWriter.writePartition(GlobalParams.baseFilename + ".partition." + partitionId,
+					PartitionQuerier.getFirstSrc(partitionId), edgs, vals);
+			return;
+		}
+
 		// clear current file
 		DataOutputStream partOutStrm = new DataOutputStream(new BufferedOutputStream(
 				new FileOutputStream(GlobalParams.baseFilename + ".partition." + partitionId, false)));
@@ -493,7 +635,8 @@ private void storePart_ActualEdges() throws IOException {
 	}
 
 	/**
-	 * Stores degrees of a partition.
+	 * Stores degrees of a partition. Nothing is stored for CSR partitions,
+	 * which carry their degrees.
 	 * 
 	 * @param vertices
 	 * @param partitionId
@@ -501,6 +644,9 @@ private void storePart_ActualEdges() throws IOException {
 	 */
 	public static void storePartDegs(Vertex[] vertices, Integer partitionId) throws IOException {
 
+		if (GlobalParams.useCsrPartitionFormat())
+			return;
+
 		logger.info("Updating " + GlobalParams.baseFilename + ".partition." + partitionId + ".degrees");
 
 		// clear current degrees file
@@ -0,0 +1,147 @@
+package edu.uci.ics.cs.graspan.preproc;
+
+import java.util.Arrays;
+
+/**
+ * The edges of one partition waiting to be written, kept in three primitive
+ * columns: sources, destinations and edge values. The columns grow as edges
+ * are added, up to the capacity of the buffer.
+ */
+public class PartitionEdgeBuffer {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// bytes taken by one buffered edge
+	public static final int BYTES_PER_EDGE = 4 + 4 + 1;
+
+	private final int capacity;
+
+	private int[] srcs;
+	private int[] dsts;
+	private byte[] vals;
+	private int size;
+
+	// whether the sources were added in non-decreasing order
+	private boolean sorted = true;
+
+	/**
+	 * @param capacity
+	 *            - the number of edges the buffer can hold
+	 */
+	public PartitionEdgeBuffer(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		int initial = Math.min(INITIAL_CAPACITY, this.capacity);
+		srcs = new int[initial];
+		dsts = new int[initial];
+		vals = new byte[initial];
+	}
+
+	/**
+	 * Adds an edge; the buffer must not be full.
+	 *
+	 * @param src
+	 * @param dst
+	 * @param val
+	 */
+	public void add(int src, int dst, byte val) {
+		if (size == srcs.length) {
+			int newLength = (int) Math.min((long) srcs.length * 2, capacity);
+			srcs = Arrays.copyOf(srcs, newLength);
+			dsts = Arrays.copyOf(dsts, newLength);
+			vals = Arrays.copyOf(vals, newLength);
+		}
+		if (size > 0 && src < srcs[size - 1])
+			sorted = false;
+		srcs[size] = src;
+		dsts[size] = dst;
+		vals[size] = val;
+		size++;
+	}
+
+	public boolean isFull() {
+		return size == capacity;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Sorts the edges by source, keeping the edges of each source in the
+	 * order they were added.
+	 */
+	public void sortBySource() {
+		if (sorted)
+			return;
+
+		// the source above the position of the edge, so that the keys sort
+		// like the sources as signed ints, as the runs are merged
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = ((long) srcs[i] << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		int[] sortedDsts = new int[srcs.length];
+		byte[] sortedVals = new byte[srcs.length];
+		for (int i = 0; i < size; i++) {
+			int from = (int) keys[i];
+			srcs[i] = (int) (keys[i] >>> 32);
+			sortedDsts[i] = dsts[from];
+			sortedVals[i] = vals[from];
+		}
+		dsts = sortedDsts;
+		vals = sortedVals;
+		sorted = true;
+	}
+
+	/**
+	 * Returns the sources of the edges; the first size() are valid.
+	 */
+	public int[] getSrcs() {
+		return srcs;
+	}
+
+	/**
+	 * Returns the destinations of the edges; the first size() are valid.
+	 */
+	public int[] getDsts() {
+		return dsts;
+	}
+
+	/**
+	 * Returns the values of the edges; the first size() are valid.
+	 */
+	public byte[] getVals() {
+		return vals;
+	}
+
+	/**
+	 * Returns the end of the run of edges of the source at i, in a sorted
+	 * buffer.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public int runEnd(int i) {
+		int src = srcs[i];
+		int end = i + 1;
+		while (end < size && srcs[end] == src) {
+			end++;
+		}
+		return end;
+	}
+
+	/**
+	 * Empties the buffer, keeping its columns for the next edges.
+	 */
+	public void clear() {
+		size = 0;
+		sorted = true;
+	}
+
+}
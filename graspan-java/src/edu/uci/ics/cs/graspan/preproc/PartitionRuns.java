@@ -0,0 +1,324 @@
+package edu.uci.ics.cs.graspan.preproc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import edu.uci.ics.cs.graspan.support.GraspanLogger;
+
+/**
+ * The edges of the partitions of a graph written to disk as sorted runs, so
+ * that partitions larger than the memory can be generated. Each run holds
+ * the edges of one partition buffer, grouped by source like the rows of a v1
+ * partition file: srcVId (int), count (int), then count (destVId (int),
+ * edgeValue (byte)) pairs, the sources in increasing order and the edges of
+ * each source in the order they were added.
+ *
+ * merge() reads all the runs of a partition at once and hands over its rows
+ * in the order of their sources, each with the edges of its source from all
+ * the runs, still in the order they were added. At most MAX_FAN_IN runs are
+ * read at a time; the oldest runs of a partition with more runs are first
+ * merged into larger ones.
+ *
+ * The runs of different partitions can be merged at the same time, but the
+ * runs of one partition are only accessed by one thread at a time.
+ */
+public class PartitionRuns {
+
+	private static final Logger logger = GraspanLogger.getLogger("PartitionRuns");
+
+	// the number of runs read at the same time
+	static final int MAX_FAN_IN = 128;
+
+	private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+	private final String baseFilename;
+
+	// the run files of each partition, oldest first
+	private final List<List<File>> runs;
+
+	// the number of the next run file of each partition
+	private final int[] nextRunNumber;
+
+	/**
+	 * Takes the rows of a partition merged from its runs.
+	 */
+	public interface RowHandler {
+		/**
+		 * Handles the edges of a source, the first n of dsts and vals. The
+		 * arrays are reused for the next rows.
+		 *
+		 * @param src
+		 * @param dsts
+		 * @param vals
+		 * @param n
+		 * @throws IOException
+		 */
+		void handleRow(int src, int[] dsts, byte[] vals, int n) throws IOException;
+	}
+
+	/**
+	 * @param baseFilename
+	 *            - the graph of the partitions, the runs are written next to
+	 *            its partition files
+	 * @param numParts
+	 */
+	public PartitionRuns(String baseFilename, int numParts) {
+		this.baseFilename = baseFilename;
+		this.runs = new ArrayList<List<File>>(numParts);
+		for (int i = 0; i < numParts; i++) {
+			runs.add(new ArrayList<File>());
+		}
+		this.nextRunNumber = new int[numParts];
+	}
+
+	/**
+	 * Writes the edges of a partition buffer as a new run of the partition.
+	 * The buffer is sorted by source; it is left for the caller to clear.
+	 *
+	 * @param partId
+	 * @param buffer
+	 * @throws IOException
+	 */
+	public void writeRun(int partId, PartitionEdgeBuffer buffer) throws IOException {
+		if (buffer.isEmpty())
+			return;
+
+		buffer.sortBySource();
+		int[] srcs = buffer.getSrcs();
+		int[] dsts = buffer.getDsts();
+		byte[] vals = buffer.getVals();
+
+		File runFile = newRunFile(partId);
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(runFile), STREAM_BUFFER_SIZE));
+		try {
+			for (int start = 0, end; start < buffer.size(); start = end) {
+				end = buffer.runEnd(start);
+				writeRow(out, srcs[start], dsts, vals, start, end - start);
+			}
+		} finally {
+			out.close();
+		}
+		runs.get(partId).add(runFile);
+	}
+
+	public int getNumRuns(int partId) {
+		return runs.get(partId).size();
+	}
+
+	/**
+	 * Merges the runs of a partition, handing its rows to handler in the
+	 * order of their sources. The runs are kept until delete() is called.
+	 *
+	 * @param partId
+	 * @param handler
+	 * @throws IOException
+	 */
+	public void merge(int partId, RowHandler handler) throws IOException {
+		List<File> partRuns = runs.get(partId);
+		while (partRuns.size() > MAX_FAN_IN) {
+			// the merged run holds the oldest edges, so it goes first
+			List<File> oldest = new ArrayList<File>(partRuns.subList(0, MAX_FAN_IN));
+			File runFile = newRunFile(partId);
+			logger.info("Merging " + oldest.size() + " of the " + partRuns.size() + " runs of partition " + partId
+					+ " into " + runFile + "...");
+			final DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(runFile), STREAM_BUFFER_SIZE));
+			try {
+				mergeRuns(oldest, new RowHandler() {
+					public void handleRow(int src, int[] dsts, byte[] vals, int n) throws IOException {
+						writeRow(out, src, dsts, vals, 0, n);
+					}
+				});
+			} finally {
+				out.close();
+			}
+			partRuns.subList(0, MAX_FAN_IN).clear();
+			partRuns.add(0, runFile);
+			deleteFiles(oldest);
+		}
+		mergeRuns(partRuns, handler);
+	}
+
+	/**
+	 * Deletes the runs of a partition.
+	 *
+	 * @param partId
+	 * @throws IOException
+	 */
+	public void delete(int partId) throws IOException {
+		List<File> partRuns = runs.get(partId);
+		deleteFiles(partRuns);
+		partRuns.clear();
+	}
+
+	private File newRunFile(int partId) {
+		return new File(baseFilename + ".partition." + partId + ".run." + nextRunNumber[partId]++);
+	}
+
+	private static void writeRow(DataOutputStream out, int src, int[] dsts, byte[] vals, int off, int n)
+			throws IOException {
+		out.writeInt(src);
+		out.writeInt(n);
+		for (int i = off; i < off + n; i++) {
+			out.writeInt(dsts[i]);
+			out.writeByte(vals[i]);
+		}
+	}
+
+	private static void deleteFiles(List<File> files) throws IOException {
+		for (File file : files) {
+			if (!file.delete() && file.exists())
+				throw new IOException("Could not delete " + file);
+		}
+	}
+
+	/**
+	 * Merges runs by source with a heap of their readers. Among the rows of
+	 * the same source, the one of the oldest run comes first.
+	 *
+	 * @param files
+	 *            - the runs, oldest first
+	 * @param handler
+	 * @throws IOException
+	 */
+	private static void mergeRuns(List<File> files, RowHandler handler) throws IOException {
+		RunReader[] readers = new RunReader[files.size()];
+		try {
+			int[] heap = new int[readers.length];
+			int heapSize = 0;
+			for (int i = 0; i < readers.length; i++) {
+				readers[i] = new RunReader(files.get(i));
+				if (readers[i].nextRow()) {
+					heap[heapSize++] = i;
+					siftUp(readers, heap, heapSize - 1);
+				}
+			}
+
+			int[] dsts = new int[1024];
+			byte[] vals = new byte[1024];
+			while (heapSize > 0) {
+				int src = readers[heap[0]].src;
+				int n = 0;
+				while (heapSize > 0 && readers[heap[0]].src == src) {
+					RunReader reader = readers[heap[0]];
+					if (n + reader.count > dsts.length) {
+						int newLength = Math.max(n + reader.count, 2 * dsts.length);
+						dsts = Arrays.copyOf(dsts, newLength);
+						vals = Arrays.copyOf(vals, newLength);
+					}
+					System.arraycopy(reader.dsts, 0, dsts, n, reader.count);
+					System.arraycopy(reader.vals, 0, vals, n, reader.count);
+					n += reader.count;
+
+					if (!reader.nextRow()) {
+						heap[0] = heap[--heapSize];
+					}
+					siftDown(readers, heap, heapSize, 0);
+				}
+				handler.handleRow(src, dsts, vals, n);
+			}
+		} finally {
+			for (int i = 0; i < readers.length; i++) {
+				if (readers[i] != null)
+					readers[i].close();
+			}
+		}
+	}
+
+	private static boolean precedes(RunReader[] readers, int a, int b) {
+		return readers[a].src < readers[b].src || (readers[a].src == readers[b].src && a < b);
+	}
+
+	private static void siftUp(RunReader[] readers, int[] heap, int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!precedes(readers, heap[i], heap[parent]))
+				return;
+			swap(heap, i, parent);
+			i = parent;
+		}
+	}
+
+	private static void siftDown(RunReader[] readers, int[] heap, int heapSize, int i) {
+		while (true) {
+			int first = i;
+			for (int child = 2 * i + 1; child <= 2 * i + 2 && child < heapSize; child++) {
+				if (precedes(readers, heap[child], heap[first]))
+					first = child;
+			}
+			if (first == i)
+				return;
+			swap(heap, i, first);
+			i = first;
+		}
+	}
+
+	private static void swap(int[] heap, int i, int j) {
+		int tmp = heap[i];
+		heap[i] = heap[j];
+		heap[j] = tmp;
+	}
+
+	/**
+	 * Reads the rows of a run one at a time.
+	 */
+	private static class RunReader {
+		private final File file;
+		private final DataInputStream in;
+
+		// the bytes of the run not read yet
+		private long remaining;
+
+		int src;
+		int count;
+		int[] dsts = new int[16];
+		byte[] vals = new byte[16];
+
+		RunReader(File file) throws IOException {
+			this.file = file;
+			this.remaining = file.length();
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), STREAM_BUFFER_SIZE));
+		}
+
+		/**
+		 * Reads the next row.
+		 *
+		 * @return false at the end of the run
+		 * @throws IOException
+		 */
+		boolean nextRow() throws IOException {
+			if (remaining == 0)
+				return false;
+			src = in.readInt();
+			count = in.readInt();
+			remaining -= 8 + 5L * count;
+			if (count < 0 || remaining < 0)
+				throw new IOException("Corrupt run " + file);
+			if (count > dsts.length) {
+				dsts = new int[Math.max(count, 2 * dsts.length)];
+				vals = new byte[dsts.length];
+			}
+			for (int i = 0; i < count; i++) {
+				dsts[i] = in.readInt();
+				vals[i] = in.readByte();
+			}
+			return true;
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,225 @@
+package edu.uci.ics.cs.graspan.preproc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import edu.uci.ics.cs.graspan.datastructures.PartitionQuerier;
+import edu.uci.ics.cs.graspan.dispatcher.GlobalParams;
+import edu.uci.ics.cs.graspan.scheduler.SchedulerInfo;
+import edu.uci.ics.cs.graspan.support.GraspanLogger;
+import edu.uci.ics.cs.graspan.support.PartitionManifest;
+
+/**
+ * Preprocesses a graph in one go, in place of running PartGenClient,
+ * PartERuleAdderAndSorterClient and PartGenClient again on the eRulesAdded
+ * graph. The input graph is partitioned once, straight into the partitions of
+ * baseFilename.eRulesAdded; the edges for the eRules are then added to each
+ * partition and its rows sorted, several partitions at a time, and the
+ * partition sizes, edge destination counts and degrees are updated to match.
+ *
+ * The partitions keep the intervals the input graph was cut into, and the
+ * vertex ids are shifted only once when they start from 0.
+ *
+ * When GlobalParams.externalPartitionSort() is set, the partitions are not
+ * written by the partitioning; the edges for the eRules are added while each
+ * partition is merged from its runs instead, so no partition has to fit in
+ * memory.
+ */
+public class PreprocessingPipeline {
+
+	private static final Logger logger = GraspanLogger.getLogger("PreprocessingPipeline");
+
+	// the share of the heap that can be taken by the partitions being sorted
+	private static final double SORT_HEAP_FRACTION = 0.5;
+
+	// bytes taken by a loaded edge, and by a loaded vertex and its rows
+	private static final int BYTES_PER_EDGE = 4 + 1;
+	private static final int BYTES_PER_VERTEX = 96;
+
+	private final String baseFilename;
+	private final String outputFilename;
+
+	private int numParts;
+
+	/**
+	 * @param baseFilename
+	 *            - the input graph
+	 */
+	public PreprocessingPipeline(String baseFilename) {
+		this.baseFilename = baseFilename;
+		this.outputFilename = baseFilename + ".eRulesAdded";
+	}
+
+	public void run() throws IOException {
+		if (!GlobalParams.useCsrPartitionFormat())
+			throw new IOException("The preprocessing pipeline needs CSR partitions");
+
+		// partition the input graph
+		logger.info("Partitioning " + baseFilename + " into " + outputFilename + " partitions...");
+		long partStartTime = System.nanoTime();
+		Preprocessor partgenerator = new Preprocessor(outputFilename, GlobalParams.getNumParts());
+		partgenerator.setMergeRuns(false);
+		partgenerator.run();
+		numParts = GlobalParams.getNumParts();
+		logger.info("Total time to create partitions (nanoseconds): " + (System.nanoTime() - partStartTime));
+
+		// add the edges for the eRules and sort the partitions
+		long sortStartTime = System.nanoTime();
+		int[][] partDegs = new int[numParts][];
+		long[] numAdded = addERulesAndSort(partgenerator.getRuns(), partDegs);
+		logger.info("Total time to add eRule edges and sort partitions (nanoseconds): "
+				+ (System.nanoTime() - sortStartTime));
+
+		updateMetadata(numAdded);
+		saveDegrees(partDegs);
+	}
+
+	/**
+	 * Adds the edges for the eRules to each partition and sorts it, running as
+	 * many partitions at a time as there are threads and the heap can hold.
+	 * With runs, each partition is written from its runs; a merge only holds
+	 * a row and the degrees of its partition.
+	 *
+	 * @param runs
+	 *            - the runs of the partitions, or null if the partitions
+	 *            were written
+	 * @param partDegs
+	 *            - receives the degrees of each partition
+	 * @return the number of edges added to each partition
+	 * @throws IOException
+	 */
+	private long[] addERulesAndSort(final PartitionRuns runs, final int[][] partDegs) throws IOException {
+		long[][] partSizes = SchedulerInfo.getPartSizes();
+		long largestPart = 1;
+		for (int i = 0; i < numParts; i++) {
+			long partBytes = (runs == null ? partSizes[i][1] * BYTES_PER_EDGE : 0)
+					+ (long) PartitionQuerier.getNumUniqueSrcs(i) * BYTES_PER_VERTEX;
+			largestPart = Math.max(largestPart, partBytes);
+		}
+		long sortMemory = (long) (Runtime.getRuntime().maxMemory() * SORT_HEAP_FRACTION);
+		int numThreads = GlobalParams.getNumThreads() > 0 ? GlobalParams.getNumThreads()
+				: Runtime.getRuntime().availableProcessors();
+		int numWorkers = (int) Math.max(1, Math.min(Math.min(numThreads, numParts), sortMemory / largestPart));
+		logger.info("Adding eRule edges to and sorting " + numParts + " partitions, " + numWorkers + " at a time...");
+
+		ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+		try {
+			List<Future<Long>> futures = new ArrayList<Future<Long>>(numParts);
+			for (int i = 0; i < numParts; i++) {
+				final int partId = i;
+				partDegs[partId] = new int[PartitionQuerier.getNumUniqueSrcs(partId)];
+				futures.add(workers.submit(new Callable<Long>() {
+					public Long call() throws IOException {
+						if (runs != null)
+							return PartERuleAdderAndSorter.addERulesAndSortFromRuns(runs, outputFilename, partId,
+									partDegs[partId]);
+						return PartERuleAdderAndSorter.addERulesAndSortInPlace(outputFilename, partId, partDegs[partId]);
+					}
+				}));
+			}
+
+			long[] numAdded = new long[numParts];
+			for (int i = 0; i < numParts; i++) {
+				try {
+					numAdded[i] = futures.get(i).get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while sorting partition " + i, e);
+				} catch (ExecutionException e) {
+					throw new IOException("Failed to sort partition " + i, e.getCause());
+				}
+				logger.info("Added " + numAdded[i] + " eRule edges to partition " + i);
+			}
+			return numAdded;
+		} finally {
+			workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Adds the edges added to each partition to its size and to its count of
+	 * edges to itself, as all of them are self loops, and saves the
+	 * partition sizes and edge destination counts again.
+	 *
+	 * @param numAdded
+	 * @throws IOException
+	 */
+	private void updateMetadata(long[] numAdded) throws IOException {
+		long[][] partSizes = SchedulerInfo.getPartSizes();
+		long[][] edgeDestCount = SchedulerInfo.getEdgeDestCount();
+		for (int i = 0; i < numParts; i++) {
+			partSizes[i][1] += numAdded[i];
+			edgeDestCount[i][i] += numAdded[i];
+		}
+
+		if (GlobalParams.useBinaryManifest()) {
+			logger.info("Updating manifest " + PartitionManifest.fileName(outputFilename) + "... ");
+			PartitionManifest manifest = PartitionManifest.read(outputFilename);
+			long[] sizes = new long[numParts];
+			for (int i = 0; i < numParts; i++) {
+				sizes[i] = partSizes[i][1];
+			}
+			manifest.setPartSizes(sizes);
+			manifest.setEdgeDestCount(edgeDestCount);
+			manifest.write(outputFilename);
+		} else {
+			logger.info("Updating partition sizes and edge destination counts... ");
+			PrintWriter partSizesOutStrm = new PrintWriter(
+					new BufferedWriter(new FileWriter(outputFilename + ".partSizes", false)));
+			for (int i = 0; i < numParts; i++) {
+				partSizesOutStrm.println(partSizes[i][1]);
+			}
+			partSizesOutStrm.close();
+
+			PrintWriter edgeDestCountsOutStrm = new PrintWriter(
+					new BufferedWriter(new FileWriter(outputFilename + ".edgeDestCounts", false)));
+			for (int i = 0; i < numParts; i++) {
+				for (int j = 0; j < numParts; j++) {
+					edgeDestCountsOutStrm.println(i + "\t" + j + "\t" + edgeDestCount[i][j]);
+				}
+			}
+			edgeDestCountsOutStrm.close();
+		}
+		logger.info("Done");
+	}
+
+	/**
+	 * Saves the degrees of the processed graph over the degrees file of the
+	 * partitioning.
+	 *
+	 * @param partDegs
+	 * @throws IOException
+	 */
+	private void saveDegrees(int[][] partDegs) throws IOException {
+		logger.info("Saving degrees file " + outputFilename + ".degrees... ");
+		File degsFile = new File(outputFilename + ".degrees");
+		File tmp = new File(degsFile.getPath() + ".tmp");
+		PrintWriter outDegOutStrm = new PrintWriter(new BufferedWriter(new FileWriter(tmp)));
+		for (int i = 0; i < numParts; i++) {
+			int firstSrc = PartitionQuerier.getFirstSrc(i);
+			for (int j = 0; j < partDegs[i].length; j++) {
+				if (partDegs[i][j] != 0)
+					outDegOutStrm.println((firstSrc + j) + "\t" + partDegs[i][j]);
+			}
+			partDegs[i] = null;
+		}
+		outDegOutStrm.close();
+		if (outDegOutStrm.checkError())
+			throw new IOException("Could not write " + tmp);
+		if (!tmp.renameTo(degsFile) && (!degsFile.delete() || !tmp.renameTo(degsFile)))
+			throw new IOException("Could not replace " + degsFile);
+		logger.info("Done");
+	}
+
+}
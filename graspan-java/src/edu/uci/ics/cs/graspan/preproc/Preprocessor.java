@@ -16,13 +16,8 @@ import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import edu.uci.ics.cs.graspan.computationM.GrammarChecker;
@@ -31,6 +26,8 @@ import edu.uci.ics.cs.graspan.datastructures.PartitionQuerier;
 import edu.uci.ics.cs.graspan.dispatcher.GlobalParams;
 import edu.uci.ics.cs.graspan.scheduler.SchedulerInfo;
 import edu.uci.ics.cs.graspan.support.GraspanLogger;
+import edu.uci.ics.cs.graspan.support.PartitionFileWriter;
+import edu.uci.ics.cs.graspan.support.PartitionManifest;
 
 /**
  * 
@@ -50,34 +47,43 @@ public class Preprocessor {
 	// path of the input graph file
 	private String baseFilename;
 
-	// map of vertices and degrees
-	private TreeMap<Integer, Integer> outDegs;
+	// the degrees of the vertices
+	private DegreeCounter outDegs;
 
-	// the total number of edges that can be kept in all partition buffers
-	private static final long BUFFER_FOR_PARTS = 1000000;
+	// the edge counts the partitions are cut by when they are balanced by
+	// the labels of the edges
+	private LabelAwarePartitioner labelAwarePartitioner;
+
+	// the share of the heap the dense degree counts can take before they
+	// move to a hash table
+	private static final double DEGREE_COUNTS_HEAP_FRACTION = 0.125;
+
+	// the share of the heap that can be taken by all partition buffers
+	private static final double PART_BUFFERS_HEAP_FRACTION = 0.25;
 
 	// for tracking progress after processing every
 	// "OUTPUT_EDGE_TRACKER_INTERVAL" edges
 	private static final long OUTPUT_EDGE_TRACKER_INTERVAL = 500000;
 
-	// the total number of edges that can be kept in each partition buffer
-	private long partBufferSize;
-
-	// table consisting of available space in each partition buffer
-	private long[] partBufferFreespace;
-
 	// the number of writes to disk for creating the partition files
 	private int partitionDiskWriteCount;
 
 	private DataOutputStream[] partOutStrms;
 	private PrintWriter[] partDegOutStrms;
 
+	// writers of the partition files when they are generated in the CSR format
+	private PartitionFileWriter[] partWriters;
+
 	private long[][] edgeDestCount;
 
-	// Each partition buffer consists of an adjacency list.
-	// HashMap<srcVertexID, <[destVertexID1,edgeValue1],
-	// [destVertexID2,edgeValue2]..........>[]
-	private HashMap<Integer, ArrayList<int[]>>[] partBuffers;
+	// the edges of each partition waiting to be written
+	private PartitionEdgeBuffer[] partBuffers;
+
+	// the runs the partition buffers are written to when the CSR partitions
+	// are generated by external sorting, and whether they are merged into
+	// the partition files at the end of run()
+	private PartitionRuns partRuns;
+	private boolean mergeRuns = true;
 
 	/**
 	 * Constructor
@@ -124,7 +130,15 @@ public class Preprocessor {
 		
 		// generate degrees file
 		long degGenStartTime = System.nanoTime();
-		generateGraphDegs(new FileInputStream(new File(GlobalParams.getBasefilename())));
+		if (GlobalParams.labelAwarePartitioning()) {
+			labelAwarePartitioner = new LabelAwarePartitioner(
+					(long) (Runtime.getRuntime().maxMemory() * DEGREE_COUNTS_HEAP_FRACTION / 3));
+		}
+		if (GlobalParams.parallelEdgeListParsing()) {
+			generateGraphDegs(newEdgeListParser());
+		} else {
+			generateGraphDegs(new FileInputStream(new File(GlobalParams.getBasefilename())));
+		}
 		long degGenDuration = System.nanoTime() - degGenStartTime;
 		logger.info("Total time to create degrees file (nanoseconds): " + degGenDuration);
 		
@@ -134,24 +148,41 @@ public class Preprocessor {
 		
 		this.edgeDestCount = new long[numParts][numParts];
 
-		// initialize streams for partition files (these streams will
-		// be later filled in by sendBufferEdgestoDisk_ByteFmt())
-		partOutStrms = new DataOutputStream[numParts];
-		for (int i = 0; i < numParts; i++) {
-			partOutStrms[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(baseFilename + ".partition." + i, true)));
-		}
+		if (GlobalParams.useCsrPartitionFormat() && GlobalParams.externalPartitionSort()) {
+			// the partition files are written from the runs once all the
+			// edges are read
+			partRuns = new PartitionRuns(baseFilename, numParts);
+		} else if (GlobalParams.useCsrPartitionFormat()) {
+			// the degrees go into the offsets of the partition files
+			createPartWriters();
+		} else {
+			// initialize streams for partition files (these streams will
+			// be later filled in by sendBufferEdgestoDisk_ByteFmt())
+			partOutStrms = new DataOutputStream[numParts];
+			for (int i = 0; i < numParts; i++) {
+				partOutStrms[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(baseFilename + ".partition." + i, true)));
+			}
 
-		// initialize streams for partition degree files (these streams will
-		// be later filled in by generatePartDegs())
-		partDegOutStrms = new PrintWriter[numParts];
-		for (int i = 0; i < numParts; i++) {
-			partDegOutStrms[i] = new PrintWriter(new BufferedWriter(new FileWriter(baseFilename + ".partition." + i + ".degrees", true)));
+			// initialize streams for partition degree files (these streams will
+			// be later filled in by generatePartDegs())
+			partDegOutStrms = new PrintWriter[numParts];
+			for (int i = 0; i < numParts; i++) {
+				partDegOutStrms[i] = new PrintWriter(new BufferedWriter(new FileWriter(baseFilename + ".partition." + i + ".degrees", true)));
+			}
 		}
 		logger.info("Done");
 		
-		writePartitionEdgestoFiles(new FileInputStream(new File(GlobalParams.getBasefilename())));
+		if (GlobalParams.parallelEdgeListParsing()) {
+			writePartitionEdgestoFiles(newEdgeListParser());
+		} else {
+			writePartitionEdgestoFiles(new FileInputStream(new File(GlobalParams.getBasefilename())));
+		}
 		
-		generatePartDegs();
+		if (GlobalParams.useCsrPartitionFormat()) {
+			outDegs = null;
+		} else {
+			generatePartDegs();
+		}
 		long creatingPartsDuration = System.nanoTime() - creatingPartsStartTime;
 		logger.info("Total time to create partitions (nanoseconds):" + creatingPartsDuration);
 		
@@ -159,6 +190,28 @@ public class Preprocessor {
 		
 	}
 
+	/**
+	 * Sets whether run() merges the runs of the partitions into the partition
+	 * files when the partitions are generated by external sorting. When it
+	 * does not, the runs are left for the caller, see getRuns().
+	 * 
+	 * @param mergeRuns
+	 */
+	public void setMergeRuns(boolean mergeRuns) {
+		this.mergeRuns = mergeRuns;
+	}
+
+	/**
+	 * Returns the runs of the partitions left by run(), or null if the
+	 * partitions were not generated by external sorting or the runs were
+	 * merged.
+	 * 
+	 * @return
+	 */
+	public PartitionRuns getRuns() {
+		return mergeRuns ? null : partRuns;
+	}
+
 	/**
 	 * Scans the entire graph and counts the out-degrees of all the vertices.
 	 * This is the Preliminary Scan | TODO need to store the degrees file in a
@@ -173,13 +226,14 @@ public class Preprocessor {
 		BufferedReader ins = new BufferedReader(new InputStreamReader(inputStream));
 		String ln;
 		long numEdges = 0;
-		TreeMap<Integer, Integer> outDegs = new TreeMap<Integer, Integer>();
+		DegreeCounter outDegs = newDegreeCounter();
 
 		// read inputgraph line-by-line and keep incrementing degree
 		logger.info("Performing first scan on input graph... ");
 		long lineCount = 0;
 		long readStartTime = System.nanoTime();
-		int src = 0;
+		int src = 0, dst = 0;
+		byte eval = 0;
 		double readSpeed = 0;
 		String[] tok;
 		
@@ -202,11 +256,15 @@ public class Preprocessor {
 						src = Integer.parseInt(tok[0]);
 					}
 					
-					if (!outDegs.containsKey(src)) {
-						outDegs.put(src, 1);
-					} else {
-						outDegs.put(src, outDegs.get(src) + 1);
+					if (labelAwarePartitioner != null) {
+						dst = Integer.parseInt(tok[1]) + (GlobalParams.getFirstVertexID() == 0 ? 1 : 0);
+						if (GlobalParams.hasEdgeVals().compareTo("yes") == 0) {
+							eval = GrammarChecker.getValue(tok[2].trim());
+						}
+						labelAwarePartitioner.addEdge(src, dst, eval);
 					}
+
+					outDegs.increment(src);
 					numEdges++;
 				} catch (Exception e) {
 					logger.info("ERROR: " + e + "at line # " + lineCount + " : " + ln);
@@ -215,6 +273,60 @@ public class Preprocessor {
 		}
 		logger.info("Completed first scan of input graph and got full degree information in the memory.");
 
+		saveGraphDegs(outDegs, numEdges);
+	}
+
+	/**
+	 * Counts the out-degrees of all the vertices like
+	 * generateGraphDegs(InputStream), parsing the graph on several threads.
+	 * The parsed blocks are counted as they are handed over, into a single
+	 * counter, so that the counts over the whole id range are not held once
+	 * per thread.
+	 * 
+	 * @param parser
+	 * @throws IOException
+	 */
+	public void generateGraphDegs(EdgeListParser parser) throws IOException {
+		logger.info("Generating degrees file...");
+		final DegreeCounter outDegs = newDegreeCounter();
+		final long[] numEdges = new long[1];
+
+		logger.info("Performing first scan on input graph... ");
+		final long readStartTime = System.nanoTime();
+		parser.parse(new EdgeListParser.Handler() {
+			public void handle(EdgeListParser.Block block) {
+				// the labels of a block are only grammar symbols from here on
+				if (labelAwarePartitioner != null)
+					labelAwarePartitioner.addEdges(block.srcs, block.dsts, block.vals, block.numEdges);
+				outDegs.incrementAll(block.srcs, block.numEdges);
+				numEdges[0] += block.numEdges;
+				logger.info("Read " + NumberFormat.getNumberInstance(Locale.US).format(numEdges[0]) + " edges, "
+						+ numEdges[0] * 1000000000 / (System.nanoTime() - readStartTime) + " edges/sec");
+			}
+		});
+
+		logger.info("Completed first scan of input graph and got full degree information in the memory.");
+
+		saveGraphDegs(outDegs, numEdges[0]);
+	}
+
+	/**
+	 * Creates a degree counter with the memory for dense degree counts.
+	 * 
+	 * @return
+	 */
+	private DegreeCounter newDegreeCounter() {
+		return new DegreeCounter((long) (Runtime.getRuntime().maxMemory() * DEGREE_COUNTS_HEAP_FRACTION));
+	}
+
+	/**
+	 * Keeps the degrees counted by the first scan and saves them on disk.
+	 * 
+	 * @param outDegs
+	 * @param numEdges
+	 * @throws IOException
+	 */
+	private void saveGraphDegs(DegreeCounter outDegs, long numEdges) throws IOException {
 		this.numEdges = numEdges;
 		logger.info("Total number of edges in input graph: " + numEdges);
 
@@ -222,16 +334,15 @@ public class Preprocessor {
 		logger.info("Saving degrees file " + baseFilename + ".degrees... ");
 
 		PrintWriter outDegOutStrm = new PrintWriter(baseFilename + ".degrees", "UTF-8");
-		Iterator<Entry<Integer, Integer>> it = outDegs.entrySet().iterator();
-		while (it.hasNext()) {
-			Entry<Integer, Integer> pair = it.next();
-			outDegOutStrm.println(pair.getKey() + "\t" + pair.getValue());
+		DegreeCounter.Cursor it = outDegs.cursor();
+		while (it.next()) {
+			outDegOutStrm.println(it.vertex() + "\t" + it.degree());
 		}
 		outDegOutStrm.close();
 		this.outDegs = outDegs;
 
 		logger.info("Completed saving all degrees files.");
-		logger.info("Total number of vertices in input graph: " + this.outDegs.size());
+		logger.info("Total number of vertices in input graph: " + this.outDegs.getNumVertices());
 //		logger.info(outDegs+"");
 	}
 
@@ -256,33 +367,39 @@ public class Preprocessor {
 		int intervalMaxVId = 0;
 
 		// counter of the number of edges in the interval
-		int intervalEdgeCount = 0;
+		long intervalEdgeCount = 0;
 
 		
 		List<Integer> intervalIDs = new ArrayList<Integer>();
-		List<Integer> intervalECounts = new ArrayList<Integer>();
+		List<Long> intervalECounts = new ArrayList<Long>();
 		
 		// marker of the current partition table
 //		int partTabIdx = 0;
 
 
 //		long totalEdgeCount = 0;
-		Iterator<Entry<Integer, Integer>> it = outDegs.entrySet().iterator();
+		DegreeCounter.Cursor it = outDegs.cursor();
+		int lastVId = outDegs.getLastVertex();
 		
+		boolean labelAware = labelAwarePartitioner != null;
+		if (labelAware) {
+			logger.info("Balancing partitions by the labels of their edges...");
+			labelAwarePartitioner.cut(outDegs, numParts, intervalIDs, intervalECounts);
+			labelAwarePartitioner = null;
+		}
 		
 		//FOR IN-MEMORY (TOTAL_NUM_PARTS==2):
-		if (GlobalParams.getNumParts()==2){
-		while (it.hasNext()) {
-			Map.Entry<Integer, Integer> pair = it.next();
-			intervalMaxVId = pair.getKey();
-			intervalEdgeCount += pair.getValue();
+		if (!labelAware && GlobalParams.getNumParts()==2){
+		while (it.next()) {
+			intervalMaxVId = it.vertex();
+			intervalEdgeCount += it.degree();
 			
 		if (intervalEdgeCount > intervalMaxSize & intervalIDs.size()==0) {
 			intervalIDs.add(intervalMaxVId);
 			intervalECounts.add(intervalEdgeCount);
 			intervalEdgeCount = 0;
 		}
-		else if(intervalMaxVId == outDegs.lastKey()){
+		else if(intervalMaxVId == lastVId){
 			intervalIDs.add(intervalMaxVId);
 			intervalECounts.add(intervalEdgeCount);
 			intervalEdgeCount = 0;
@@ -291,11 +408,10 @@ public class Preprocessor {
 		}
 		}
 		
-		if (GlobalParams.getNumParts()!=2){
-		while (it.hasNext()) {
-			Map.Entry<Integer, Integer> pair = it.next();
-			intervalMaxVId = pair.getKey();
-			intervalEdgeCount += pair.getValue();
+		if (!labelAware && GlobalParams.getNumParts()!=2){
+		while (it.next()) {
+			intervalMaxVId = it.vertex();
+			intervalEdgeCount += it.degree();
 			// w total degree > intervalMax,
 			// assign the partition_interval_head to the current_Scanned_Vertex
 			if (intervalEdgeCount > intervalMaxSize) {
@@ -306,7 +422,7 @@ public class Preprocessor {
 				intervalECounts.add(intervalEdgeCount);
 				intervalEdgeCount = 0;
 			}
-			else if(intervalMaxVId == outDegs.lastKey()){
+			else if(intervalMaxVId == lastVId){
 				intervalIDs.add(intervalMaxVId);
 				intervalECounts.add(intervalEdgeCount);
 				intervalEdgeCount = 0;
@@ -327,8 +443,13 @@ public class Preprocessor {
 //			}
 		}
 
-		logger.info("Saving partition allocation table file " + baseFilename + ".partAllocTable... ");
-		PrintWriter partAllocTableOutStrm = new PrintWriter(baseFilename + ".partAllocTable", "UTF-8");
+		// with a manifest, the table is saved along with the edc and partition
+		// sizes once they are known
+		PrintWriter partAllocTableOutStrm = null;
+		if (!GlobalParams.useBinaryManifest()) {
+			logger.info("Saving partition allocation table file " + baseFilename + ".partAllocTable... ");
+			partAllocTableOutStrm = new PrintWriter(baseFilename + ".partAllocTable", "UTF-8");
+		}
 		
 		// creating the Partition Allocation Table
 		int[][] partAllocTable = new int[intervalIDs.size()][2];
@@ -344,11 +465,13 @@ public class Preprocessor {
 			partSizes[i][0] = i;
 			partSizes[i][1] = intervalECounts.get(i);
 		}
-		for (int i = 0; i < partAllocTable.length; i++) {
-			partAllocTableOutStrm.println(partAllocTable[i][0] + "\t" + partAllocTable[i][1]);
+		if (partAllocTableOutStrm != null) {
+			for (int i = 0; i < partAllocTable.length; i++) {
+				partAllocTableOutStrm.println(partAllocTable[i][0] + "\t" + partAllocTable[i][1]);
+			}
+			logger.info("Done");
+			partAllocTableOutStrm.close();
 		}
-		logger.info("Done");
-		partAllocTableOutStrm.close();
 
 		SchedulerInfo.setPartSizes(partSizes);
 		
@@ -365,12 +488,11 @@ public class Preprocessor {
 
 		logger.info("Generating degrees file for each partition... ");
 
-		Iterator<Entry<Integer, Integer>> it = outDegs.entrySet().iterator();
+		DegreeCounter.Cursor it = outDegs.cursor();
 		int partId = 0;
-		while (it.hasNext()) {
-			Map.Entry<Integer, Integer> pair = it.next();
-			partId = PartitionQuerier.findPartition(pair.getKey());
-			partDegOutStrms[partId].println(pair.getKey() + "\t" + pair.getValue());
+		while (it.next()) {
+			partId = PartitionQuerier.findPartition(it.vertex());
+			partDegOutStrms[partId].println(it.vertex() + "\t" + it.degree());
 		}
 
 		// close all streams
@@ -380,10 +502,34 @@ public class Preprocessor {
 
 		logger.info("Done");
 
-		outDegs.clear();
+		outDegs = null;
 
 	}
 
+	/**
+	 * Creates the CSR partition files, laid out from the degrees of the first
+	 * scan, so that buffered edges can be written straight to their rows.
+	 * 
+	 * @throws IOException
+	 */
+	private void createPartWriters() throws IOException {
+		int[][] partDegs = new int[numParts][];
+		for (int i = 0; i < numParts; i++) {
+			partDegs[i] = new int[PartitionQuerier.getNumUniqueSrcs(i)];
+		}
+		DegreeCounter.Cursor it = outDegs.cursor();
+		while (it.next()) {
+			int partId = PartitionQuerier.findPartition(it.vertex());
+			partDegs[partId][it.vertex() - PartitionQuerier.getFirstSrc(partId)] = it.degree();
+		}
+
+		partWriters = new PartitionFileWriter[numParts];
+		for (int i = 0; i < numParts; i++) {
+			partWriters[i] = new PartitionFileWriter(baseFilename + ".partition." + i, PartitionQuerier.getFirstSrc(i), partDegs[i]);
+			partDegs[i] = null;
+		}
+	}
+
 	/**
 	 * Scans the input graph, pools edges for each partition (according to
 	 * partAllocTable), and writes the edges to the corresponding partition
@@ -394,22 +540,7 @@ public class Preprocessor {
 	 */
 	public void writePartitionEdgestoFiles(InputStream inputStream) throws IOException {
 		logger.info("Generating partition files...");
-
-		// initialize partition buffers
-		HashMap<Integer, ArrayList<int[]>>[] partitionBuffers = new HashMap[numParts];
-
-		logger.info("Initializing partition buffers (Total buffer size = " + BUFFER_FOR_PARTS + " edges for " + numParts
-				+ " partitions)... ");
-		long partitionBufferSize = BUFFER_FOR_PARTS / numParts;
-		long partitionBufferFreespace[] = new long[numParts];
-		for (int i = 0; i < numParts; i++) {
-			partitionBufferFreespace[i] = partitionBufferSize;
-			partitionBuffers[i] = new HashMap<Integer, ArrayList<int[]>>();
-		}
-		this.partBuffers = partitionBuffers;
-		this.partBufferSize = partitionBufferSize;
-		this.partBufferFreespace = partitionBufferFreespace;
-		logger.info("Done");
+		initPartBuffers();
 
 		// read the input graph edge-wise and process each edge
 		logger.info("Performing second scan on input graph...");
@@ -479,15 +610,101 @@ public class Preprocessor {
 		// System.out.println();
 		// }
 
-		// write edge dest counts to file
-		logger.info("Saving edge destination counts to file... ");
-		saveEDC();
-		logger.info("Done");
+		finishPartitionFiles();
+	}
 
-		// write part edge sizes to file
-		logger.info("Saving partition sizes to file... ");
-		savePartSizes();
+	/**
+	 * Pools the edges of the input graph for each partition and writes them to
+	 * the partition files like writePartitionEdgestoFiles(InputStream),
+	 * parsing the graph on several threads.
+	 * 
+	 * @param parser
+	 * @throws IOException
+	 */
+	public void writePartitionEdgestoFiles(EdgeListParser parser) throws IOException {
+		logger.info("Generating partition files...");
+		initPartBuffers();
+
+		logger.info("Performing second scan on input graph...");
+		logger.info("The total number of edges in graph: " + numEdges);
+		final long[] edgeCount = new long[1];
+		parser.parse(new EdgeListParser.Handler() {
+			public void handle(EdgeListParser.Block block) throws IOException {
+				for (int i = 0; i < block.numEdges; i++) {
+					incrementEdgeDestCount(block.srcs[i], block.dsts[i]);
+					addEdgetoBuffer(block.srcs[i], block.dsts[i], block.vals[i]);
+				}
+				edgeCount[0] += block.numEdges;
+				double percentComplete = ((double) edgeCount[0] / numEdges) * 100;
+				logger.info("Reading edges to buffer from disk. Read "
+						+ NumberFormat.getNumberInstance(Locale.US).format(edgeCount[0]) + " edges ("
+						+ (double) Math.round(percentComplete * 100) / 100 + "%)...");
+			}
+		});
+
+		finishPartitionFiles();
+	}
+
+	/**
+	 * Opens an EdgeListParser on the input graph.
+	 * 
+	 * @return
+	 */
+	private EdgeListParser newEdgeListParser() {
+		int numThreads = GlobalParams.getNumThreads() > 0 ? GlobalParams.getNumThreads()
+				: Runtime.getRuntime().availableProcessors();
+		return new EdgeListParser(new File(GlobalParams.getBasefilename()), numThreads, GlobalParams.getFirstVertexID() == 0 ? 1 : 0,
+				GlobalParams.hasEdgeVals().compareTo("yes") == 0);
+	}
+
+	/**
+	 * Creates an empty buffer for each partition.
+	 */
+	private void initPartBuffers() {
+		// initialize partition buffers; each one grows up to its share of
+		// the memory for the buffers
+		long bufferMemory = (long) (Runtime.getRuntime().maxMemory() * PART_BUFFERS_HEAP_FRACTION);
+		long bufferForParts = bufferMemory / PartitionEdgeBuffer.BYTES_PER_EDGE;
+		int partitionBufferSize = (int) Math.min(bufferForParts / numParts, Integer.MAX_VALUE - 8);
+
+		logger.info("Initializing partition buffers (Total buffer size = " + bufferForParts + " edges for " + numParts
+				+ " partitions)... ");
+		PartitionEdgeBuffer[] partitionBuffers = new PartitionEdgeBuffer[numParts];
+		for (int i = 0; i < numParts; i++) {
+			partitionBuffers[i] = new PartitionEdgeBuffer(partitionBufferSize);
+		}
+		this.partBuffers = partitionBuffers;
 		logger.info("Done");
+	}
+
+	/**
+	 * Saves the partition metadata and writes the edges left in the partition
+	 * buffers after the second scan.
+	 * 
+	 * @throws IOException
+	 */
+	private void finishPartitionFiles() throws IOException {
+		if (GlobalParams.useBinaryManifest()) {
+			// write the partition allocation table, edge dest counts and part
+			// edge sizes to the manifest
+			logger.info("Saving manifest " + PartitionManifest.fileName(baseFilename) + "... ");
+			saveManifest();
+			logger.info("Done");
+		} else {
+			// a manifest left from an earlier run would be read instead of
+			// the text files
+			new File(PartitionManifest.fileName(baseFilename)).delete();
+
+			// write edge dest counts to file
+			logger.info("Saving edge destination counts to file... ");
+			saveEDC();
+			logger.info("Done");
+
+			// write part edge sizes to file
+			logger.info("Saving partition sizes to file... ");
+			savePartSizes();
+			logger.info("Done");
+		}
 
 		SchedulerInfo.setEdgeDestCount(edgeDestCount);
 
@@ -497,8 +714,17 @@ public class Preprocessor {
 		}
 
 		// close all streams
-		for (int i = 0; i < partOutStrms.length; i++) {
-			partOutStrms[i].close();
+		if (partRuns != null) {
+			if (mergeRuns)
+				writePartitionsFromRuns();
+		} else if (partWriters != null) {
+			for (int i = 0; i < partWriters.length; i++) {
+				partWriters[i].close();
+			}
+		} else {
+			for (int i = 0; i < partOutStrms.length; i++) {
+				partOutStrms[i].close();
+			}
 		}
 
 		logger.info("Partition files created.");
@@ -506,6 +732,36 @@ public class Preprocessor {
 
 	}
 
+	/**
+	 * Writes each CSR partition file from the runs of the partition, one
+	 * partition at a time, and deletes the runs.
+	 * 
+	 * @throws IOException
+	 */
+	private void writePartitionsFromRuns() throws IOException {
+		for (int i = 0; i < numParts; i++) {
+			int firstSrc = PartitionQuerier.getFirstSrc(i);
+			int[] partDegs = new int[PartitionQuerier.getNumUniqueSrcs(i)];
+			for (int j = 0; j < partDegs.length; j++) {
+				partDegs[j] = outDegs.get(firstSrc + j);
+			}
+
+			logger.info("Merging " + partRuns.getNumRuns(i) + " runs into partition " + i + "...");
+			final PartitionFileWriter partWriter = new PartitionFileWriter(baseFilename + ".partition." + i, firstSrc,
+					partDegs);
+			try {
+				partRuns.merge(i, new PartitionRuns.RowHandler() {
+					public void handleRow(int src, int[] dsts, byte[] vals, int n) throws IOException {
+						partWriter.writeEdges(src, dsts, vals, n);
+					}
+				});
+			} finally {
+				partWriter.close();
+			}
+			partRuns.delete(i);
+		}
+	}
+
 	/**
 	 * Checks each edge, finds the appropriate partition, adds them to the
 	 * corresponding partition buffer, and then CALLS
@@ -521,29 +777,7 @@ public class Preprocessor {
 
 		int partitionId = PartitionQuerier.findPartition(srcVId);
 
-		// get the adjacencyList from the relevant partition buffer
-		HashMap<Integer, ArrayList<int[]>> vertexAdjList = partBuffers[partitionId];
-
-		// store the (destVId, edgeValue) pair in an array
-		int[] destEdgeValPair = new int[2];
-		destEdgeValPair[0] = destVId;
-		destEdgeValPair[1] = edgeValue;
-
-		/*
-		 * IF the srcVId row already exists, save the (destVId, edgeValue) pair
-		 * array in the vertexAdjList for the given SrcVId. ELSE create a new
-		 * arrayList for the SrcVId and then add to the vertexAdjList of this
-		 * partition buffer
-		 */
-		if (vertexAdjList.containsKey(srcVId)) {
-			vertexAdjList.get(srcVId).add(destEdgeValPair);
-		} else {
-			ArrayList<int[]> srcVIdRow = new ArrayList<int[]>();
-			srcVIdRow.add(destEdgeValPair);
-			vertexAdjList.put(srcVId, srcVIdRow);
-		}
-
-		partBufferFreespace[partitionId]--;
+		partBuffers[partitionId].add(srcVId, destVId, (byte) edgeValue);
 
 		// if partition buffer is full transfer the partition buffer to file
 		if (isPartitionBufferFull(partitionId)) {
@@ -569,48 +803,69 @@ public class Preprocessor {
 	private void sendBufferEdgestoDisk_ByteFmt(int partitionId) throws IOException {
 		partitionDiskWriteCount++;
 
-		DataOutputStream adjListOutputStream = partOutStrms[partitionId];
+		if (partRuns != null) {
+			partRuns.writeRun(partitionId, partBuffers[partitionId]);
+			partBuffers[partitionId].clear();
+			return;
+		}
 
-		int srcVId, destVId, count;
-		int edgeValue;
+		if (partWriters != null) {
+			sendBufferEdgestoDisk_Csr(partitionId);
+			return;
+		}
 
-		// get the adjacencyList from the relevant partition buffer
-		HashMap<Integer, ArrayList<int[]>> vertexAdjList = partBuffers[partitionId];
-		Iterator<Map.Entry<Integer, ArrayList<int[]>>> it = vertexAdjList.entrySet().iterator();
+		DataOutputStream adjListOutputStream = partOutStrms[partitionId];
+
+		// group the edges of the buffer by source
+		PartitionEdgeBuffer buffer = partBuffers[partitionId];
+		buffer.sortBySource();
+		int[] srcs = buffer.getSrcs();
+		int[] dsts = buffer.getDsts();
+		byte[] vals = buffer.getVals();
 
 		/*
 		 * write the vertex adjacency lists in the file (srcVId:4 bytes,count:4
 		 * bytes,destVId:4 bytes,edgeValue:1 byte)
 		 */
-		while (it.hasNext()) {
-			Map.Entry<Integer, ArrayList<int[]>> pair = it.next();
-
-			// write the srcId
-			srcVId = pair.getKey();
-			adjListOutputStream.writeInt(srcVId);
-			// logger.info("src="+srcVId);
+		for (int start = 0, end; start < buffer.size(); start = end) {
+			end = buffer.runEnd(start);
 
-			// get the relevant srcVIdrow row from the adjacencyList
-			ArrayList<int[]> srcVIdRow = pair.getValue();
-
-			// write the count
-			count = srcVIdRow.size();
-			adjListOutputStream.writeInt(count);
-			// logger.info("count="+count);
+			// write the srcId and the count
+			adjListOutputStream.writeInt(srcs[start]);
+			adjListOutputStream.writeInt(end - start);
 
 			// write the destId edgeValue pair
-			for (int i = 0; i < srcVIdRow.size(); i++) {
-				int[] destIdEdgeVal = srcVIdRow.get(i);
-				destVId = destIdEdgeVal[0];
-				edgeValue = destIdEdgeVal[1];
-				adjListOutputStream.writeInt(destVId);
-				adjListOutputStream.writeByte((byte) edgeValue);
+			for (int i = start; i < end; i++) {
+				adjListOutputStream.writeInt(dsts[i]);
+				adjListOutputStream.writeByte(vals[i]);
 			}
 		}
 
 		// empty the buffer
-		vertexAdjList.clear();
-		partBufferFreespace[partitionId] = partBufferSize;
+		buffer.clear();
+	}
+
+	/**
+	 * Transfers the buffer edges to their rows in the CSR partition file, in
+	 * the order of the source vertices so that adjacent rows are written
+	 * together.
+	 * 
+	 * @param partitionId
+	 * @throws IOException
+	 */
+	private void sendBufferEdgestoDisk_Csr(int partitionId) throws IOException {
+		PartitionEdgeBuffer buffer = partBuffers[partitionId];
+		PartitionFileWriter partWriter = partWriters[partitionId];
+
+		buffer.sortBySource();
+		int[] srcs = buffer.getSrcs();
+		for (int start = 0, end; start < buffer.size(); start = end) {
+			end = buffer.runEnd(start);
+			partWriter.writeEdges(srcs[start], buffer.getDsts(), buffer.getVals(), start, end - start);
+		}
+
+		// empty the buffer
+		buffer.clear();
 	}
 
 	/**
@@ -707,6 +962,25 @@ public class Preprocessor {
 
 	}
 
+	/**
+	 * Stores the partition allocation table, the edge destination counts and
+	 * the partition sizes in the manifest.
+	 * 
+	 * @throws IOException
+	 */
+	private void saveManifest() throws IOException {
+		long[][] partSizes = SchedulerInfo.getPartSizes();
+		long[] sizes = new long[numParts];
+		for (int i = 0; i < numParts; i++) {
+			sizes[i] = partSizes[i][1];
+		}
+		PartitionManifest manifest = new PartitionManifest();
+		manifest.setPartAllocTable(AllPartitions.getPartAllocTab());
+		manifest.setPartSizes(sizes);
+		manifest.setEdgeDestCount(edgeDestCount);
+		manifest.write(baseFilename);
+	}
+
 	/**
 	 * Stores the counts of partition sizes of each partition in disk.
 	 * 
@@ -740,7 +1014,7 @@ public class Preprocessor {
 	 * @return
 	 */
 	private boolean isPartitionBufferFull(int partitionId) {
-		return (partBufferFreespace[partitionId] == 0 ? true : false);
+		return partBuffers[partitionId].isFull();
 	}
 
 }
\ No newline at end of file
@@ -187,6 +187,39 @@ public class Scheduler {
 		return scheduled;
 	}
 
+	/**
+	 * Predicts the pair schedulePartitionEDC will pick after the current one,
+	 * from the EDC and termination info as they are now, assuming the current
+	 * pair will be done. Nothing is updated.
+	 * 
+	 * @param numOfPartitions
+	 * @param current
+	 *            - the pair being computed
+	 * @return the predicted pair, or null if no other pair is left
+	 */
+	public int[] predictNextPartitionsEDC(int numOfPartitions, int[] current) {
+		long max = -1;
+		int maxPartA = -1, maxPartB = -1;
+		long[][] edcTwoWay = SchedulerInfo.getEdcTwoWay();
+		for (int i = 0; i < numOfPartitions; i++) {
+			for (int j = 0; j < numOfPartitions; j++) {
+				if (edcTwoWay[i][j] > max && i != j && !isPair(i, j, current)
+						&& allEdgeInfo.get(i).getTerminationInfo().get(j) == false) {
+					max = edcTwoWay[i][j];
+					maxPartA = i;
+					maxPartB = j;
+				}
+			}
+		}
+		if (maxPartA == -1)
+			return null;
+		return new int[] { maxPartA, maxPartB };
+	}
+
+	private static boolean isPair(int i, int j, int[] pair) {
+		return (i == pair[0] && j == pair[1]) || (i == pair[1] && j == pair[0]);
+	}
+
 	/**
 	 * 
 	 * Description:check whether to be terminated. call it before every
@@ -308,6 +341,39 @@ public class Scheduler {
 		}
 	}
 
+	/**
+	 * Returns a copy of the termination map, where entry [i][j] is true if
+	 * partition i is done with partition j.
+	 * 
+	 * @return
+	 */
+	public boolean[][] getTerminationMap() {
+		boolean[][] map = new boolean[allEdgeInfo.size()][allEdgeInfo.size()];
+		for (int i = 0; i < map.length; i++) {
+			List<Boolean> terminationInfo = allEdgeInfo.get(i).getTerminationInfo();
+			for (int j = 0; j < map.length; j++)
+				map[i][j] = terminationInfo.get(j);
+		}
+		return map;
+	}
+
+	/**
+	 * Replaces the termination info of all partitions, e.g. with that of a
+	 * checkpoint.
+	 * 
+	 * @param map
+	 *            - as returned by getTerminationMap()
+	 */
+	public void setTerminationMap(boolean[][] map) {
+		allEdgeInfo.clear();
+		for (int i = 0; i < map.length; i++) {
+			PartitionEdgeInfo edgeInfo = new PartitionEdgeInfo(i, map.length);
+			for (int j = 0; j < map.length; j++)
+				edgeInfo.getTerminationInfo().set(j, map[i][j]);
+			allEdgeInfo.add(edgeInfo);
+		}
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder result = new StringBuilder();
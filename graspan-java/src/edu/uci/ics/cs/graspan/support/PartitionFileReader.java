@@ -0,0 +1,387 @@
+package edu.uci.ics.cs.graspan.support;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a partition file through a FileChannel in a large direct buffer and
+ * decodes whole runs of (dstVId, edgeVal) records per refill, instead of one
+ * DataInputStream call per field.
+ *
+ * Two formats are read. A version 1 file holds, for each source vertex, srcVId
+ * (int), count (int) and count times dstVId (int) and edgeVal (byte),
+ * big-endian, as written by DataOutputStream, and comes with a text degrees
+ * file. A CSR file is described in PartitionFileWriter; its columns are copied
+ * into the rows in bulk, or decoded if they are encoded, and its checksum is
+ * verified while reading.
+ *
+ * The buffer and the scratch array of the checksum are kept per thread, as
+ * partitions are read again and again during the computation.
+ */
+public class PartitionFileReader {
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	// size of one (dstVId, edgeVal) record
+	private static final int EDGE_SIZE = 5;
+
+	// rows shorter than this are copied with single gets instead of a view
+	private static final int MIN_BULK_INTS = 16;
+
+	private static final ThreadLocal<ByteBuffer> threadBuf = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	};
+
+	private static final ThreadLocal<byte[]> threadCrcScratch = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+
+	private final FileChannel channel;
+	private final ByteBuffer buf;
+	private boolean eof;
+
+	// checksum of the bytes read so far, up to crcEnd, when reading a CSR file
+	private CRC32 crc;
+	private long crcEnd;
+	private long crcPos;
+	private byte[] crcScratch;
+
+	// the label run being decoded from a LABELS_RLE column
+	private byte runLabel;
+	private int runLeft;
+
+	private PartitionFileReader(FileChannel channel) {
+		this.channel = channel;
+		this.buf = threadBuf.get();
+		this.buf.clear();
+		this.buf.flip();
+		this.buf.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Appends the edges of a partition file to the rows of partEdges and
+	 * partEdgeVals, after the position lastAddedEdgePos holds for each row. In
+	 * a version 1 file, a truncated last record is read as far as it goes, as
+	 * with the stream readers this replaces.
+	 *
+	 * @param fileName
+	 * @param firstSrc
+	 *            - the smallest source vertex id of the partition
+	 * @param partEdges
+	 * @param partEdgeVals
+	 * @param lastAddedEdgePos
+	 * @throws IOException
+	 */
+	public static void readPartition(String fileName, int firstSrc, int[][] partEdges, byte[][] partEdgeVals,
+			int[] lastAddedEdgePos) throws IOException {
+		FileInputStream in = new FileInputStream(fileName);
+		try {
+			PartitionFileReader reader = new PartitionFileReader(in.getChannel());
+			int[] header = reader.readCsrHeader(true);
+			if (header != null) {
+				reader.decodeCsr(fileName, header, firstSrc, partEdges, partEdgeVals, lastAddedEdgePos);
+			} else {
+				reader.decode(firstSrc, partEdges, partEdgeVals, lastAddedEdgePos);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Fills outDegs with the degrees held in the offsets of a CSR partition
+	 * file, reading only its header and offsets.
+	 *
+	 * @param fileName
+	 * @param firstSrc
+	 *            - the smallest source vertex id of the partition
+	 * @param outDegs
+	 * @return false if the file is not a CSR partition, in which case the
+	 *         degrees are in its degrees file
+	 * @throws IOException
+	 */
+	public static boolean readOutDegrees(String fileName, int firstSrc, int[] outDegs) throws IOException {
+		FileInputStream in = new FileInputStream(fileName);
+		try {
+			PartitionFileReader reader = new PartitionFileReader(in.getChannel());
+			int[] header = reader.readCsrHeader(false);
+			if (header == null)
+				return false;
+			int[] offsets = reader.readOffsets(header[1]);
+			int shift = header[0] - firstSrc;
+			for (int i = 0; i < header[1]; i++) {
+				outDegs[i + shift] = offsets[i + 1] - offsets[i];
+			}
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the firstSrc and numVertices of a CSR partition file, or null if
+	 * the file is in the version 1 format.
+	 *
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static int[] readCsrRange(String fileName) throws IOException {
+		FileInputStream in = new FileInputStream(fileName);
+		try {
+			int[] header = new PartitionFileReader(in.getChannel()).readCsrHeader(false);
+			return header == null ? null : new int[] { header[0], header[1] };
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the header if the file is a CSR partition, and leaves the buffer
+	 * positioned after it.
+	 *
+	 * @param verify
+	 *            - whether to checksum the bytes read from here on
+	 * @return firstSrc, numVertices and flags, or null if the file is in the
+	 *         version 1 format, in which case nothing has been consumed
+	 * @throws IOException
+	 */
+	private int[] readCsrHeader(boolean verify) throws IOException {
+		if (!ensure(PartitionFileWriter.CSR_HEADER_SIZE))
+			return null;
+		ByteBuffer buf = this.buf;
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		int start = buf.position();
+		if (buf.getInt(start) != PartitionFileWriter.CSR_MAGIC
+				|| buf.getInt(start + 4) != PartitionFileWriter.CSR_VERSION) {
+			buf.order(ByteOrder.BIG_ENDIAN);
+			return null;
+		}
+		int flags = buf.getInt(start + 8);
+		int firstSrc = buf.getInt(start + 12);
+		int numVertices = buf.getInt(start + 16);
+		long numEdges = buf.getLong(start + 24);
+		long size = channel.size();
+		long minSize = PartitionFileWriter.CSR_HEADER_SIZE + 4L * (numVertices + 1) + 4;
+		boolean sizeOk;
+		if (flags == 0) {
+			sizeOk = size == minSize + 5L * numEdges;
+		} else {
+			sizeOk = (flags & ~(PartitionFileWriter.DSTS_VARINT | PartitionFileWriter.LABELS_RLE)) == 0
+					&& size >= minSize + 16;
+		}
+		if (numVertices < 0 || numEdges < 0 || !sizeOk) {
+			// a version 1 file that happens to start with the magic
+			buf.order(ByteOrder.BIG_ENDIAN);
+			return null;
+		}
+
+		if (verify) {
+			crc = new CRC32();
+			crcScratch = threadCrcScratch.get();
+			crcEnd = size - 4;
+			updateCrc(start, buf.limit());
+		}
+		buf.position(start + PartitionFileWriter.CSR_HEADER_SIZE);
+		return new int[] { firstSrc, numVertices, flags };
+	}
+
+	private int[] readOffsets(int numVertices) throws IOException {
+		int[] offsets = new int[numVertices + 1];
+		readInts(offsets, 0, offsets.length);
+		return offsets;
+	}
+
+	private void decodeCsr(String fileName, int[] header, int firstSrc, int[][] partEdges, byte[][] partEdgeVals,
+			int[] lastAddedEdgePos) throws IOException {
+		int numVertices = header[1];
+		int flags = header[2];
+		int[] offsets = readOffsets(numVertices);
+		int shift = header[0] - firstSrc;
+
+		// the column lengths are only needed to skip columns
+		if (flags != 0) {
+			if (!ensure(16))
+				throw new IOException("Unexpected end of " + fileName);
+			buf.position(buf.position() + 16);
+		}
+
+		boolean varintDsts = (flags & PartitionFileWriter.DSTS_VARINT) != 0;
+		for (int i = 0; i < numVertices; i++) {
+			int count = offsets[i + 1] - offsets[i];
+			if (count == 0)
+				continue;
+			if (varintDsts)
+				readVarintRow(partEdges[i + shift], lastAddedEdgePos[i + shift] + 1, count, header[0] + i);
+			else
+				readInts(partEdges[i + shift], lastAddedEdgePos[i + shift] + 1, count);
+		}
+
+		boolean rleLabels = (flags & PartitionFileWriter.LABELS_RLE) != 0;
+		for (int i = 0; i < numVertices; i++) {
+			int count = offsets[i + 1] - offsets[i];
+			if (count == 0)
+				continue;
+			if (rleLabels)
+				readRleLabels(partEdgeVals[i + shift], lastAddedEdgePos[i + shift] + 1, count);
+			else
+				readBytes(partEdgeVals[i + shift], lastAddedEdgePos[i + shift] + 1, count);
+			lastAddedEdgePos[i + shift] += count;
+		}
+
+		if (!ensure(4))
+			throw new IOException("Unexpected end of " + fileName);
+		if (buf.getInt() != (int) crc.getValue())
+			throw new IOException("Checksum mismatch in " + fileName);
+	}
+
+	private void readInts(int[] dst, int off, int len) throws IOException {
+		ByteBuffer buf = this.buf;
+		if (len < MIN_BULK_INTS) {
+			for (int i = off; i < off + len; i++) {
+				if (!ensure(4))
+					throw new IOException("Unexpected end of partition file");
+				dst[i] = buf.getInt();
+			}
+			return;
+		}
+		while (len > 0) {
+			if (!ensure(4))
+				throw new IOException("Unexpected end of partition file");
+			int n = Math.min(len, buf.remaining() >> 2);
+			buf.asIntBuffer().get(dst, off, n);
+			buf.position(buf.position() + (n << 2));
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Decodes a row of zigzag varint differences, starting from the source
+	 * vertex id. Any varint is followed by at least the checksum, so a full
+	 * MAX_VARINT_SIZE bytes can always be buffered.
+	 */
+	private void readVarintRow(int[] dst, int off, int len, int prev) throws IOException {
+		ByteBuffer buf = this.buf;
+		for (int i = off; i < off + len; i++) {
+			if (buf.remaining() < PartitionFileWriter.MAX_VARINT_SIZE && !ensure(PartitionFileWriter.MAX_VARINT_SIZE))
+				throw new IOException("Unexpected end of partition file");
+			int v = readVarint(buf);
+			prev += (v >>> 1) ^ -(v & 1);
+			dst[i] = prev;
+		}
+	}
+
+	private void readRleLabels(byte[] dst, int off, int len) throws IOException {
+		while (len > 0) {
+			if (runLeft == 0) {
+				if (!ensure(1 + PartitionFileWriter.MAX_VARINT_SIZE))
+					throw new IOException("Unexpected end of partition file");
+				runLabel = buf.get();
+				runLeft = readVarint(buf);
+			}
+			int n = Math.min(len, runLeft);
+			Arrays.fill(dst, off, off + n, runLabel);
+			runLeft -= n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	private static int readVarint(ByteBuffer buf) {
+		int b = buf.get();
+		int v = b & 0x7F;
+		for (int shift = 7; b < 0; shift += 7) {
+			b = buf.get();
+			v |= (b & 0x7F) << shift;
+		}
+		return v;
+	}
+
+	private void readBytes(byte[] dst, int off, int len) throws IOException {
+		while (len > 0) {
+			if (!ensure(1))
+				throw new IOException("Unexpected end of partition file");
+			int n = Math.min(len, buf.remaining());
+			buf.get(dst, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Adds the bytes of buf between from and to, up to crcEnd, to the
+	 * checksum.
+	 */
+	private void updateCrc(int from, int to) {
+		int n = (int) Math.min(to - from, crcEnd - crcPos);
+		if (n <= 0)
+			return;
+		ByteBuffer view = buf.duplicate();
+		view.limit(from + n);
+		view.position(from);
+		view.get(crcScratch, 0, n);
+		crc.update(crcScratch, 0, n);
+		crcPos += n;
+	}
+
+	private void decode(int firstSrc, int[][] partEdges, byte[][] partEdgeVals, int[] lastAddedEdgePos)
+			throws IOException {
+		ByteBuffer buf = this.buf;
+		while (ensure(8)) {
+			int arraySrcVId = buf.getInt() - firstSrc;
+			int count = buf.getInt();
+
+			int[] edges = partEdges[arraySrcVId];
+			byte[] vals = partEdgeVals[arraySrcVId];
+			int pos = lastAddedEdgePos[arraySrcVId];
+			int left = count;
+			while (left > 0 && ensure(EDGE_SIZE)) {
+				int batch = Math.min(left, buf.remaining() / EDGE_SIZE);
+				for (int j = 0; j < batch; j++) {
+					pos++;
+					edges[pos] = buf.getInt();
+					vals[pos] = buf.get();
+				}
+				left -= batch;
+			}
+			lastAddedEdgePos[arraySrcVId] = pos;
+			if (left > 0)
+				break;
+		}
+	}
+
+	/**
+	 * Makes sure n bytes are buffered.
+	 *
+	 * @param n
+	 * @return false if the file ends first
+	 * @throws IOException
+	 */
+	private boolean ensure(int n) throws IOException {
+		if (buf.remaining() >= n)
+			return true;
+		buf.compact();
+		while (buf.position() < n && !eof) {
+			int from = buf.position();
+			if (channel.read(buf) == -1)
+				eof = true;
+			else if (crc != null)
+				updateCrc(from, buf.position());
+		}
+		buf.flip();
+		return buf.remaining() >= n;
+	}
+
+}
@@ -0,0 +1,506 @@
+package edu.uci.ics.cs.graspan.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import edu.uci.ics.cs.graspan.dispatcher.GlobalParams;
+
+/**
+ * Writes partition files in the CSR format (version 2). All fields are
+ * little-endian and every column starts at a multiple of 4 bytes, so a file
+ * can be read with bulk copies or mapped and used in place:
+ *
+ * <pre>
+ * header   magic (int), version (int), flags (int), firstSrc (int),
+ *          numVertices (int), reserved (int), numEdges (long)
+ * offsets  int[numVertices + 1], edges of vertex firstSrc + i are at
+ *          offsets[i] .. offsets[i + 1] - 1 of the columns
+ * dsts     int[numEdges]
+ * labels   byte[numEdges]
+ * checksum CRC32 of all preceding bytes (int)
+ * </pre>
+ *
+ * The degrees of the vertices follow from the offsets, so no degrees file is
+ * written next to a CSR partition.
+ *
+ * When GlobalParams.compressPartitions() is set, whole partitions may be
+ * written with encoded columns instead, as marked in the flags. The offsets
+ * are then followed by the byte lengths of the two columns (long, long). With
+ * DSTS_VARINT, each destination is stored as the zigzag varint of its
+ * difference to the previous destination of its row, the first one to the
+ * source vertex itself. With LABELS_RLE, the label column is a sequence of
+ * (label (byte), run length (varint)) pairs that runs across rows. Each
+ * encoding is only used when it makes its column smaller.
+ */
+public class PartitionFileWriter {
+
+	// "GSP2" when the first four bytes are read in order
+	static final int CSR_MAGIC = 0x32505347;
+	static final int CSR_VERSION = 2;
+	static final int CSR_HEADER_SIZE = 32;
+
+	// flags of the encoded columns
+	static final int DSTS_VARINT = 1;
+	static final int LABELS_RLE = 2;
+
+	static final int MAX_VARINT_SIZE = 5;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	// rows handed to one gather write, and the average length of the rows
+	// of a label column that is written from the rows themselves instead of
+	// being copied into the buffer first
+	private static final int GATHER_ROWS = 1024;
+	private static final int GATHER_MIN_ROW_LENGTH = 64;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final String fileName;
+
+	private final int firstSrc;
+	private final int[] offsets;
+	private final long dstsStart;
+	private final long labelsStart;
+	private final long checksumPos;
+
+	// number of edges written so far for each vertex
+	private final int[] fill;
+
+	// consecutive runs of the two columns waiting to be written, starting at
+	// the file positions pendingDstsPos and pendingLabelsPos
+	private final ByteBuffer pendingDsts;
+	private final ByteBuffer pendingLabels;
+	private long pendingDstsPos = -1;
+	private long pendingLabelsPos = -1;
+
+	/**
+	 * Creates a partition file whose rows are filled in any order through
+	 * writeEdges(). The degrees of all the vertices must be known up front.
+	 *
+	 * @param fileName
+	 * @param firstSrc
+	 * @param outDegs
+	 *            - degree of vertex firstSrc + i at position i
+	 * @throws IOException
+	 */
+	public PartitionFileWriter(String fileName, int firstSrc, int[] outDegs) throws IOException {
+		this.fileName = fileName;
+		this.firstSrc = firstSrc;
+		this.offsets = new int[outDegs.length + 1];
+		long numEdges = 0;
+		for (int i = 0; i < outDegs.length; i++) {
+			numEdges += outDegs[i];
+			offsets[i + 1] = checkNumEdges(numEdges);
+		}
+		this.fill = new int[outDegs.length];
+		this.dstsStart = CSR_HEADER_SIZE + 4L * offsets.length;
+		this.labelsStart = dstsStart + 4L * numEdges;
+		this.checksumPos = labelsStart + numEdges;
+
+		PartitionSegments.deleteSegments(fileName);
+		this.file = new RandomAccessFile(fileName, "rw");
+		this.channel = file.getChannel();
+		file.setLength(0);
+		file.setLength(checksumPos + 4);
+
+		ByteBuffer buf = newBuffer();
+		putHeader(buf, 0, firstSrc, outDegs.length, numEdges);
+		putInts(buf, offsets, 0, offsets.length, channel, null);
+		drain(buf, channel, null);
+
+		this.pendingDsts = newBuffer();
+		this.pendingLabels = newBuffer();
+	}
+
+	/**
+	 * Writes a complete partition in one pass, replacing the file and its
+	 * delta segments. A row ends at its first -1 or at the end of its array;
+	 * null rows are empty. The partition is written next to the file and
+	 * renamed over it, so that links to the old file, as kept by checkpoints,
+	 * still see the old partition.
+	 *
+	 * @param fileName
+	 * @param firstSrc
+	 *            - the id of the vertex of row 0
+	 * @param edgs
+	 * @param vals
+	 * @throws IOException
+	 */
+	public static void writePartition(String fileName, int firstSrc, int[][] edgs, byte[][] vals) throws IOException {
+		File tmp = new File(fileName + ".tmp");
+		writeRows(tmp.getPath(), firstSrc, edgs, vals);
+		File file = new File(fileName);
+		if (!tmp.renameTo(file) && (!file.delete() || !tmp.renameTo(file)))
+			throw new IOException("Could not replace " + fileName);
+		PartitionSegments.deleteSegments(fileName);
+	}
+
+	/**
+	 * Writes rows as a CSR file, leaving any delta segments of it alone.
+	 */
+	static void writeRows(String fileName, int firstSrc, int[][] edgs, byte[][] vals) throws IOException {
+		int numVertices = edgs.length;
+		int[] offsets = new int[numVertices + 1];
+		long numEdges = 0;
+		for (int i = 0; i < numVertices; i++) {
+			numEdges += rowLength(edgs[i]);
+			offsets[i + 1] = checkNumEdges(numEdges);
+		}
+
+		int flags = 0;
+		long dstsBytes = 4 * numEdges;
+		long labelsBytes = numEdges;
+		if (GlobalParams.compressPartitions()) {
+			long varintBytes = varintDstsSize(firstSrc, edgs, offsets);
+			if (varintBytes < dstsBytes) {
+				flags |= DSTS_VARINT;
+				dstsBytes = varintBytes;
+			}
+			long rleBytes = rleLabelsSize(vals, offsets);
+			if (rleBytes < labelsBytes) {
+				flags |= LABELS_RLE;
+				labelsBytes = rleBytes;
+			}
+		}
+
+		RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			file.setLength(0);
+			CRC32 crc = new CRC32();
+			ByteBuffer buf = newBuffer();
+
+			putHeader(buf, flags, firstSrc, numVertices, numEdges);
+			putInts(buf, offsets, 0, offsets.length, channel, crc);
+			if (flags != 0) {
+				if (buf.remaining() < 16)
+					drain(buf, channel, crc);
+				buf.putLong(dstsBytes);
+				buf.putLong(labelsBytes);
+			}
+			for (int i = 0; i < numVertices; i++) {
+				if ((flags & DSTS_VARINT) != 0) {
+					putVarintRow(buf, firstSrc + i, edgs[i], offsets[i + 1] - offsets[i], channel, crc);
+				} else {
+					putInts(buf, edgs[i], 0, offsets[i + 1] - offsets[i], channel, crc);
+				}
+			}
+			if ((flags & LABELS_RLE) != 0) {
+				putRleLabels(buf, vals, offsets, channel, crc);
+			} else if (numEdges >= (long) GATHER_MIN_ROW_LENGTH * numVertices) {
+				drain(buf, channel, crc);
+				gatherBytes(vals, offsets, channel, crc);
+			} else {
+				for (int i = 0; i < numVertices; i++) {
+					putBytes(buf, vals[i], offsets[i + 1] - offsets[i], channel, crc);
+				}
+			}
+			drain(buf, channel, crc);
+			buf.putInt((int) crc.getValue());
+			drain(buf, channel, null);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Appends n edges to the row of srcVId, after the edges already written
+	 * for it.
+	 *
+	 * @param srcVId
+	 * @param dsts
+	 * @param vals
+	 * @param n
+	 * @throws IOException
+	 */
+	public void writeEdges(int srcVId, int[] dsts, byte[] vals, int n) throws IOException {
+		writeEdges(srcVId, dsts, vals, 0, n);
+	}
+
+	/**
+	 * Appends the n edges starting at off in dsts and vals to the row of
+	 * srcVId.
+	 *
+	 * @param srcVId
+	 * @param dsts
+	 * @param vals
+	 * @param off
+	 * @param n
+	 * @throws IOException
+	 */
+	public void writeEdges(int srcVId, int[] dsts, byte[] vals, int off, int n) throws IOException {
+		int row = srcVId - firstSrc;
+		if (fill[row] + n > offsets[row + 1] - offsets[row]) {
+			throw new IOException("Vertex " + srcVId + " has more edges than its degree in " + fileName);
+		}
+		long edgePos = (long) offsets[row] + fill[row];
+		fill[row] += n;
+
+		if (pendingDstsPos + pendingDsts.position() != dstsStart + 4 * edgePos) {
+			flushPending();
+			pendingDstsPos = dstsStart + 4 * edgePos;
+			pendingLabelsPos = labelsStart + edgePos;
+		}
+		for (int i = 0; i < n; i++) {
+			if (pendingDsts.remaining() < 4) {
+				flushPending();
+				pendingDstsPos = dstsStart + 4 * (edgePos + i);
+				pendingLabelsPos = labelsStart + edgePos + i;
+			}
+			pendingDsts.putInt(dsts[off + i]);
+			pendingLabels.put(vals[off + i]);
+		}
+	}
+
+	/**
+	 * Writes the remaining edges and the checksum, and closes the file.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			flushPending();
+			for (int i = 0; i < fill.length; i++) {
+				if (fill[i] != offsets[i + 1] - offsets[i]) {
+					throw new IOException("Vertex " + (firstSrc + i) + " is missing edges in " + fileName);
+				}
+			}
+
+			CRC32 crc = new CRC32();
+			ByteBuffer buf = newBuffer();
+			long pos = 0;
+			while (pos < checksumPos) {
+				buf.clear();
+				if (checksumPos - pos < buf.capacity()) {
+					buf.limit((int) (checksumPos - pos));
+				}
+				int n = channel.read(buf, pos);
+				if (n == -1) {
+					throw new IOException("Unexpected end of " + fileName);
+				}
+				crc.update(buf.array(), 0, n);
+				pos += n;
+			}
+			buf.clear();
+			buf.putInt((int) crc.getValue());
+			buf.flip();
+			writeFully(channel, buf, checksumPos);
+		} finally {
+			file.close();
+		}
+	}
+
+	private void flushPending() throws IOException {
+		if (pendingDsts.position() > 0) {
+			pendingDsts.flip();
+			writeFully(channel, pendingDsts, pendingDstsPos);
+			pendingLabels.flip();
+			writeFully(channel, pendingLabels, pendingLabelsPos);
+		}
+		pendingDsts.clear();
+		pendingLabels.clear();
+		pendingDstsPos = -1;
+		pendingLabelsPos = -1;
+	}
+
+	private static ByteBuffer newBuffer() {
+		return ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int rowLength(int[] edgs) {
+		if (edgs == null)
+			return 0;
+		int n = 0;
+		while (n < edgs.length && edgs[n] != -1)
+			n++;
+		return n;
+	}
+
+	private static int checkNumEdges(long numEdges) throws IOException {
+		if (numEdges > Integer.MAX_VALUE) {
+			throw new IOException("Partition has more than " + Integer.MAX_VALUE + " edges");
+		}
+		return (int) numEdges;
+	}
+
+	private static int zigzag(int delta) {
+		return (delta << 1) ^ (delta >> 31);
+	}
+
+	private static int varintSize(int v) {
+		int size = 1;
+		while ((v & ~0x7F) != 0) {
+			v >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	private static long varintDstsSize(int firstSrc, int[][] edgs, int[] offsets) {
+		long size = 0;
+		for (int i = 0; i < edgs.length; i++) {
+			int prev = firstSrc + i;
+			for (int k = 0; k < offsets[i + 1] - offsets[i]; k++) {
+				size += varintSize(zigzag(edgs[i][k] - prev));
+				prev = edgs[i][k];
+			}
+		}
+		return size;
+	}
+
+	private static long rleLabelsSize(byte[][] vals, int[] offsets) {
+		long size = 0;
+		int run = 0;
+		byte label = 0;
+		for (int i = 0; i < vals.length; i++) {
+			for (int k = 0; k < offsets[i + 1] - offsets[i]; k++) {
+				if (run != 0 && vals[i][k] == label) {
+					run++;
+					continue;
+				}
+				if (run != 0)
+					size += 1 + varintSize(run);
+				label = vals[i][k];
+				run = 1;
+			}
+		}
+		if (run != 0)
+			size += 1 + varintSize(run);
+		return size;
+	}
+
+	private static void putVarint(ByteBuffer buf, int v) {
+		while ((v & ~0x7F) != 0) {
+			buf.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buf.put((byte) v);
+	}
+
+	private static void putVarintRow(ByteBuffer buf, int srcVId, int[] edgs, int len, FileChannel channel, CRC32 crc)
+			throws IOException {
+		int prev = srcVId;
+		for (int k = 0; k < len; k++) {
+			if (buf.remaining() < MAX_VARINT_SIZE)
+				drain(buf, channel, crc);
+			putVarint(buf, zigzag(edgs[k] - prev));
+			prev = edgs[k];
+		}
+	}
+
+	private static void putRleLabels(ByteBuffer buf, byte[][] vals, int[] offsets, FileChannel channel, CRC32 crc)
+			throws IOException {
+		int run = 0;
+		byte label = 0;
+		for (int i = 0; i < vals.length; i++) {
+			for (int k = 0; k < offsets[i + 1] - offsets[i]; k++) {
+				if (run != 0 && vals[i][k] == label) {
+					run++;
+					continue;
+				}
+				if (run != 0)
+					putRun(buf, label, run, channel, crc);
+				label = vals[i][k];
+				run = 1;
+			}
+		}
+		if (run != 0)
+			putRun(buf, label, run, channel, crc);
+	}
+
+	private static void putRun(ByteBuffer buf, byte label, int run, FileChannel channel, CRC32 crc)
+			throws IOException {
+		if (buf.remaining() < 1 + MAX_VARINT_SIZE)
+			drain(buf, channel, crc);
+		buf.put(label);
+		putVarint(buf, run);
+	}
+
+	private static void putHeader(ByteBuffer buf, int flags, int firstSrc, int numVertices, long numEdges) {
+		buf.putInt(CSR_MAGIC);
+		buf.putInt(CSR_VERSION);
+		buf.putInt(flags);
+		buf.putInt(firstSrc);
+		buf.putInt(numVertices);
+		buf.putInt(0);
+		buf.putLong(numEdges);
+	}
+
+	private static void putInts(ByteBuffer buf, int[] src, int off, int len, FileChannel channel, CRC32 crc)
+			throws IOException {
+		for (int i = off; i < off + len; i++) {
+			if (buf.remaining() < 4)
+				drain(buf, channel, crc);
+			buf.putInt(src[i]);
+		}
+	}
+
+	private static void putBytes(ByteBuffer buf, byte[] src, int len, FileChannel channel, CRC32 crc)
+			throws IOException {
+		int off = 0;
+		while (off < len) {
+			if (!buf.hasRemaining())
+				drain(buf, channel, crc);
+			int n = Math.min(len - off, buf.remaining());
+			buf.put(src, off, n);
+			off += n;
+		}
+	}
+
+	/**
+	 * Writes the first offsets[i + 1] - offsets[i] bytes of each row at the
+	 * current position of the channel with gather writes, straight from the
+	 * rows.
+	 */
+	private static void gatherBytes(byte[][] rows, int[] offsets, FileChannel channel, CRC32 crc)
+			throws IOException {
+		ByteBuffer[] batch = new ByteBuffer[GATHER_ROWS];
+		int n = 0;
+		for (int i = 0; i < rows.length; i++) {
+			int len = offsets[i + 1] - offsets[i];
+			if (len == 0)
+				continue;
+			crc.update(rows[i], 0, len);
+			batch[n++] = ByteBuffer.wrap(rows[i], 0, len);
+			if (n == batch.length) {
+				writeGathered(channel, batch, n);
+				n = 0;
+			}
+		}
+		writeGathered(channel, batch, n);
+	}
+
+	private static void writeGathered(FileChannel channel, ByteBuffer[] batch, int n) throws IOException {
+		int first = 0;
+		while (first < n) {
+			channel.write(batch, first, n - first);
+			while (first < n && !batch[first].hasRemaining())
+				first++;
+		}
+	}
+
+	/**
+	 * Writes out the filled part of buf at the current position of the
+	 * channel, and adds it to the checksum if crc is not null.
+	 */
+	private static void drain(ByteBuffer buf, FileChannel channel, CRC32 crc) throws IOException {
+		buf.flip();
+		if (crc != null)
+			crc.update(buf.array(), 0, buf.limit());
+		while (buf.hasRemaining())
+			channel.write(buf);
+		buf.clear();
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining()) {
+			pos += channel.write(buf, pos);
+		}
+	}
+
+}
@@ -0,0 +1,220 @@
+package edu.uci.ics.cs.graspan.support;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * The partition metadata of a graph in one binary file, baseFilename.manifest,
+ * in place of the text partAllocTable, partSizes and edgeDestCounts files.
+ * All fields are little-endian:
+ *
+ * <pre>
+ * header       magic (int), version (int)
+ * table        numParts (int), numParts times partId (int), lastVId (int)
+ * sizes        numSizes (int), numSizes times partSize (long)
+ * edc          dimension (int), numEntries (int), numEntries times
+ *              partA (int), partB (int), count (long), for non-zero counts
+ * checksum     CRC32 of all preceding bytes (int)
+ * </pre>
+ *
+ * The file is read in one go and replaced atomically: a new manifest is
+ * written next to it and renamed over it.
+ */
+public class PartitionManifest {
+
+	// "GSPM" when the first four bytes are read in order
+	private static final int MAGIC = 0x4d505347;
+	private static final int VERSION = 1;
+
+	private int[][] partAllocTable = new int[0][2];
+	private long[] partSizes = new long[0];
+	private long[][] edgeDestCount = new long[0][0];
+
+	public static String fileName(String baseFilename) {
+		return baseFilename + ".manifest";
+	}
+
+	public static boolean exists(String baseFilename) {
+		return new File(fileName(baseFilename)).exists();
+	}
+
+	public int[][] getPartAllocTable() {
+		return partAllocTable;
+	}
+
+	public void setPartAllocTable(int[][] partAllocTable) {
+		this.partAllocTable = partAllocTable;
+	}
+
+	public long[] getPartSizes() {
+		return partSizes;
+	}
+
+	public void setPartSizes(long[] partSizes) {
+		this.partSizes = partSizes;
+	}
+
+	/**
+	 * Returns the edge destination counts as a square matrix indexed by
+	 * partition ids.
+	 *
+	 * @return
+	 */
+	public long[][] getEdgeDestCount() {
+		return edgeDestCount;
+	}
+
+	public void setEdgeDestCount(long[][] edgeDestCount) {
+		this.edgeDestCount = edgeDestCount;
+	}
+
+	/**
+	 * Reads the manifest of a graph, or returns an empty one if there is none
+	 * yet.
+	 *
+	 * @param baseFilename
+	 * @return
+	 * @throws IOException
+	 */
+	public static PartitionManifest readOrCreate(String baseFilename) throws IOException {
+		if (!exists(baseFilename))
+			return new PartitionManifest();
+		return read(baseFilename);
+	}
+
+	/**
+	 * Reads the manifest of a graph.
+	 *
+	 * @param baseFilename
+	 * @return
+	 * @throws IOException
+	 *             if the file is missing, truncated or corrupt
+	 */
+	public static PartitionManifest read(String baseFilename) throws IOException {
+		String fileName = fileName(baseFilename);
+		byte[] bytes;
+		FileInputStream in = new FileInputStream(fileName);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size < 24 || size > Integer.MAX_VALUE)
+				throw new IOException("Bad size of " + fileName);
+			bytes = new byte[(int) size];
+			ByteBuffer buf = ByteBuffer.wrap(bytes);
+			while (buf.hasRemaining() && channel.read(buf) != -1) {
+			}
+			if (buf.hasRemaining())
+				throw new IOException("Unexpected end of " + fileName);
+		} finally {
+			in.close();
+		}
+
+		ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 4);
+		if (buf.getInt(bytes.length - 4) != (int) crc.getValue())
+			throw new IOException("Checksum mismatch in " + fileName);
+		if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+			throw new IOException(fileName + " is not a partition manifest");
+
+		PartitionManifest manifest = new PartitionManifest();
+		try {
+			int numParts = buf.getInt();
+			int[][] partAllocTable = new int[numParts][2];
+			for (int i = 0; i < numParts; i++) {
+				partAllocTable[i][0] = buf.getInt();
+				partAllocTable[i][1] = buf.getInt();
+			}
+			manifest.partAllocTable = partAllocTable;
+
+			long[] partSizes = new long[buf.getInt()];
+			for (int i = 0; i < partSizes.length; i++) {
+				partSizes[i] = buf.getLong();
+			}
+			manifest.partSizes = partSizes;
+
+			int dim = buf.getInt();
+			int numEntries = buf.getInt();
+			long[][] edgeDestCount = new long[dim][dim];
+			for (int i = 0; i < numEntries; i++) {
+				int partA = buf.getInt();
+				int partB = buf.getInt();
+				edgeDestCount[partA][partB] = buf.getLong();
+			}
+			manifest.edgeDestCount = edgeDestCount;
+		} catch (RuntimeException e) {
+			// a negative count, or an entry past the matrix or the file
+			throw new IOException("Corrupt " + fileName, e);
+		}
+		return manifest;
+	}
+
+	/**
+	 * Replaces the manifest of a graph with this one.
+	 *
+	 * @param baseFilename
+	 * @throws IOException
+	 */
+	public void write(String baseFilename) throws IOException {
+		int numEntries = 0;
+		for (int i = 0; i < edgeDestCount.length; i++) {
+			for (int j = 0; j < edgeDestCount[i].length; j++) {
+				if (edgeDestCount[i][j] != 0)
+					numEntries++;
+			}
+		}
+		long size = 8 + 4 + 8L * partAllocTable.length + 4 + 8L * partSizes.length + 8 + 16L * numEntries + 4;
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("Manifest of " + baseFilename + " too large");
+
+		ByteBuffer buf = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(MAGIC);
+		buf.putInt(VERSION);
+		buf.putInt(partAllocTable.length);
+		for (int i = 0; i < partAllocTable.length; i++) {
+			buf.putInt(partAllocTable[i][0]);
+			buf.putInt(partAllocTable[i][1]);
+		}
+		buf.putInt(partSizes.length);
+		for (int i = 0; i < partSizes.length; i++) {
+			buf.putLong(partSizes[i]);
+		}
+		buf.putInt(edgeDestCount.length);
+		buf.putInt(numEntries);
+		for (int i = 0; i < edgeDestCount.length; i++) {
+			for (int j = 0; j < edgeDestCount[i].length; j++) {
+				if (edgeDestCount[i][j] != 0) {
+					buf.putInt(i);
+					buf.putInt(j);
+					buf.putLong(edgeDestCount[i][j]);
+				}
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), 0, buf.position());
+		buf.putInt((int) crc.getValue());
+		buf.flip();
+
+		File manifest = new File(fileName(baseFilename));
+		File tmp = new File(manifest.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			FileChannel channel = out.getChannel();
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			channel.force(true);
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(manifest) && (!manifest.delete() || !tmp.renameTo(manifest)))
+			throw new IOException("Could not replace " + manifest);
+	}
+
+}
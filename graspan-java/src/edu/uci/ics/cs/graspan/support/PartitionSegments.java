@@ -0,0 +1,200 @@
+package edu.uci.ics.cs.graspan.support;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Delta segments of CSR partition files. A segment is a CSR file over the
+ * same vertices as its partition that holds only edges added since the
+ * partition and its earlier segments were written, so that a partition that
+ * gained a few edges need not be rewritten. Segment k of a partition file is
+ * named partFile.delta.k, and segments are numbered from 0 without gaps.
+ *
+ * A partition is read as its base file merged with its segments, and is
+ * compacted into a single base file once its segments grow past
+ * COMPACTION_RATIO of the base. Writing a partition with
+ * PartitionFileWriter.writePartition drops its segments.
+ */
+public class PartitionSegments {
+
+	// total size of the segments, relative to the base, that calls for a
+	// compaction
+	private static final double COMPACTION_RATIO = 0.25;
+
+	public static String segmentName(String partFile, int k) {
+		return partFile + ".delta." + k;
+	}
+
+	public static int numSegments(String partFile) {
+		int k = 0;
+		while (new File(segmentName(partFile, k)).exists()) {
+			k++;
+		}
+		return k;
+	}
+
+	/**
+	 * Writes the rows as the next segment of a partition. Rows are as for
+	 * PartitionFileWriter.writePartition and must be sorted.
+	 *
+	 * @param partFile
+	 * @param firstSrc
+	 * @param edgs
+	 * @param vals
+	 * @return true if the partition should now be compacted
+	 * @throws IOException
+	 */
+	public static boolean appendSegment(String partFile, int firstSrc, int[][] edgs, byte[][] vals) throws IOException {
+		int k = numSegments(partFile);
+		PartitionFileWriter.writeRows(segmentName(partFile, k), firstSrc, edgs, vals);
+
+		long segmentsSize = 0;
+		for (int i = 0; i <= k; i++) {
+			segmentsSize += new File(segmentName(partFile, i)).length();
+		}
+		return segmentsSize > COMPACTION_RATIO * new File(partFile).length();
+	}
+
+	/**
+	 * Deletes the segments of a partition, last first, so that the remaining
+	 * ones stay numbered without gaps.
+	 *
+	 * @param partFile
+	 * @throws IOException
+	 */
+	public static void deleteSegments(String partFile) throws IOException {
+		for (int k = numSegments(partFile) - 1; k >= 0; k--) {
+			File segment = new File(segmentName(partFile, k));
+			if (!segment.delete())
+				throw new IOException("Could not delete " + segment);
+		}
+	}
+
+	/**
+	 * Fills outDegs with the degrees of a CSR partition and its segments.
+	 *
+	 * @param partFile
+	 * @param firstSrc
+	 * @param outDegs
+	 * @return false if the partition is not a CSR partition
+	 * @throws IOException
+	 */
+	public static boolean readOutDegrees(String partFile, int firstSrc, int[] outDegs) throws IOException {
+		if (!PartitionFileReader.readOutDegrees(partFile, firstSrc, outDegs))
+			return false;
+		int numSegments = numSegments(partFile);
+		if (numSegments == 0)
+			return true;
+		int[] segmentDegs = new int[outDegs.length];
+		for (int k = 0; k < numSegments; k++) {
+			PartitionFileReader.readOutDegrees(segmentName(partFile, k), firstSrc, segmentDegs);
+			for (int i = 0; i < outDegs.length; i++) {
+				outDegs[i] += segmentDegs[i];
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a partition and its segments into rows sized by readOutDegrees,
+	 * as PartitionFileReader.readPartition does for a single file, merging
+	 * the edges of each segment into the sorted rows.
+	 *
+	 * @param partFile
+	 * @param firstSrc
+	 * @param partEdges
+	 * @param partEdgeVals
+	 * @param lastAddedEdgePos
+	 * @throws IOException
+	 */
+	public static void readPartition(String partFile, int firstSrc, int[][] partEdges, byte[][] partEdgeVals,
+			int[] lastAddedEdgePos) throws IOException {
+		PartitionFileReader.readPartition(partFile, firstSrc, partEdges, partEdgeVals, lastAddedEdgePos);
+		int numSegments = numSegments(partFile);
+		if (numSegments == 0)
+			return;
+
+		int[] runStart = new int[lastAddedEdgePos.length];
+		int[] tmpEdgs = new int[0];
+		byte[] tmpVals = new byte[0];
+		for (int k = 0; k < numSegments; k++) {
+			for (int i = 0; i < runStart.length; i++) {
+				runStart[i] = lastAddedEdgePos[i] + 1;
+			}
+			PartitionFileReader.readPartition(segmentName(partFile, k), firstSrc, partEdges, partEdgeVals,
+					lastAddedEdgePos);
+			for (int i = 0; i < runStart.length; i++) {
+				int end = lastAddedEdgePos[i] + 1;
+				if (end == runStart[i] || runStart[i] == 0)
+					continue;
+				if (tmpEdgs.length < end) {
+					tmpEdgs = new int[end];
+					tmpVals = new byte[end];
+				}
+				mergeRuns(partEdges[i], partEdgeVals[i], runStart[i], end, tmpEdgs, tmpVals);
+			}
+		}
+	}
+
+	/**
+	 * Compacts a CSR partition and its segments into a new base file, which
+	 * replaces the old one before the segments are deleted.
+	 *
+	 * @param partFile
+	 * @throws IOException
+	 */
+	public static void compact(String partFile) throws IOException {
+		int[] range = PartitionFileReader.readCsrRange(partFile);
+		if (range == null)
+			throw new IOException(partFile + " is not a CSR partition");
+		int firstSrc = range[0];
+		int numVertices = range[1];
+
+		int[] outDegs = new int[numVertices];
+		readOutDegrees(partFile, firstSrc, outDegs);
+		int[][] edgs = new int[numVertices][];
+		byte[][] vals = new byte[numVertices][];
+		int[] lastAddedEdgePos = new int[numVertices];
+		for (int i = 0; i < numVertices; i++) {
+			edgs[i] = new int[outDegs[i]];
+			vals[i] = new byte[outDegs[i]];
+			lastAddedEdgePos[i] = -1;
+		}
+		readPartition(partFile, firstSrc, edgs, vals, lastAddedEdgePos);
+
+		File compacted = new File(partFile + ".compact");
+		PartitionFileWriter.writeRows(compacted.getPath(), firstSrc, edgs, vals);
+		File base = new File(partFile);
+		if (!compacted.renameTo(base) && (!base.delete() || !compacted.renameTo(base)))
+			throw new IOException("Could not replace " + partFile);
+		deleteSegments(partFile);
+	}
+
+	/**
+	 * Merges the sorted runs [0, mid) and [mid, end) of a row by destination,
+	 * keeping the edges of the first run first among equal destinations.
+	 */
+	private static void mergeRuns(int[] edgs, byte[] vals, int mid, int end, int[] tmpEdgs, byte[] tmpVals) {
+		System.arraycopy(edgs, 0, tmpEdgs, 0, end);
+		System.arraycopy(vals, 0, tmpVals, 0, end);
+		int a = 0, b = mid, out = 0;
+		while (a < mid && b < end) {
+			if (tmpEdgs[b] < tmpEdgs[a]) {
+				edgs[out] = tmpEdgs[b];
+				vals[out++] = tmpVals[b++];
+			} else {
+				edgs[out] = tmpEdgs[a];
+				vals[out++] = tmpVals[a++];
+			}
+		}
+		while (a < mid) {
+			edgs[out] = tmpEdgs[a];
+			vals[out++] = tmpVals[a++];
+		}
+		while (b < end) {
+			edgs[out] = tmpEdgs[b];
+			vals[out++] = tmpVals[b++];
+		}
+	}
+
+}
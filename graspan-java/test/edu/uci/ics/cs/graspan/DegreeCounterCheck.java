@@ -0,0 +1,139 @@
+package edu.uci.ics.cs.graspan;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import edu.uci.ics.cs.graspan.preproc.DegreeCounter;
+
+/**
+ * Counts random vertex ids with DegreeCounter and compares its degrees, its
+ * last vertex and the order of its cursor with those of a TreeMap. The cases
+ * cover dense ids, negative ids, ids spread over the whole int range, and
+ * counters moving from the chunks to the hash table part way. Prints a line
+ * per case and exits with 1 if any fails.
+ *
+ * usage: DegreeCounterCheck [seed]
+ */
+public class DegreeCounterCheck {
+
+	// the smallest memory of the dense counts, one chunk
+	private static final long MIN_DENSE_MEMORY = 4 << 16;
+
+	private final Random random;
+	private int numFailed;
+
+	public DegreeCounterCheck(long seed) {
+		this.random = new Random(seed);
+	}
+
+	public static void main(String args[]) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.currentTimeMillis();
+		System.out.println("seed " + seed);
+		DegreeCounterCheck check = new DegreeCounterCheck(seed);
+		check.run();
+		if (check.numFailed > 0) {
+			System.out.println(check.numFailed + " cases FAILED");
+			System.exit(1);
+		}
+		System.out.println("all cases passed");
+	}
+
+	public void run() {
+		check("negative ids", MIN_DENSE_MEMORY, new int[] { 5, -3, 100, -1 });
+		check("dense ids", 1L << 30, randomIds(100000, 0, 1 << 20));
+		check("dense ids from 1", 1L << 30, randomIds(1000, 1, 5000));
+		check("sparse ids", MIN_DENSE_MEMORY, randomIds(100000, Integer.MIN_VALUE, Integer.MAX_VALUE));
+		check("sparse non-negative ids", MIN_DENSE_MEMORY, randomIds(100000, 0, Integer.MAX_VALUE));
+		check("extreme ids", MIN_DENSE_MEMORY,
+				new int[] { Integer.MAX_VALUE, 0, Integer.MIN_VALUE, -1, 1, Integer.MAX_VALUE, Integer.MIN_VALUE });
+
+		// dense ids first, then ids that move the counts to the hash table
+		int[] dense = randomIds(50000, 0, 1 << 16);
+		int[] spread = randomIds(50000, -1000000, Integer.MAX_VALUE);
+		int[] ids = new int[dense.length + spread.length];
+		System.arraycopy(dense, 0, ids, 0, dense.length);
+		System.arraycopy(spread, 0, ids, dense.length, spread.length);
+		check("dense then sparse ids", MIN_DENSE_MEMORY, ids);
+
+		int[] negative = randomIds(1000, 0, 1000);
+		negative[negative.length / 2] = -7;
+		check("dense then a negative id", 1L << 30, negative);
+	}
+
+	/**
+	 * Returns n ids drawn from [min, max], with repeats.
+	 */
+	private int[] randomIds(int n, int min, int max) {
+		int[] ids = new int[n];
+		for (int i = 0; i < n; i++) {
+			// some ids again, so that degrees above one are counted
+			if (i > 0 && random.nextInt(4) == 0)
+				ids[i] = ids[random.nextInt(i)];
+			else
+				ids[i] = (int) (min + (long) (random.nextDouble() * ((long) max - min + 1)));
+		}
+		return ids;
+	}
+
+	/**
+	 * Counts the ids, half through increment() and half through add() with
+	 * the repeats of an id folded into one count, and compares the counter
+	 * with a TreeMap of the same counts.
+	 */
+	private void check(String name, long maxDenseMemory, int[] ids) {
+		DegreeCounter counter = new DegreeCounter(maxDenseMemory);
+		TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+		for (int i = 0; i < ids.length; i++) {
+			int count = 1;
+			while (random.nextBoolean() && i + 1 < ids.length && ids[i + 1] == ids[i]) {
+				count++;
+				i++;
+			}
+			if (count == 1)
+				counter.increment(ids[i]);
+			else
+				counter.add(ids[i], count);
+			Integer old = expected.get(ids[i]);
+			expected.put(ids[i], old == null ? count : old + count);
+		}
+		report(name, verify(counter, expected, ids.length));
+	}
+
+	/**
+	 * @return a description of the first difference, or null if there is
+	 *         none
+	 */
+	private static String verify(DegreeCounter counter, TreeMap<Integer, Integer> expected, long numEdges) {
+		if (counter.getNumVertices() != expected.size())
+			return counter.getNumVertices() + " vertices instead of " + expected.size();
+		if (counter.getNumEdges() != numEdges)
+			return counter.getNumEdges() + " edges instead of " + numEdges;
+		if (counter.getLastVertex() != expected.lastKey())
+			return "last vertex " + counter.getLastVertex() + " instead of " + expected.lastKey();
+
+		DegreeCounter.Cursor it = counter.cursor();
+		for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+			if (!it.next())
+				return "cursor ends before vertex " + e.getKey();
+			if (it.vertex() != e.getKey() || it.degree() != e.getValue())
+				return "cursor at (" + it.vertex() + ", " + it.degree() + ") instead of (" + e.getKey() + ", "
+						+ e.getValue() + ")";
+			if (counter.get(e.getKey()) != e.getValue())
+				return "degree of " + e.getKey() + " is " + counter.get(e.getKey()) + " instead of " + e.getValue();
+		}
+		if (it.next())
+			return "cursor goes on to vertex " + it.vertex();
+		return null;
+	}
+
+	private void report(String name, String error) {
+		if (error == null) {
+			System.out.println("ok     " + name);
+		} else {
+			System.out.println("FAILED " + name + ": " + error);
+			numFailed++;
+		}
+	}
+
+}
@@ -8,6 +8,8 @@ import java.io.IOException;
 import java.util.logging.Logger;
 
 import edu.uci.ics.cs.graspan.support.GraspanLogger;
+import edu.uci.ics.cs.graspan.support.PartitionFileReader;
+import edu.uci.ics.cs.graspan.support.PartitionSegments;
 
 /**
  * 
@@ -60,6 +62,13 @@ public class PartitionFileChecker {
 	 * @throws IOException
 	 */
 	private void readAndPrint(int partId) throws IOException {
+		String partFile = baseFilename + ".partition." + partId;
+		int[] range = PartitionFileReader.readCsrRange(partFile);
+		if (range != null) {
+			readAndPrintCsr(partFile, range[0], range[1]);
+			return;
+		}
+
 		DataInputStream dataIn = new DataInputStream(new BufferedInputStream(new FileInputStream(baseFilename + ".partition." + partId)));
 		int srcVId, destVId;
 		byte edgVal;
@@ -116,4 +125,34 @@ public class PartitionFileChecker {
 		dataIn.close();
 	}
 
+	/**
+	 * Prints the edges of a CSR partition file and its delta segments in the
+	 * order of their rows.
+	 * 
+	 * @param partFile
+	 * @param firstSrc
+	 * @param numVertices
+	 * @throws IOException
+	 */
+	private void readAndPrintCsr(String partFile, int firstSrc, int numVertices) throws IOException {
+		int[] outDegs = new int[numVertices];
+		PartitionSegments.readOutDegrees(partFile, firstSrc, outDegs);
+
+		int[][] edgs = new int[numVertices][];
+		byte[][] vals = new byte[numVertices][];
+		int[] lastAddedEdgePos = new int[numVertices];
+		for (int i = 0; i < numVertices; i++) {
+			edgs[i] = new int[outDegs[i]];
+			vals[i] = new byte[outDegs[i]];
+			lastAddedEdgePos[i] = -1;
+		}
+		PartitionSegments.readPartition(partFile, firstSrc, edgs, vals, lastAddedEdgePos);
+
+		for (int i = 0; i < numVertices; i++) {
+			for (int j = 0; j <= lastAddedEdgePos[i]; j++) {
+				System.out.println((firstSrc + i) + "\t" + edgs[i][j] + "\t" + vals[i][j]);//Edge List Print Style
+			}
+		}
+	}
+
 }
@@ -0,0 +1,328 @@
+package edu.uci.ics.cs.graspan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import edu.uci.ics.cs.graspan.dispatcher.GlobalParams;
+import edu.uci.ics.cs.graspan.support.PartitionFileReader;
+import edu.uci.ics.cs.graspan.support.PartitionFileWriter;
+
+/**
+ * Writes random partitions with PartitionFileWriter and reads them back with
+ * PartitionFileReader, with and without compressPartitions. The rows include
+ * empty and null rows, rows ending at a -1, all 256 labels, long label runs,
+ * destinations far apart, and rows that end around the 1MB buffers of the
+ * writer and the reader. Prints a line per case and exits with 1 if any
+ * fails.
+ *
+ * usage: PartitionFileRoundTrip [directory] [seed]
+ */
+public class PartitionFileRoundTrip {
+
+	// the size of the buffers of PartitionFileWriter and PartitionFileReader
+	private static final int IO_BUFFER_SIZE = 1 << 20;
+
+	private final File dir;
+	private final Random random;
+	private int numFailed;
+
+	public PartitionFileRoundTrip(File dir, long seed) {
+		this.dir = dir;
+		this.random = new Random(seed);
+	}
+
+	public static void main(String args[]) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : System.currentTimeMillis();
+		System.out.println("seed " + seed);
+		PartitionFileRoundTrip roundTrip = new PartitionFileRoundTrip(dir, seed);
+		roundTrip.run();
+		if (roundTrip.numFailed > 0) {
+			System.out.println(roundTrip.numFailed + " cases FAILED");
+			System.exit(1);
+		}
+		System.out.println("all cases passed");
+	}
+
+	public void run() throws IOException {
+		for (boolean compress : new boolean[] { false, true }) {
+			GlobalParams.setCompressPartitions(compress);
+			String mode = compress ? "compressed" : "plain";
+
+			check(mode + " short rows", 1, shortRows(5000, false));
+			check(mode + " sorted short rows", 100, shortRows(5000, true));
+			check(mode + " long rows", 7, longRows());
+			check(mode + " buffer boundary rows", 1000, boundaryRows());
+			check(mode + " varint and run boundary rows", 3, varintRows());
+			check(mode + " empty partition", 1, new Rows(new int[][] { null, {}, null }, new byte[][] { null, {}, null }));
+			checkStreamed(mode + " streamed rows", 1, shortRows(5000, false));
+			checkStreamed(mode + " streamed boundary rows", 1000, boundaryRows());
+			checkStreamed(mode + " streamed varint and run boundary rows", 3, varintRows());
+			checkCorruption(mode + " corrupt byte", 1, shortRows(2000, true));
+		}
+		GlobalParams.setCompressPartitions(false);
+	}
+
+	/**
+	 * The rows of a partition, as passed to writePartition(), and the edges
+	 * each of them is expected to be read back with.
+	 */
+	private static class Rows {
+		final int[][] edgs;
+		final byte[][] vals;
+		final int[] lengths;
+
+		Rows(int[][] edgs, byte[][] vals) {
+			this.edgs = edgs;
+			this.vals = vals;
+			this.lengths = new int[edgs.length];
+			for (int i = 0; i < edgs.length; i++) {
+				int n = 0;
+				while (edgs[i] != null && n < edgs[i].length && edgs[i][n] != -1) {
+					n++;
+				}
+				lengths[i] = n;
+			}
+		}
+	}
+
+	/**
+	 * Rows of up to 20 edges, a fifth of them empty or null, and some ending
+	 * at a -1 before the end of their arrays. Labels are drawn from all 256
+	 * values; destinations are spread over the whole int range, or sorted
+	 * and close together.
+	 */
+	private Rows shortRows(int numVertices, boolean sorted) {
+		int[][] edgs = new int[numVertices][];
+		byte[][] vals = new byte[numVertices][];
+		for (int i = 0; i < numVertices; i++) {
+			int kind = random.nextInt(10);
+			if (kind == 0)
+				continue;
+			int n = kind == 1 ? 0 : 1 + random.nextInt(20);
+			int extra = random.nextInt(4) == 0 ? 1 + random.nextInt(3) : 0;
+			edgs[i] = new int[n + extra];
+			vals[i] = new byte[n + extra];
+			int dst = random.nextInt(1000);
+			for (int j = 0; j < n; j++) {
+				dst = sorted ? dst + random.nextInt(5) : randomDst();
+				edgs[i][j] = dst;
+				vals[i][j] = sorted && random.nextInt(4) != 0 && j > 0 ? vals[i][j - 1] : (byte) random.nextInt(256);
+			}
+			for (int j = n; j < n + extra; j++) {
+				edgs[i][j] = -1;
+			}
+		}
+		return new Rows(edgs, vals);
+	}
+
+	/**
+	 * Few rows with thousands of edges each, enough for the label column to
+	 * be gathered from the rows, and a row longer than the buffers.
+	 */
+	private Rows longRows() {
+		int[] lengths = { 5000, 0, 70000, IO_BUFFER_SIZE + 3, 128, 1 };
+		int[][] edgs = new int[lengths.length][];
+		byte[][] vals = new byte[lengths.length][];
+		for (int i = 0; i < lengths.length; i++) {
+			edgs[i] = new int[lengths[i]];
+			vals[i] = new byte[lengths[i]];
+			for (int j = 0; j < lengths[i]; j++) {
+				edgs[i][j] = i % 2 == 0 ? 7 + j : randomDst();
+				vals[i][j] = (byte) (i % 2 == 0 ? j / 1000 : random.nextInt(256));
+			}
+		}
+		return new Rows(edgs, vals);
+	}
+
+	/**
+	 * Rows whose edges end just before, at and just after multiples of the
+	 * buffers, for the destination column as ints and as varints, and for
+	 * the label column.
+	 */
+	private Rows boundaryRows() {
+		int ints = IO_BUFFER_SIZE / 4;
+		int[] lengths = { ints - 9, 1, 0, 1, ints - 1, 1, 2, IO_BUFFER_SIZE - 2 * ints - 3, 1, 1, 1, 0, 5 };
+		int[][] edgs = new int[lengths.length][];
+		byte[][] vals = new byte[lengths.length][];
+		for (int i = 0; i < lengths.length; i++) {
+			edgs[i] = new int[lengths[i]];
+			vals[i] = new byte[lengths[i]];
+			for (int j = 0; j < lengths[i]; j++) {
+				// alternate short and 5 byte varints between runs of rows
+				edgs[i][j] = i % 3 == 0 ? 1000 + j : (j % 2 == 0 ? Integer.MAX_VALUE - j : j);
+				vals[i][j] = (byte) (j % 256);
+			}
+		}
+		return new Rows(edgs, vals);
+	}
+
+	/**
+	 * Rows with several MB of destinations of varints of 1 to 5 bytes and of
+	 * labels in runs of 3 to 6 and a few runs of hundreds, which both
+	 * compress, so that varints and runs are cut by the ends of the buffers.
+	 */
+	private Rows varintRows() {
+		int[] lengths = { IO_BUFFER_SIZE - 1, 3, 0, IO_BUFFER_SIZE, 777777, 1 };
+		int[] varintBytes = { 1, 1, 2, 3, 5 };
+		int[][] edgs = new int[lengths.length][];
+		byte[][] vals = new byte[lengths.length][];
+		int run = 0;
+		byte val = 0;
+		for (int i = 0; i < lengths.length; i++) {
+			edgs[i] = new int[lengths[i]];
+			vals[i] = new byte[lengths[i]];
+			int dst = 3 + i;
+			for (int j = 0; j < lengths[i]; j++) {
+				// a zigzag value of the chosen number of bytes
+				int k = varintBytes[random.nextInt(varintBytes.length)];
+				long low = 1L << (7 * (k - 1)), high = Math.min(1L << (7 * k), 1L << 32);
+				int zigzag = (int) (low + (long) (random.nextDouble() * (high - low)));
+				dst += (zigzag >>> 1) ^ -(zigzag & 1);
+				if (dst == -1)
+					dst = 0;
+				edgs[i][j] = dst;
+
+				if (run == 0) {
+					run = random.nextInt(50) == 0 ? 100 + random.nextInt(300) : 3 + random.nextInt(4);
+					val = (byte) random.nextInt(256);
+				}
+				vals[i][j] = val;
+				run--;
+			}
+		}
+		return new Rows(edgs, vals);
+	}
+
+	private int randomDst() {
+		switch (random.nextInt(8)) {
+		case 0:
+			return Integer.MAX_VALUE;
+		case 1:
+			return Integer.MIN_VALUE;
+		case 2:
+			return 0;
+		default:
+			int dst = random.nextInt();
+			return dst == -1 ? 1 : dst;
+		}
+	}
+
+	/**
+	 * Writes the rows with writePartition() and reads them back.
+	 */
+	private void check(String name, int firstSrc, Rows rows) throws IOException {
+		File file = new File(dir, "roundtrip.partition.0");
+		PartitionFileWriter.writePartition(file.getPath(), firstSrc, rows.edgs, rows.vals);
+		report(name, file, verify(file, firstSrc, rows));
+		file.delete();
+	}
+
+	/**
+	 * Writes the rows through writeEdges(), in pieces and in a random order
+	 * of the rows, and reads them back.
+	 */
+	private void checkStreamed(String name, int firstSrc, Rows rows) throws IOException {
+		File file = new File(dir, "roundtrip.partition.0");
+		PartitionFileWriter writer = new PartitionFileWriter(file.getPath(), firstSrc, rows.lengths);
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < rows.lengths.length; i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order, random);
+		for (int i : order) {
+			for (int off = 0, n; off < rows.lengths[i]; off += n) {
+				n = Math.min(rows.lengths[i] - off, 1 + random.nextInt(IO_BUFFER_SIZE / 2));
+				writer.writeEdges(firstSrc + i, rows.edgs[i], rows.vals[i], off, n);
+			}
+		}
+		writer.close();
+		report(name, file, verify(file, firstSrc, rows));
+		file.delete();
+	}
+
+	/**
+	 * Flips a byte of the edges of a written partition, which must fail the
+	 * checksum.
+	 */
+	private void checkCorruption(String name, int firstSrc, Rows rows) throws IOException {
+		File file = new File(dir, "roundtrip.partition.0");
+		PartitionFileWriter.writePartition(file.getPath(), firstSrc, rows.edgs, rows.vals);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		long pos = raf.length() - 4 - 1 - random.nextInt(100);
+		raf.seek(pos);
+		int b = raf.read();
+		raf.seek(pos);
+		raf.write(b ^ 0x10);
+		raf.close();
+
+		String error;
+		try {
+			error = verify(file, firstSrc, rows);
+			if (error == null)
+				error = "corruption at " + pos + " not detected";
+			else
+				error = null;
+		} catch (IOException e) {
+			error = null;
+		}
+		report(name, file, error);
+		file.delete();
+	}
+
+	/**
+	 * Reads a partition back and compares it with the rows.
+	 *
+	 * @return a description of the first difference, or null if there is
+	 *         none
+	 */
+	private static String verify(File file, int firstSrc, Rows rows) throws IOException {
+		int numVertices = rows.lengths.length;
+		int[] range = PartitionFileReader.readCsrRange(file.getPath());
+		if (range == null || range[0] != firstSrc || range[1] != numVertices)
+			return "range " + (range == null ? "null" : range[0] + ", " + range[1]);
+
+		int[] outDegs = new int[numVertices];
+		if (!PartitionFileReader.readOutDegrees(file.getPath(), firstSrc, outDegs))
+			return "not a CSR partition";
+		for (int i = 0; i < numVertices; i++) {
+			if (outDegs[i] != rows.lengths[i])
+				return "degree of row " + i + " is " + outDegs[i] + " instead of " + rows.lengths[i];
+		}
+
+		int[][] edgs = new int[numVertices][];
+		byte[][] vals = new byte[numVertices][];
+		int[] lastAddedEdgePos = new int[numVertices];
+		for (int i = 0; i < numVertices; i++) {
+			edgs[i] = new int[outDegs[i]];
+			vals[i] = new byte[outDegs[i]];
+			lastAddedEdgePos[i] = -1;
+		}
+		PartitionFileReader.readPartition(file.getPath(), firstSrc, edgs, vals, lastAddedEdgePos);
+		for (int i = 0; i < numVertices; i++) {
+			if (lastAddedEdgePos[i] != rows.lengths[i] - 1)
+				return "row " + i + " has " + (lastAddedEdgePos[i] + 1) + " edges instead of " + rows.lengths[i];
+			for (int j = 0; j < rows.lengths[i]; j++) {
+				if (edgs[i][j] != rows.edgs[i][j] || vals[i][j] != rows.vals[i][j])
+					return "edge " + j + " of row " + i + " is (" + edgs[i][j] + ", " + vals[i][j] + ") instead of ("
+							+ rows.edgs[i][j] + ", " + rows.vals[i][j] + ")";
+			}
+		}
+		return null;
+	}
+
+	private void report(String name, File file, String error) {
+		if (error == null) {
+			System.out.println("ok     " + name + " (" + file.length() + " bytes)");
+		} else {
+			System.out.println("FAILED " + name + ": " + error);
+			numFailed++;
+		}
+	}
+
+}